@@ -0,0 +1,115 @@
+package norswap.autumn.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A corpus of Java source files used as benchmark input.
+ *
+ * <p>By default, the corpus is {@code corpus} (relative to the working directory — which is the
+ * project directory when running through Maven): a frozen copy of an early version of the sources
+ * of this library, which is available offline and doesn't change along with the library, so that
+ * results remain comparable across versions. Its files have a {@code .java.txt} extension, so that
+ * they aren't mistaken for sources of the library. Any directory can be used instead.
+ */
+public final class Corpus
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Default corpus location, relative to the project directory. */
+    public static final String DEFAULT_PATH = "corpus";
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** The paths of the files in the corpus, in lexicographic order. */
+    public final List<Path> paths;
+
+    /** The content of the files in the corpus, in the same order as {@link #paths}. */
+    public final List<String> files;
+
+    /** Sum of the lengths of all files, in UTF-16 code units. */
+    public final long total_chars;
+
+    /** Sum of the sizes of all files, in bytes. */
+    public final long total_bytes;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Corpus (List<Path> paths, List<String> files, long total_chars, long total_bytes)
+    {
+        this.paths = paths;
+        this.files = files;
+        this.total_chars = total_chars;
+        this.total_bytes = total_bytes;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Loads all the {@code .java} and {@code .java.txt} files under the given directory.
+     */
+    public static Corpus load (String directory)
+    {
+        Path root = Paths.get(directory);
+
+        if (!Files.isDirectory(root))
+            throw new IllegalArgumentException(
+                "corpus directory not found: " + root.toAbsolutePath());
+
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(root)) {
+            paths = walk
+                .filter(it -> it.toString().endsWith(".java")
+                    || it.toString().endsWith(".java.txt"))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (paths.isEmpty())
+            throw new IllegalArgumentException("no Java files in corpus: " + root.toAbsolutePath());
+
+        List<String> files = new ArrayList<>(paths.size());
+        long total_chars = 0;
+        long total_bytes = 0;
+
+        for (Path path: paths) {
+            try {
+                byte[] bytes = Files.readAllBytes(path);
+                String file = new String(bytes, StandardCharsets.UTF_8);
+                files.add(file);
+                total_chars += file.length();
+                total_bytes += bytes.length;
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        return new Corpus(
+            Collections.unmodifiableList(paths),
+            Collections.unmodifiableList(files),
+            total_chars,
+            total_bytes);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Total size of the corpus in megabytes (10^6 bytes). */
+    public double megabytes() {
+        return total_bytes / 1e6;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,140 @@
+package norswap.autumn.bench;
+
+import norswap.autumn.Autumn;
+import norswap.autumn.DSL;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link norswap.autumn.parsers.LeftExpression} and {@link
+ * norswap.autumn.parsers.RightExpression} over a long generated arithmetic expression, against a
+ * single {@link norswap.autumn.parsers.PrecedenceExpression} for the same operators.
+ *
+ * <p>The grammar has a right-associative level (exponentiation with a prefix minus) below two
+ * left-associative levels (multiplicative and additive operators), all of which build a value
+ * via push actions, so that the stack actions are part of the measure.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ExpressionBench
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of operands in the generated expression. */
+    @Param("10000")
+    public int operands;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static final class ArithGrammar extends DSL
+    {
+        { ws = usual_whitespace; }
+
+        public rule number = digit.at_least(1)
+            .push(with_string((p,xs,str) -> Integer.parseInt(str)))
+            .word();
+
+        public rule pow = right_expression()
+            .operand(number)
+            .infix(word("^"), xs -> (int) xs[0] ^ (int) xs[1])
+            .prefix(word("-"), xs -> - (int) xs[0])
+            .get();
+
+        public rule mult = left_expression()
+            .operand(pow)
+            .infix(word("*"), xs -> (int) xs[0] * (int) xs[1])
+            .infix(word("/"), xs -> (int) xs[0] / Math.max(1, (int) xs[1]))
+            .infix(word("%"), xs -> (int) xs[0] % Math.max(1, (int) xs[1]))
+            .get();
+
+        public rule add = left_expression()
+            .operand(mult)
+            .infix(word("+"), xs -> (int) xs[0] + (int) xs[1])
+            .infix(word("-"), xs -> (int) xs[0] - (int) xs[1])
+            .get();
+
+        public rule root = seq(ws, add);
+
+        { make_rule_names(); }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static final class PrecedenceGrammar extends DSL
+    {
+        { ws = usual_whitespace; }
+
+        public rule number = digit.at_least(1)
+            .push(with_string((p,xs,str) -> Integer.parseInt(str)))
+            .word();
+
+        public rule expr = precedence_expression()
+            .operand(number)
+            .infix(1, word("+"), xs -> (int) xs[0] + (int) xs[1])
+            .infix(1, word("-"), xs -> (int) xs[0] - (int) xs[1])
+            .infix(2, word("*"), xs -> (int) xs[0] * (int) xs[1])
+            .infix(2, word("/"), xs -> (int) xs[0] / Math.max(1, (int) xs[1]))
+            .infix(2, word("%"), xs -> (int) xs[0] % Math.max(1, (int) xs[1]))
+            .prefix(3, word("-"), xs -> - (int) xs[0])
+            .infix_right(4, word("^"), xs -> (int) xs[0] ^ (int) xs[1])
+            .get();
+
+        public rule root = seq(ws, expr);
+
+        { make_rule_names(); }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String[] OPERATORS = { " + ", " * ", " - ", " ^ ", " / ", " % ", " + -" };
+
+    private ArithGrammar grammar;
+    private PrecedenceGrammar precedence_grammar;
+    private ParseOptions options;
+    private String input;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup()
+    {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < operands; ++i) {
+            if (i > 0) b.append(OPERATORS[i % OPERATORS.length]);
+            b.append(1 + i % 97);
+        }
+        input = b.toString();
+
+        grammar = new ArithGrammar();
+        Autumn.parse(grammar.root, "1 + 1", ParseOptions.get());
+        options = ParseOptions.well_formedness_check(false).get();
+
+        if (!Autumn.parse(grammar.root, input, options).full_match)
+            throw new IllegalStateException("generated expression doesn't parse");
+
+        precedence_grammar = new PrecedenceGrammar();
+        Autumn.parse(precedence_grammar.root, "1 + 1", ParseOptions.get());
+
+        if (!Autumn.parse(precedence_grammar.root, input, options).full_match)
+            throw new IllegalStateException("generated expression doesn't parse");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public ParseResult expression() {
+        return Autumn.parse(grammar.root, input, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public ParseResult precedence_expression() {
+        return Autumn.parse(precedence_grammar.root, input, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
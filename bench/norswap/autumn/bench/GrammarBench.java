@@ -0,0 +1,144 @@
+package norswap.autumn.bench;
+
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.autumn.StackSampler;
+import norswap.autumn.compiler.ParserCompiler;
+import norswap.lang.java.Grammar;
+import norswap.lang.java.Lexer;
+import norswap.lang.java.TokenGrammar;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end benchmark of the Java grammar ({@link Grammar#root}) over a {@link Corpus}.
+ *
+ * <p>{@link #corpus} parses the whole corpus per operation and reports the parse throughput in
+ * megabytes per second through the {@code megabytes} counter. {@link #file} parses one file per
+ * operation (cycling over the corpus) in sample mode, in order to report latency percentiles.
+ *
+ * <p>The {@link #compiled} parameter compares the interpreted grammar with the grammar compiled by
+ * {@link ParserCompiler}.
+ *
+ * <p>The {@link #tokens} parameter compares the scannerless grammar with the {@link TokenGrammar}
+ * variant, which parses the packed token array produced by {@link Lexer#lex_packed()}. Lexing is
+ * included in the measured time.
+ *
+ * <p>The {@link #sampling} parameter (off by default, enable with {@code -p sampling=1000}) enables
+ * stack sampling ({@link StackSampler}) every so many rule invocations, to measure its overhead.
+ * Sampling runs the interpreted grammar, so compare it with {@code compiled=false}.
+ *
+ * <p>Run with {@code -prof gc} (the default in the Maven profile) to get allocation rates.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xss16m")
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class GrammarBench
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Path to the directory containing the corpus. */
+    @Param(Corpus.DEFAULT_PATH)
+    public String corpus;
+
+    /** Whether to compile the grammar with {@link ParserCompiler}. */
+    @Param({"false", "true"})
+    public boolean compiled;
+
+    /** Whether to lex the files with {@link Lexer} and parse them with {@link TokenGrammar}. */
+    @Param({"false", "true"})
+    public boolean tokens;
+
+    /** If non-zero, the number of rule invocations between stack samples. */
+    @Param("0")
+    public int sampling;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Corpus files;
+    private Grammar grammar;
+    private ParseOptions options;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup()
+    {
+        files = Corpus.load(corpus);
+        grammar = tokens ? new TokenGrammar() : new Grammar();
+
+        if (compiled && !ParserCompiler.compile(grammar.root.get()))
+            throw new IllegalStateException("no Java compiler available");
+
+        // Perform the well-formedness check only once.
+        parse("class Test {}", ParseOptions.get());
+        options = ParseOptions.well_formedness_check(false)
+            .sampler(sampling > 0 ? StackSampler.every(sampling) : null)
+            .get();
+
+        for (int i = 0; i < files.files.size(); ++i) {
+            ParseResult result = parse(files.files.get(i), options);
+            if (!result.full_match)
+                throw new IllegalStateException(
+                    "corpus file doesn't parse: " + files.paths.get(i) + "\n"
+                    + result.toString());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ParseResult parse (String file, ParseOptions options)
+    {
+        return tokens
+            ? Autumn.parse(grammar.root, new Lexer(file).lex_packed(), options)
+            : Autumn.parse(grammar.root, file, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Per-thread counters, reported as rates by JMH.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.THROUGHPUT)
+    public static class Counters
+    {
+        /** Megabytes (10^6 bytes) of input parsed. */
+        public double megabytes;
+
+        /** Next file to parse for {@link #file}. */
+        int next;
+
+        @Setup(Level.Iteration) public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void corpus (Counters counters, Blackhole hole)
+    {
+        for (String file: files.files)
+            hole.consume(parse(file, options));
+        counters.megabytes += files.megabytes();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public ParseResult file (Counters counters)
+    {
+        int i = counters.next;
+        counters.next = (i + 1) % files.files.size();
+        return parse(files.files.get(i), options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
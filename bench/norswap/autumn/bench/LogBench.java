@@ -0,0 +1,84 @@
+package norswap.autumn.bench;
+
+import norswap.autumn.Autumn;
+import norswap.autumn.DSL;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the side-effect {@link norswap.autumn.Log}, and in particular its rollback path.
+ *
+ * <p>The grammar matches a list of items followed by a terminator. The first alternative expects
+ * a terminator that never appears in the input, so that all the values pushed on the value stack
+ * (one per item, plus one per list) must be rolled back before the second alternative re-parses
+ * the list. Each operation therefore applies, rolls back and re-applies {@code 2 * items + 1}
+ * side effects.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LogBench
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of items in the input. */
+    @Param("10000")
+    public int items;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static final class ListGrammar extends DSL
+    {
+        { ws = usual_whitespace; }
+
+        public rule item = alpha.at_least(1)
+            .push(with_string((p,xs,str) -> str))
+            .word();
+
+        public rule items = item.at_least(0)
+            .push(xs -> xs.length);
+
+        public rule root = seq(ws, choice(
+            seq(items, word("!")),
+            seq(items, word(";"))));
+
+        { make_rule_names(); }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ListGrammar grammar;
+    private ParseOptions options;
+    private String input;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup()
+    {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < items; ++i)
+            b.append(i % 2 == 0 ? "abc " : "de ");
+        b.append(";");
+        input = b.toString();
+
+        grammar = new ListGrammar();
+        Autumn.parse(grammar.root, "a ;", ParseOptions.get());
+        options = ParseOptions.well_formedness_check(false).get();
+
+        if (!Autumn.parse(grammar.root, input, options).full_match)
+            throw new IllegalStateException("generated input doesn't parse");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public ParseResult backtrack() {
+        return Autumn.parse(grammar.root, input, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
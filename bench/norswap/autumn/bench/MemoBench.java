@@ -0,0 +1,96 @@
+package norswap.autumn.bench;
+
+import norswap.autumn.Parser;
+import norswap.autumn.SideEffect;
+import norswap.autumn.memo.MemoCache;
+import norswap.autumn.memo.MemoEntry;
+import norswap.autumn.memo.MemoTable;
+import norswap.autumn.memo.Memoizer;
+import norswap.autumn.memo.PackedMemoTable;
+import norswap.autumn.parsers.StringMatch;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-benchmarks for the {@link Memoizer} implementations ({@link MemoTable}, {@link
+ * PackedMemoTable} and {@link MemoCache}).
+ *
+ * <p>Each operation simulates the memoization traffic of a packrat parse over {@link #positions}
+ * input positions: at each position, {@link #parsers} parsers look up their entry (missing), then
+ * store it, and then look it up again (hit). One in four entries is a failure.
+ *
+ * <p>Use {@code -prof gc} to see the allocation cost of entries and table growth.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MemoBench
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Memoizer implementation: {@code table} (MemoTable), {@code packed} (PackedMemoTable) or
+     * {@code cache} (MemoCache, 8 slots).
+     */
+    @Param({"table", "packed", "cache"})
+    public String memoizer;
+
+    /** Number of input positions per operation. */
+    @Param("10000")
+    public int positions;
+
+    /** Number of distinct parsers memoized at each position. */
+    @Param("4")
+    public int parsers;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Parser[] parser_objects;
+    private final List<SideEffect> delta = Collections.singletonList(() -> () -> {});
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup()
+    {
+        parser_objects = new Parser[parsers];
+        for (int i = 0; i < parsers; ++i)
+            parser_objects[i] = new StringMatch("p" + i, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Memoizer make()
+    {
+        switch (memoizer) {
+            case "table": return new MemoTable(true);
+            case "packed": return new PackedMemoTable(true);
+            case "cache": return new MemoCache(8, true);
+            default: throw new IllegalArgumentException("unknown memoizer: " + memoizer);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public void memoize_and_get (Blackhole hole)
+    {
+        Memoizer memo = make();
+
+        for (int pos = 0; pos < positions; ++pos)
+            for (int i = 0; i < parser_objects.length; ++i)
+            {
+                Parser parser = parser_objects[i];
+                hole.consume(memo.get(parser, pos, null));
+                boolean success = (pos + i) % 4 != 0;
+                memo.memoize(new MemoEntry(success, parser, pos, pos + 1, delta, null));
+                hole.consume(memo.get(parser, pos, null));
+            }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,105 @@
+package norswap.autumn.bench;
+
+import norswap.autumn.Autumn;
+import norswap.autumn.DSL;
+import norswap.autumn.Edit;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the tracking of examined input extents ({@link norswap.autumn.Parse#examined}) and
+ * incremental reparsing ({@link Autumn#reparse}).
+ *
+ * <p>The grammar matches a list of memoized statements. {@link #parse} measures a full parse, which
+ * includes the cost of extent tracking (compare with a build without it to measure its overhead).
+ * {@link #reparse} measures reparsing the input after replacing a character in the middle
+ * statement, starting from the result of a full parse: only the middle statement should be parsed
+ * again.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReparseBench
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of statements in the input. */
+    @Param("10000")
+    public int statements;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static final class StatementGrammar extends DSL
+    {
+        { ws = usual_whitespace; }
+
+        public rule identifier = seq(alpha, alphanum.at_least(0))
+            .push(with_string((p,xs,str) -> str))
+            .word();
+
+        public rule number = digit.at_least(1)
+            .push(with_string((p,xs,str) -> Integer.parseInt(str)))
+            .word();
+
+        public rule statement = seq(identifier, word("="), choice(number, identifier), word(";"))
+            .push(xs -> xs)
+            .memo();
+
+        public rule root = seq(ws, statement.at_least(0));
+
+        { make_rule_names(); }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private StatementGrammar grammar;
+    private ParseOptions options;
+    private String input;
+    private ParseResult previous;
+    private Edit edit;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup()
+    {
+        StringBuilder b = new StringBuilder();
+        int middle = 0;
+        for (int i = 0; i < statements; ++i) {
+            if (i == statements / 2) middle = b.length();
+            b.append("x").append(i).append(" = ").append(i % 2 == 0 ? "12" : "y").append(";\n");
+        }
+        input = b.toString();
+
+        grammar = new StatementGrammar();
+        Autumn.parse(grammar.root, "a = 1;", ParseOptions.get());
+        options = ParseOptions.well_formedness_check(false).get();
+
+        previous = Autumn.parse(grammar.root, input, options);
+        if (!previous.full_match)
+            throw new IllegalStateException("generated input doesn't parse");
+
+        // "x<n>" -> "z<n>"
+        edit = new Edit(middle, middle + 1, "z");
+        if (!Autumn.reparse(previous, edit).full_match)
+            throw new IllegalStateException("edited input doesn't parse");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public ParseResult parse() {
+        return Autumn.parse(grammar.root, input, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public ParseResult reparse() {
+        return Autumn.reparse(previous, edit);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,94 @@
+package norswap.autumn.bench;
+
+import norswap.autumn.Autumn;
+import norswap.autumn.DSL;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.autumn.Parser;
+import norswap.lang.java.Grammar;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the {@link norswap.autumn.parsers.Tokens} layer in isolation, by tokenizing a {@link
+ * Corpus} using the tokens of the Java grammar ({@link Grammar}).
+ *
+ * <p>The lexer is a repetition of a {@link norswap.autumn.parsers.TokenChoice} over all the base
+ * token parsers of the grammar, preceded by whitespace. This exercises the token cache fill
+ * (longest match over all token parsers) and the token memoizer.
+ *
+ * <p>Reports the lexing throughput in megabytes per second through the {@code megabytes} counter.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TokensBench
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Path to the directory containing the corpus. */
+    @Param(Corpus.DEFAULT_PATH)
+    public String corpus;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Corpus files;
+    private Parser lexer;
+    private ParseOptions options;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup()
+    {
+        files = Corpus.load(corpus);
+
+        Grammar grammar = new Grammar();
+        Parser[] tokens = grammar.tokens.parsers().toArray(new Parser[0]);
+        DSL.rule choice = grammar.rule(grammar.tokens.token_choice(tokens));
+        lexer = grammar.seq(grammar.ws, choice.at_least(0)).get();
+
+        Autumn.parse(lexer, "class Test {}", ParseOptions.get());
+        options = ParseOptions.well_formedness_check(false).get();
+
+        for (int i = 0; i < files.files.size(); ++i) {
+            ParseResult result = Autumn.parse(lexer, files.files.get(i), options);
+            if (!result.full_match)
+                throw new IllegalStateException(
+                    "corpus file doesn't tokenize: " + files.paths.get(i) + "\n"
+                    + result.toString());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Per-thread counters, reported as rates by JMH.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.THROUGHPUT)
+    public static class Counters
+    {
+        /** Megabytes (10^6 bytes) of input tokenized. */
+        public double megabytes;
+
+        @Setup(Level.Iteration) public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void tokenize (Counters counters, Blackhole hole)
+    {
+        for (String file: files.files)
+            hole.consume(Autumn.parse(lexer, file, options));
+        counters.megabytes += files.megabytes();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
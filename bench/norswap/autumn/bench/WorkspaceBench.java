@@ -0,0 +1,65 @@
+package norswap.autumn.bench;
+
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.autumn.ParseWorkspace;
+import norswap.autumn.bench.ExpressionBench.ArithGrammar;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the per-parse overhead on a short input (an arithmetic expression of about 20
+ * characters), comparing {@link Autumn#parse} with and without the well-formedness check to a
+ * {@link ParseWorkspace}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WorkspaceBench
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String INPUT = "1 + 2 * -3 ^ 4 / 5 - 6";
+
+    private ArithGrammar grammar;
+    private ParseOptions checked;
+    private ParseOptions unchecked;
+    private ParseWorkspace workspace;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup()
+    {
+        grammar = new ArithGrammar();
+        checked = ParseOptions.get();
+        unchecked = ParseOptions.well_formedness_check(false).get();
+        workspace = Autumn.workspace(grammar.root, checked);
+
+        if (!workspace.parse(INPUT).full_match)
+            throw new IllegalStateException("input doesn't parse");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public ParseResult parse_checked() {
+        return Autumn.parse(grammar.root, INPUT, checked);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public ParseResult parse_unchecked() {
+        return Autumn.parse(grammar.root, INPUT, unchecked);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public ParseResult workspace() {
+        return workspace.parse(INPUT);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -5,14 +5,40 @@ import norswap.autumn.StackAction;
 import norswap.lang.java.ast.*;
 import norswap.lang.java.ast.TypeDeclaration.Kind;
 import norswap.utils.Pair;
+import java.util.function.Supplier;
 
 import static java.util.Collections.emptyList;
 import static norswap.lang.java.LexUtils.*;
 import static norswap.lang.java.ast.BinaryOperator.*;
 import static norswap.lang.java.ast.UnaryOperator.*;
 
-public final class Grammar extends DSL
+public class Grammar extends DSL
 {
+    /// LEXICAL HOOKS ==============================================================================
+
+    /**
+     * Returns the parser for a lexical element (keyword, operator, identifier or literal) that the
+     * {@link Lexer} lexes to a token of one of the given kinds — or that it skips, if no kinds are
+     * given (whitespace and comments).
+     *
+     * <p>This returns the parser supplied by {@code scannerless}, which matches the element in the
+     * text. {@link TokenGrammar} overrides this to match the lexed tokens instead. Since this is
+     * called while initializing the fields of this class, overrides must not read the fields of
+     * their own class.
+     */
+    protected rule lex (Supplier<rule> scannerless, TokenKind... kinds) {
+        return scannerless.get();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the parser for the keyword or operator {@code string}.
+     */
+    private rule token (String string) {
+        return lex(() -> word(string).token(), TokenKind.lookup(string));
+    }
+
     /// LEXICAL ====================================================================================
 
     // Whitespace ----------------------------------------------------------------------------------
@@ -28,129 +54,131 @@ public final class Grammar extends DSL
 
     // Keywords and Operators ----------------------------------------------------------------------
 
-    public rule _boolean        = word("boolean")      .token();
-    public rule _byte           = word("byte")         .token();
-    public rule _char           = word("char")         .token();
-    public rule _double         = word("double")       .token();
-    public rule _float          = word("float")        .token();
-    public rule _int            = word("int")          .token();
-    public rule _long           = word("long")         .token();
-    public rule _short          = word("short")        .token();
-    public rule _void           = word("void")         .token();
-    public rule _abstract       = word("abstract")     .token();
-    public rule _default        = word("default")      .token();
-    public rule _final          = word("final")        .token();
-    public rule _native         = word("native")       .token();
-    public rule _private        = word("private")      .token();
-    public rule _protected      = word("protected")    .token();
-    public rule _public         = word("public")       .token();
-    public rule _static         = word("static")       .token();
-    public rule _strictfp       = word("strictfp")     .token();
-    public rule _synchronized   = word("synchronized") .token();
-    public rule _transient      = word("transient")    .token();
-    public rule _volatile       = word("volatile")     .token();
-    public rule _assert         = word("assert")       .token();
-    public rule _break          = word("break")        .token();
-    public rule _case           = word("case")         .token();
-    public rule _catch          = word("catch")        .token();
-    public rule _class          = word("class")        .token();
-    public rule _const          = word("const")        .token();
-    public rule _continue       = word("continue")     .token();
-    public rule _do             = word("do")           .token();
-    public rule _else           = word("else")         .token();
-    public rule _enum           = word("enum")         .token();
-    public rule _extends        = word("extends")      .token();
-    public rule _finally        = word("finally")      .token();
-    public rule _for            = word("for")          .token();
-    public rule _goto           = word("goto")         .token();
-    public rule _if             = word("if")           .token();
-    public rule _implements     = word("implements")   .token();
-    public rule _import         = word("import")       .token();
-    public rule _interface      = word("interface")    .token();
-    public rule _instanceof     = word("instanceof")   .token();
-    public rule _new            = word("new")          .token();
-    public rule _package        = word("package")      .token();
-    public rule _return         = word("return")       .token();
-    public rule _super          = word("super")        .token();
-    public rule _switch         = word("switch")       .token();
-    public rule _this           = word("this")         .token();
-    public rule _throws         = word("throws")       .token();
-    public rule _throw          = word("throw")        .token();
-    public rule _try            = word("try")          .token();
-    public rule _while          = word("while")        .token();
+    public rule _boolean        = token("boolean");
+    public rule _byte           = token("byte");
+    public rule _char           = token("char");
+    public rule _double         = token("double");
+    public rule _float          = token("float");
+    public rule _int            = token("int");
+    public rule _long           = token("long");
+    public rule _short          = token("short");
+    public rule _void           = token("void");
+    public rule _abstract       = token("abstract");
+    public rule _default        = token("default");
+    public rule _final          = token("final");
+    public rule _native         = token("native");
+    public rule _private        = token("private");
+    public rule _protected      = token("protected");
+    public rule _public         = token("public");
+    public rule _static         = token("static");
+    public rule _strictfp       = token("strictfp");
+    public rule _synchronized   = token("synchronized");
+    public rule _transient      = token("transient");
+    public rule _volatile       = token("volatile");
+    public rule _assert         = token("assert");
+    public rule _break          = token("break");
+    public rule _case           = token("case");
+    public rule _catch          = token("catch");
+    public rule _class          = token("class");
+    public rule _const          = token("const");
+    public rule _continue       = token("continue");
+    public rule _do             = token("do");
+    public rule _else           = token("else");
+    public rule _enum           = token("enum");
+    public rule _extends        = token("extends");
+    public rule _finally        = token("finally");
+    public rule _for            = token("for");
+    public rule _goto           = token("goto");
+    public rule _if             = token("if");
+    public rule _implements     = token("implements");
+    public rule _import         = token("import");
+    public rule _interface      = token("interface");
+    public rule _instanceof     = token("instanceof");
+    public rule _new            = token("new");
+    public rule _package        = token("package");
+    public rule _return         = token("return");
+    public rule _super          = token("super");
+    public rule _switch         = token("switch");
+    public rule _this           = token("this");
+    public rule _throws         = token("throws");
+    public rule _throw          = token("throw");
+    public rule _try            = token("try");
+    public rule _while          = token("while");
 
     // Names are taken from the javac8 lexer.
     // https://github.com/dmlloyd/openjdk/blob/jdk8u/jdk8u/langtools/src/share/classes/com/sun/tools/javac/parser/Tokens.java
     // ordering matters when there are shared prefixes!
 
-    public rule BANG            = word("!")            .token();
-    public rule BANGEQ          = word("!=")           .token();
-    public rule PERCENT         = word("%")            .token();
-    public rule PERCENTEQ       = word("%=")           .token();
-    public rule AMP             = word("&")            .token();
-    public rule AMPAMP          = word("&&")           .token();
-    public rule AMPEQ           = word("&=")           .token();
-    public rule LPAREN          = word("(")            .token();
-    public rule RPAREN          = word(")")            .token();
-    public rule STAR            = word("*")            .token();
-    public rule STAREQ          = word("*=")           .token();
-    public rule PLUS            = word("+")            .token();
-    public rule PLUSPLUS        = word("++")           .token();
-    public rule PLUSEQ          = word("+=")           .token();
-    public rule COMMA           = word(",")            .token();
-    public rule SUB             = word("-")            .token();
-    public rule SUBSUB          = word("--")           .token();
-    public rule SUBEQ           = word("-=")           .token();
-    public rule EQ              = word("=")            .token();
-    public rule EQEQ            = word("==")           .token();
-    public rule QUES            = word("?")            .token();
-    public rule CARET           = word("^")            .token();
-    public rule CARETEQ         = word("^=")           .token();
-    public rule LBRACE          = word("{")            .token();
-    public rule RBRACE          = word("}")            .token();
-    public rule BAR             = word("|")            .token();
-    public rule BARBAR          = word("||")           .token();
-    public rule BAREQ           = word("|=")           .token();
-    public rule TILDE           = word("~")            .token();
-    public rule MONKEYS_AT      = word("@")            .token();
-    public rule DIV             = word("/")            .token();
-    public rule DIVEQ           = word("/=")           .token();
-    public rule GTEQ            = word(">=")           .token();
-    public rule LTEQ            = word("<=")           .token();
-    public rule LTLTEQ          = word("<<=")          .token();
-    public rule LTLT            = word("<<")           .token();
-    public rule GTGTEQ          = word(">>=")          .token();
-    public rule GTGTGTEQ        = word(">>>=")         .token();
-    public rule GT              = word(">")            .token();
-    public rule LT              = word("<")            .token();
-    public rule LBRACKET        = word("[")            .token();
-    public rule RBRACKET        = word("]")            .token();
-    public rule ARROW           = word("->")           .token();
-    public rule COL             = word(":")            .token();
-    public rule COLCOL          = word("::")           .token();
-    public rule SEMI            = word(";")            .token();
-    public rule DOT             = word(".")            .token();
-    public rule ELLIPSIS        = word("...")          .token();
+    public rule BANG            = token("!");
+    public rule BANGEQ          = token("!=");
+    public rule PERCENT         = token("%");
+    public rule PERCENTEQ       = token("%=");
+    public rule AMP             = token("&");
+    public rule AMPAMP          = token("&&");
+    public rule AMPEQ           = token("&=");
+    public rule LPAREN          = token("(");
+    public rule RPAREN          = token(")");
+    public rule STAR            = token("*");
+    public rule STAREQ          = token("*=");
+    public rule PLUS            = token("+");
+    public rule PLUSPLUS        = token("++");
+    public rule PLUSEQ          = token("+=");
+    public rule COMMA           = token(",");
+    public rule SUB             = token("-");
+    public rule SUBSUB          = token("--");
+    public rule SUBEQ           = token("-=");
+    public rule EQ              = token("=");
+    public rule EQEQ            = token("==");
+    public rule QUES            = token("?");
+    public rule CARET           = token("^");
+    public rule CARETEQ         = token("^=");
+    public rule LBRACE          = token("{");
+    public rule RBRACE          = token("}");
+    public rule BAR             = token("|");
+    public rule BARBAR          = token("||");
+    public rule BAREQ           = token("|=");
+    public rule TILDE           = token("~");
+    public rule MONKEYS_AT      = token("@");
+    public rule DIV             = token("/");
+    public rule DIVEQ           = token("/=");
+    public rule GTEQ            = token(">=");
+    public rule LTEQ            = token("<=");
+    public rule LTLTEQ          = token("<<=");
+    public rule LTLT            = token("<<");
+    public rule GTGTEQ          = token(">>=");
+    public rule GTGTGTEQ        = token(">>>=");
+    public rule GT              = token(">");
+    public rule LT              = token("<");
+    public rule LBRACKET        = token("[");
+    public rule RBRACKET        = token("]");
+    public rule ARROW           = token("->");
+    public rule COL             = token(":");
+    public rule COLCOL          = token("::");
+    public rule SEMI            = token(";");
+    public rule DOT             = token(".");
+    public rule ELLIPSIS        = token("...");
 
     // These two are not tokens, because they would cause issue with nested generic types.
     // e.g. in List<List<String>>, you want ">>" to lex as [_GT, _GT]
+    // (which is also what Lexer#lex_packed does)
 
-    public rule GTGT            = word(">>");
-    public rule GTGTGT          = word(">>>");
+    public rule GTGT            = lex(() -> word(">>"),  TokenKind.GTGT);
+    public rule GTGTGT          = lex(() -> word(">>>"), TokenKind.GTGTGT);
 
-    public rule _false          = word("false")     .as_val(false)      .token();
-    public rule _true           = word("true")      .as_val(true)       .token();
-    public rule _null           = word("null")      .as_val(Null.NULL)  .token();
+    public rule _false = lex(() -> word("false").as_val(false).token(),     TokenKind.FALSE);
+    public rule _true  = lex(() -> word("true").as_val(true).token(),       TokenKind.TRUE);
+    public rule _null  = lex(() -> word("null").as_val(Null.NULL).token(),  TokenKind.NULL);
 
     // Identifiers ---------------------------------------------------------------------------------
 
     public rule id_start    = cpred(Character::isJavaIdentifierStart);
     public rule id_part     = cpred(c -> c != 0 && Character.isJavaIdentifierPart(c));
 
-    public rule iden = seq(id_start, id_part.at_least(0))
+    public rule iden = lex(() -> seq(id_start, id_part.at_least(0))
         .push(with_string((p,xs,str) -> Identifier.mk(str)))
         .word()
-        .token();
+        .token(),
+        TokenKind.IDENTIFIER, TokenKind.UNDERSCORE);
 
     // Numerals - Common Parts ---------------------------------------------------------------------
 
@@ -182,9 +210,10 @@ public final class Grammar extends DSL
         seq(digits1, exponent, float_suffix_opt),
         seq(digits1, exponent.opt(), float_suffix));
 
-    public rule float_literal = choice(hex_float_lit, decimal_float_lit)
+    public rule float_literal = lex(() -> choice(hex_float_lit, decimal_float_lit)
         .push(with_string((p,xs,str) -> parse_floating(str).unwrap()))
-        .token();
+        .token(),
+        TokenKind.FLOATLITERAL, TokenKind.DOUBLELITERAL);
 
     // Numerals - Integral -------------------------------------------------------------------------
 
@@ -195,9 +224,10 @@ public final class Grammar extends DSL
     public rule decimal_num     = choice("0", digits1);
     public rule integer_num     = choice(hex_num, binary_num, octal_num, decimal_num);
 
-    public rule integer_literal = seq(integer_num, set("lL").opt())
+    public rule integer_literal = lex(() -> seq(integer_num, set("lL").opt())
         .push(with_string((p,xs,str) -> parse_integer(str).unwrap()))
-        .token();
+        .token(),
+        TokenKind.INTLITERAL, TokenKind.LONGLITERAL);
 
     // Characters and Strings ----------------------------------------------------------------------
 
@@ -210,19 +240,24 @@ public final class Grammar extends DSL
     public rule naked_char      = choice(escape, seq(set("'\\\n\r").not(), any));
     public rule nake_str_char   = choice(escape, seq(set("\"\\\n\r").not(), any));
 
-    public rule char_literal = seq("'", naked_char, "'")
+    public rule char_literal = lex(() -> seq("'", naked_char, "'")
         .push(with_string((p,xs,str) -> parse_char(str).unwrap()))
-        .token();
+        .token(),
+        TokenKind.CHARLITERAL);
 
-    public rule string_literal = seq("\"", nake_str_char.at_least(0), "\"")
+    public rule string_literal = lex(() -> seq("\"", nake_str_char.at_least(0), "\"")
         .push(with_string((p,xs,str) -> parse_string(str).unwrap()))
-        .token();
+        .token(),
+        TokenKind.STRINGLITERAL);
 
     // Literal ----------------------------------------------------------------
 
-    public rule literal = token_choice(
+    public rule literal = lex(() -> token_choice(
             integer_literal, string_literal, _null, float_literal, _true, _false, char_literal)
-        .word()
+        .word(),
+        TokenKind.INTLITERAL, TokenKind.LONGLITERAL, TokenKind.STRINGLITERAL, TokenKind.NULL,
+        TokenKind.FLOATLITERAL, TokenKind.DOUBLELITERAL, TokenKind.TRUE, TokenKind.FALSE,
+        TokenKind.CHARLITERAL)
         .push(xs -> Literal.mk(xs[0]));
 
     //// LAZY FORWARD REFS =========================================================================
@@ -285,7 +320,9 @@ public final class Grammar extends DSL
     /// TYPES ======================================================================================
 
     public rule basic_type =
-        token_choice(_byte, _short, _int, _long, _char, _float, _double, _boolean, _void)
+        lex(() -> token_choice(_byte, _short, _int, _long, _char, _float, _double, _boolean, _void),
+            TokenKind.BYTE, TokenKind.SHORT, TokenKind.INT, TokenKind.LONG, TokenKind.CHAR,
+            TokenKind.FLOAT, TokenKind.DOUBLE, TokenKind.BOOLEAN, TokenKind.VOID)
         .push(with_string((p,xs,str) -> BasicType.valueOf("_" + trim_trailing_whitespace(str))));
 
     public rule primitive_type =
@@ -446,7 +483,7 @@ public final class Grammar extends DSL
         lambda, par_expr, array_ctor_call, ctor_call, type_suffix_expr, iden_or_method_expr,
         this_expr, super_expr, literal);
 
-    // Expression - Postfix & Prefix ------------------------------------------
+    // Expression - Prefix ----------------------------------------------------
 
     public rule prefix_op = choice(
         PLUSPLUS    .as_val(PREFIX_INCREMENT),
@@ -456,35 +493,6 @@ public final class Grammar extends DSL
         TILDE       .as_val(BITWISE_COMPLEMENT),
         BANG        .as_val(LOGICAL_COMPLEMENT));
 
-    public rule postfix_expr = left_expression()
-        .left(primary_expr)
-        .suffix(seq(DOT, opt_type_args, iden, args),
-            xs -> MethodCall.mk($(xs,0), $(xs,1), $(xs,2), $(xs,3)))
-        .suffix(seq(DOT, iden),
-            xs -> DotIden.mk($(xs,0), $(xs,1)))
-        .suffix(seq(DOT, _this),
-            xs -> UnaryExpression.mk(DOT_THIS, $(xs,0)))
-        .suffix(seq(DOT, _super),
-            xs -> UnaryExpression.mk(DOT_SUPER, $(xs,0)))
-        .suffix(seq(DOT, ctor_call),
-            xs -> DotNew.mk($(xs,0), $(xs,1)))
-        .suffix(seq(LBRACKET, _expr, RBRACKET),
-            xs -> ArrayAccess.mk($(xs,0), $(xs,1)))
-        .suffix(PLUSPLUS,
-            xs -> UnaryExpression.mk(POSTFIX_INCREMENT, $(xs,0)))
-        .suffix(SUBSUB,
-            xs -> UnaryExpression.mk(POSTFIX_DECREMENT, $(xs,0)))
-        .suffix(seq(COLCOL, opt_type_args, iden),
-            xs -> BoundMethodReference.mk($(xs,0), $(xs,1), $(xs,2)))
-        .get();
-
-    public rule prefix_expr = recursive(self -> choice(
-        seq(prefix_op, self)
-            .push(xs -> UnaryExpression.mk($(xs,0), $(xs,1))),
-        seq(LPAREN, type_union, RPAREN, self)
-            .push(xs -> Cast.mk($(xs,0), $(xs,1))),
-        postfix_expr));
-
     // Expression - Binary ----------------------------------------------------
 
     StackAction.Push binary_push =
@@ -528,65 +536,132 @@ public final class Grammar extends DSL
         CARETEQ     .as_val(XOR_ASSIGNMENT),
         BAREQ       .as_val(OR_ASSIGNMENT));
 
-    public rule mult_expr = left_expression()
-        .operand(prefix_expr)
-        .infix(mult_op, binary_push).get();
+    // Expression - Precedence Table ------------------------------------------
 
-    public rule add_expr = left_expression()
-        .operand(mult_expr)
-        .infix(add_op, binary_push).get();
+    // Binding powers, from loosest to tightest:
+    // assignment (2), ternary (3), || (4), && (5), | (6), ^ (7), & (8), equality (9),
+    // relational & instanceof (10), shift (11), additive (12), multiplicative (13),
+    // prefix & cast (15), postfix (16)
 
-    public rule shift_expr = left_expression()
-        .operand(add_expr)
-        .infix(shift_op, binary_push).get();
+    // The table is built from the tightest operators to the loosest. Each intermediate table only
+    // has the operators with at least a given binding power, and yields the rule for the
+    // expressions at that level.
 
-    public rule order_expr = left_expression()
-        .operand(shift_expr)
-        .suffix(seq(_instanceof, type),
-            xs -> InstanceOf.mk($(xs,0), $(xs,1)))
-        .infix(order_op, binary_push)
-        .get();
+    PrecedenceExpressionBuilder postfix_table = precedence_expression()
+        .operand(primary_expr)
+        .suffix(16, seq(DOT, opt_type_args, iden, args),
+            xs -> MethodCall.mk($(xs,0), $(xs,1), $(xs,2), $(xs,3)))
+        .suffix(16, seq(DOT, iden),
+            xs -> DotIden.mk($(xs,0), $(xs,1)))
+        .suffix(16, seq(DOT, _this),
+            xs -> UnaryExpression.mk(DOT_THIS, $(xs,0)))
+        .suffix(16, seq(DOT, _super),
+            xs -> UnaryExpression.mk(DOT_SUPER, $(xs,0)))
+        .suffix(16, seq(DOT, ctor_call),
+            xs -> DotNew.mk($(xs,0), $(xs,1)))
+        .suffix(16, seq(LBRACKET, _expr, RBRACKET),
+            xs -> ArrayAccess.mk($(xs,0), $(xs,1)))
+        .suffix(16, PLUSPLUS,
+            xs -> UnaryExpression.mk(POSTFIX_INCREMENT, $(xs,0)))
+        .suffix(16, SUBSUB,
+            xs -> UnaryExpression.mk(POSTFIX_DECREMENT, $(xs,0)))
+        .suffix(16, seq(COLCOL, opt_type_args, iden),
+            xs -> BoundMethodReference.mk($(xs,0), $(xs,1), $(xs,2)));
 
-    public rule eq_expr = left_expression()
-        .operand(order_expr)
-        .infix(eq_op, binary_push).get();
+    public rule postfix_expr =
+        postfix_table.get();
 
-    public rule binary_and_expr = left_expression()
-        .operand(eq_expr)
-        .infix(AMP.as_val(AND), binary_push).get();
+    PrecedenceExpressionBuilder prefix_table = postfix_table
+        .prefix(15, prefix_op,
+            xs -> UnaryExpression.mk($(xs,0), $(xs,1)))
+        .prefix(15, seq(LPAREN, type_union, RPAREN),
+            xs -> Cast.mk($(xs,0), $(xs,1)));
 
-    public rule xor_expr = left_expression()
-        .operand(binary_and_expr)
-        .infix(CARET.as_val(XOR), binary_push).get();
+    public rule prefix_expr =
+        prefix_table.get();
 
-    public rule binary_or_expr = left_expression()
-        .operand(xor_expr)
-        .infix(BAR.as_val(OR), binary_push).get();
+    PrecedenceExpressionBuilder mult_table =
+        prefix_table.infix(13, mult_op, binary_push);
 
-    public rule conditional_and_expr = left_expression()
-        .operand(binary_or_expr)
-        .infix(AMPAMP.as_val(CONDITIONAL_AND), binary_push).get();
+    public rule mult_expr =
+        mult_table.get();
 
-    public rule conditional_or_expr = left_expression()
-        .operand(conditional_and_expr)
-        .infix(BARBAR.as_val(CONDITIONAL_OR), binary_push).get();
+    PrecedenceExpressionBuilder add_table =
+        mult_table.infix(12, add_op, binary_push);
 
-    public rule ternary_expr = right_expression()
-        .operand(conditional_or_expr)
-        .infix(seq(QUES, _expr, COL),
-            xs -> TernaryExpression.mk($(xs,0), $(xs,1), $(xs,2)))
-        .get();
+    public rule add_expr =
+        add_table.get();
+
+    PrecedenceExpressionBuilder shift_table =
+        add_table.infix(11, shift_op, binary_push);
+
+    public rule shift_expr =
+        shift_table.get();
+
+    PrecedenceExpressionBuilder order_table = shift_table
+        .infix(10, order_op, binary_push)
+        .suffix(10, seq(_instanceof, type),
+            xs -> InstanceOf.mk($(xs,0), $(xs,1)));
+
+    public rule order_expr =
+        order_table.get();
+
+    PrecedenceExpressionBuilder eq_table =
+        order_table.infix(9, eq_op, binary_push);
+
+    public rule eq_expr =
+        eq_table.get();
+
+    PrecedenceExpressionBuilder binary_and_table =
+        eq_table.infix(8, AMP.as_val(AND), binary_push);
+
+    public rule binary_and_expr =
+        binary_and_table.get();
+
+    PrecedenceExpressionBuilder xor_table =
+        binary_and_table.infix(7, CARET.as_val(XOR), binary_push);
 
-    public rule expr = right_expression()
-        .operand(ternary_expr)
-        .infix(assignment_op, binary_push).get();
+    public rule xor_expr =
+        xor_table.get();
+
+    PrecedenceExpressionBuilder binary_or_table =
+        xor_table.infix(6, BAR.as_val(OR), binary_push);
+
+    public rule binary_or_expr =
+        binary_or_table.get();
+
+    PrecedenceExpressionBuilder conditional_and_table =
+        binary_or_table.infix(5, AMPAMP.as_val(CONDITIONAL_AND), binary_push);
+
+    public rule conditional_and_expr =
+        conditional_and_table.get();
+
+    PrecedenceExpressionBuilder conditional_or_table =
+        conditional_and_table.infix(4, BARBAR.as_val(CONDITIONAL_OR), binary_push);
+
+    public rule conditional_or_expr =
+        conditional_or_table.get();
+
+    PrecedenceExpressionBuilder conditional_table = conditional_or_table
+        .infix_right(3, seq(QUES, _expr, COL),
+            xs -> TernaryExpression.mk($(xs,0), $(xs,1), $(xs,2)));
+
+    public rule ternary_expr =
+        conditional_table.get();
+
+    public rule expr = conditional_table
+        .infix_right(2, assignment_op, binary_push)
+        .get();
 
     /// MODIFIERS ==================================================================================
 
     public rule keyword_modifier =
-        token_choice(
+        lex(() -> token_choice(
             _public, _protected, _private, _abstract, _static, _final, _synchronized,
-            _native, _strictfp, _default, _transient, _volatile)
+            _native, _strictfp, _default, _transient, _volatile),
+            TokenKind.PUBLIC, TokenKind.PROTECTED, TokenKind.PRIVATE, TokenKind.ABSTRACT,
+            TokenKind.STATIC, TokenKind.FINAL, TokenKind.SYNCHRONIZED, TokenKind.NATIVE,
+            TokenKind.STRICTFP, TokenKind.DEFAULT, TokenKind.TRANSIENT, TokenKind.VOLATILE)
             .push(with_string((p,xs,str) -> Keyword.valueOf("_" + trim_trailing_whitespace(str))));
 
     public rule modifier =
@@ -785,8 +860,9 @@ public final class Grammar extends DSL
     public rule type_decl =
         seq(modifiers, type_decl_suffix);
 
+    // The cut lets memoizers discard results from previous top-level declarations.
     public rule type_decls =
-        choice(type_decl, SEMI).at_least(0)
+        choice(seq(type_decl, cut), SEMI).at_least(0)
         .collect().as_list(Declaration.class);
 
     /// STATEMENTS =================================================================================
@@ -956,10 +1032,10 @@ public final class Grammar extends DSL
         .collect().as_list(ImportDeclaration.class);
 
     public rule root =
-        seq(ws, package_decl.maybe(), import_decls, type_decls)
+        seq(lex(() -> ws), package_decl.maybe(), import_decls, type_decls)
         .push(xs -> JavaFile.mk($(xs,0), $(xs,1), $(xs,2)));
 
     // =============================================================================================
 
-    { make_rule_names(); }
+    { make_rule_names(Grammar.class); }
 }
\ No newline at end of file
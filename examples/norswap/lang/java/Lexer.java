@@ -1,7 +1,11 @@
 package norswap.lang.java;
 
+import norswap.autumn.util.TokenArray;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * A self-contained lexer for Java8, adapted from the Javac lexer.
@@ -10,7 +14,8 @@ import java.util.List;
  *
  * <p>https://github.com/dmlloyd/openjdk/blob/jdk8u/jdk8u/langtools/src/share/classes/com/sun/tools/javac/parser/JavaTokenizer.java
  *
- * Retrieve tokens one by one through {@link #next()} or all at once through {@link #lex()}.
+ * Retrieve tokens one by one through {@link #next()} or all at once through {@link #lex()}. Large
+ * inputs can be lexed in parallel through {@link #lex_parallel()}.
  *
  * Errors are handled in two ways. For lexical errors where the intent is clear, such as
  * underscore in illegal locations, the error is reported as warning in {@link #warnings}.
@@ -22,7 +27,8 @@ import java.util.List;
  *
  * <ul>
  * <li>The JDK lexer allows non-ascii digits in hex literals, emitting a warning.</li>
- * <li>The JDK lexer performs unicode escape translation on the fly.</li>
+ * <li>The JDK lexer performs unicode escape translation on the fly, while this lexer only
+ *     translates unicode escapes within character and string literals.</li>
  * </ul>
  *
  * This lexer could be improved in a few ways:
@@ -428,11 +434,9 @@ public final class Lexer
                     else if (c == '*') {
                         c = get_char(++i);
                         Token.CommentKind kind = Token.CommentKind.BLOCK;
-                        if (c == '*') {
-                            c = get_char(i + 1);
-                            if (c == '*')
-                                kind = Token.CommentKind.JAVADOC;
-                        }
+                        // "/**" starts a javadoc comment, unless it is the empty comment "/**/"
+                        if (c == '*' && get_char(i + 1) != '/')
+                            kind = Token.CommentKind.JAVADOC;
                         while (i < string.length()) {
                             if (c == '*') {
                                 c = get_char(++i);
@@ -800,9 +804,9 @@ public final class Lexer
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Scans the next character literal, which may be an escape (but not an hexadecimal escape,
-     * as those are translated before). Returns the scanned char, or -1 if either we have reached
-     * the end of the input while scanning, or an invalid escape is found.
+     * Scans the next character literal, which may be an escape (including a unicode escape).
+     * Returns the scanned char, or -1 if either we have reached the end of the input while
+     * scanning, or an invalid escape is found.
      *
      * <p>Leaves the position right after the last scanned character, or at the end of the input.
      *
@@ -828,12 +832,25 @@ public final class Lexer
                 if ('0' <= c && c <= '7') {
                     oct = oct * 8 + digit(c, 8);
                     c = get_char(++i);
-                    if (lead <= '3' && '0' <= c && c <= '7')
+                    if (lead <= '3' && '0' <= c && c <= '7') {
                         oct = oct * 8 + digit(c, 8);
+                        ++i;
+                    }
                 }
-                ++i;
                 return (char) oct;
 
+            case 'u':
+                // Unicode escapes are only translated within literals (see class documentation).
+                do { c = get_char(++i); }
+                while (c == 'u');
+                int code = 0;
+                for (int n = 0; n < 4; ++n, c = get_char(++i)) {
+                    int hex = Character.digit(c, 16);
+                    if (hex < 0) return -1;
+                    code = code * 16 + hex;
+                }
+                return (char) code;
+
             case 'b':  ++i; return '\b';
             case 't':  ++i; return '\t';
             case 'n':  ++i; return '\n';
@@ -874,6 +891,213 @@ public final class Lexer
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Minimum size (in chars) of the chunks lexed in parallel by {@link #lex_parallel()}.
+     */
+    public static final int MIN_CHUNK_SIZE = 1 << 16;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Same as {@link #lex_parallel(ForkJoinPool, int)}, using the common fork-join pool and a chunk
+     * size that yields a few chunks per thread of the pool (but at least {@link #MIN_CHUNK_SIZE}).
+     */
+    public Token[] lex_parallel()
+    {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        return lex_parallel(pool,
+            Math.max(MIN_CHUNK_SIZE, string.length() / (4 * pool.getParallelism())));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Fully converts the input string into a series of tokens, like {@link #lex()}, but lexes
+     * chunks of about {@code chunk_size} chars in parallel on {@code pool}. The result (tokens and
+     * {@link #warnings}) is the same as that of {@link #lex()}.
+     *
+     * <p>The input is split at line starts, which are usually token boundaries. Each chunk is lexed
+     * speculatively, as though it started between two tokens. Then the chunks are stitched
+     * together in order: the lexing of a chunk is correct from the point where the previous chunk
+     * ends in the same state (at the end of one of the chunk's tokens, or at its start). When a
+     * chunk doesn't start at a token boundary (e.g. inside a block comment), the input is lexed
+     * serially from the end of the previous chunk, until the lexing synchronizes with a chunk
+     * again.
+     */
+    public Token[] lex_parallel (ForkJoinPool pool, int chunk_size)
+    {
+        if (chunk_size <= 0)
+            throw new IllegalArgumentException("chunk size must be positive: " + chunk_size);
+
+        List<Chunk> chunks = new ArrayList<>();
+        int chunk_start = i;
+        for (int next; (next = chunk_boundary(chunk_start, chunk_size)) >= 0; chunk_start = next)
+            chunks.add(new Chunk(chunk_start, next));
+        chunks.add(new Chunk(chunk_start, string.length()));
+
+        if (chunks.size() == 1)
+            return lex();
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks.size());
+        for (Chunk chunk: chunks)
+            tasks.add(pool.submit(chunk::lex));
+        for (ForkJoinTask<?> task: tasks)
+            task.join();
+
+        ArrayList<Token> tokens = new ArrayList<>(string.length() / 20);
+        int end = i; // lexer state: end of the last token
+        int k = 0;
+
+        while (true)
+        {
+            Chunk chunk = chunks.get(k);
+
+            if (end > chunk.end() && k < chunks.size() - 1) {
+                ++ k;
+                continue;
+            }
+
+            int from = chunk.sync(end);
+            if (from >= 0) {
+                tokens.addAll(Arrays.asList(chunk.tokens).subList(from, chunk.tokens.length));
+                int from_pos = from == 0 ? chunk.start : chunk.tokens[from - 1].end;
+                for (Warning warning: chunk.warnings)
+                    if (warning.position >= from_pos)
+                        warnings.add(warning);
+                if (k == chunks.size() - 1)
+                    break;
+                end = chunk.end();
+                ++ k;
+                continue;
+            }
+
+            // desynchronized: lex serially until synchronizing with a chunk
+            i = end;
+            Token token = next();
+            tokens.add(token);
+            if (token.kind == TokenKind.EOF)
+                break;
+            end = token.end;
+        }
+
+        i = string.length();
+        return tokens.toArray(new Token[0]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the start of the chunk following the chunk starting at {@code start}: the first line
+     * start at least {@code chunk_size} chars after {@code start} that is a likely token boundary.
+     * Returns -1 if there is no such line start, or if it is too close to the end of the input to
+     * be worth starting a new chunk.
+     */
+    private int chunk_boundary (int start, int chunk_size)
+    {
+        int len = string.length();
+        int nl = start + chunk_size - 1;
+        while (true)
+        {
+            nl = string.indexOf('\n', nl);
+            if (nl < 0) return -1;
+            int pos = ++ nl;
+            if (pos >= len - chunk_size / 4) return -1;
+
+            // avoid lines that look like the inside of a block comment
+            int j = pos;
+            char c;
+            while (j < len && ((c = string.charAt(j)) == ' ' || c == '\t')) ++j;
+            if (j < len && string.charAt(j) != '*')
+                return pos;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A chunk of the input lexed speculatively by {@link #lex_parallel(ForkJoinPool, int)}.
+     */
+    private final class Chunk
+    {
+        final int start, limit;
+        Token[] tokens;
+        List<Warning> warnings;
+
+        Chunk (int start, int limit) {
+            this.start = start;
+            this.limit = limit;
+        }
+
+        /**
+         * Lexes from {@link #start} until a token ends at or after {@link #limit}, or until the end
+         * of input.
+         */
+        void lex()
+        {
+            Lexer lexer = new Lexer(string);
+            lexer.support_surrogate_pairs = support_surrogate_pairs;
+            lexer.i = start;
+            ArrayList<Token> list = new ArrayList<>((limit - start) / 20);
+            Token token;
+            do { list.add(token = lexer.next()); }
+            while (token.kind != TokenKind.EOF && token.end < limit);
+            tokens = list.toArray(new Token[0]);
+            warnings = lexer.warnings;
+        }
+
+        /** End of the last token lexed in the chunk. */
+        int end() {
+            return tokens[tokens.length - 1].end;
+        }
+
+        /**
+         * If lexing from {@code pos} (between two tokens) yields the same tokens as this chunk from
+         * some index onwards, returns this index, otherwise returns -1.
+         */
+        int sync (int pos)
+        {
+            if (pos == start) return 0;
+            int lo = 0, hi = tokens.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (tokens[mid].end < pos) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo < tokens.length && tokens[lo].end == pos ? lo + 1 : -1;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Fully converts the input string into a packed {@link TokenArray} whose kinds are {@link
+     * TokenKind} ordinals, to be parsed by a {@link TokenGrammar}. The final {@link TokenKind#EOF}
+     * token is omitted, and so are comments.
+     *
+     * <p>Unlike {@link #lex()}, this splits the {@code >>} and {@code >>>} operators into one
+     * {@link TokenKind#GT} token per character, so that they can close nested type argument lists
+     * (e.g. {@code List<List<String>>}). {@link TokenGrammar} matches the shift operators as
+     * adjacent {@code >} tokens.
+     */
+    public TokenArray lex_packed()
+    {
+        TokenArray tokens = new TokenArray(string, string.length() / 4);
+        Token token;
+
+        while ((token = next()).kind != TokenKind.EOF)
+        {
+            if (token.kind == TokenKind.GTGT || token.kind == TokenKind.GTGTGT)
+                for (int j = token.start; j < token.end; ++j)
+                    tokens.add(TokenKind.GT.ordinal(), j, j + 1);
+            else
+                tokens.add(token.kind.ordinal(), token.start, token.end);
+        }
+
+        return tokens;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Adds a warning to the list of warnings with the given position.
      */
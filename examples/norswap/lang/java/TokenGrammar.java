@@ -0,0 +1,118 @@
+package norswap.lang.java;
+
+import norswap.autumn.util.TokenArray;
+import norswap.lang.java.ast.Identifier;
+import norswap.lang.java.ast.Null;
+import java.util.function.Supplier;
+
+import static norswap.lang.java.LexUtils.*;
+
+/**
+ * A variant of the Java {@link Grammar} that parses the packed token array produced by {@link
+ * Lexer#lex_packed()} instead of the text: {@code Autumn.parse(grammar.root, new
+ * Lexer(text).lex_packed(), options)}.
+ *
+ * <p>The syntactic rules are those of {@link Grammar}: only the lexical rules are replaced, by
+ * {@link norswap.autumn.parsers.KindMatch} parsers that compare {@link TokenKind} ordinals. The
+ * identifier and literal rules push the same values as in {@link Grammar}, computed from the token
+ * text.
+ *
+ * <p>Error positions in the parse results are token indices: use {@link TokenArray#start(int)} to
+ * map them back to the text.
+ */
+public final class TokenGrammar extends Grammar
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final TokenKind[] KINDS = TokenKind.values();
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override protected rule lex (Supplier<rule> scannerless, TokenKind... kinds)
+    {
+        // whitespace and comments, skipped by the lexer
+        if (kinds.length == 0)
+            return empty;
+
+        // lex_packed splits these operators into adjacent > tokens
+        if (kinds.length == 1 && kinds[0] == TokenKind.GTGT)
+            return adjacent_gts(2);
+        if (kinds.length == 1 && kinds[0] == TokenKind.GTGTGT)
+            return adjacent_gts(3);
+
+        rule match = kind(kinds);
+
+        for (TokenKind kind: kinds)
+            if (!has_value(kind))
+                return match;
+
+        return match.push(with_string((p,xs,str) ->
+            value(KINDS[p.tokens.kind(p.pos - 1)], str)));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a parser matching {@code n} {@code >} tokens with no characters in between.
+     */
+    private rule adjacent_gts (int n)
+    {
+        Object[] parsers = new Object[n * 2 - 1];
+        parsers[0] = kind(TokenKind.GT);
+        for (int i = 1; i < n; ++i) {
+            parsers[i * 2 - 1] = kind(TokenKind.GT);
+            parsers[i * 2] = context(p -> p.tokens.end(p.pos - 2) == p.tokens.start(p.pos - 1));
+        }
+        return seq(parsers);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the tokens of the given kind push a value (cf. {@link #value}).
+     */
+    private static boolean has_value (TokenKind kind)
+    {
+        switch (kind) {
+            case IDENTIFIER: case UNDERSCORE:
+            case INTLITERAL: case LONGLITERAL: case FLOATLITERAL: case DOUBLELITERAL:
+            case CHARLITERAL: case STRINGLITERAL:
+            case TRUE: case FALSE: case NULL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the value pushed for a token of the given kind with the given text — the same value
+     * as the corresponding lexical rule of {@link Grammar}.
+     */
+    private static Object value (TokenKind kind, String str)
+    {
+        switch (kind) {
+            case IDENTIFIER: case UNDERSCORE:
+                return Identifier.mk(str);
+            case INTLITERAL: case LONGLITERAL:
+                return parse_integer(str).unwrap();
+            case FLOATLITERAL: case DOUBLELITERAL:
+                return parse_floating(str).unwrap();
+            case CHARLITERAL:
+                return parse_char(str).unwrap();
+            case STRINGLITERAL:
+                return parse_string(str).unwrap();
+            case TRUE:
+                return true;
+            case FALSE:
+                return false;
+            case NULL:
+                return Null.NULL;
+            default:
+                throw new Error("token kind without value: " + kind);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -1,6 +1,23 @@
 package norswap.autumn;
 
+import norswap.autumn.util.ByteCharSequence;
+import norswap.autumn.util.TokenArray;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.util.Objects.requireNonNull;
 
@@ -23,7 +40,7 @@ public final class Autumn
 
     // ---------------------------------------------------------------------------------------------
 
-    private static class PotentiallyMalformedGrammarError extends Error
+    static final class PotentiallyMalformedGrammarError extends Error
     {
         PotentiallyMalformedGrammarError (StackOverflowError e) {
             // no stack trace for this error
@@ -34,17 +51,20 @@ public final class Autumn
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Parses {@code string} with {@code parser} and the given parse options.
+     * Parses {@code text} with {@code parser} and the given parse options.
+     *
+     * <p>The text can be any {@link CharSequence}, and is never copied: it is read directly by the
+     * parsers.
      *
      * <p>Use {@code ParseOptions.get()} to get a default set of options.
      */
-    public static ParseResult parse (Parser parser, String string, ParseOptions options)
+    public static ParseResult parse (Parser parser, CharSequence text, ParseOptions options)
     {
         requireNonNull(parser,  "Parser cannot be null.");
-        requireNonNull(string,  "Input string cannot be null.");
+        requireNonNull(text,    "Input string cannot be null.");
         requireNonNull(options, "Parse options cannot be null.");
         try {
-            return Parse.run(parser, string, null, options);
+            return Parse.run(parser, text, null, options);
         } catch (StackOverflowError e) {
             throw new PotentiallyMalformedGrammarError(e);
         }
@@ -52,6 +72,26 @@ public final class Autumn
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Parses the content of the file at {@code path} with {@code parser} and the given parse
+     * options.
+     *
+     * <p>The file is memory-mapped and decoded on demand (see {@link
+     * ByteCharSequence#map(Path, Charset)}) rather than read to the heap, which makes it possible
+     * to parse very large files. The charset must be UTF-8, ISO-8859-1 or US-ASCII.
+     *
+     * <p>Use {@code ParseOptions.get()} to get a default set of options.
+     */
+    public static ParseResult parse (
+        Parser parser, Path path, Charset charset, ParseOptions options) throws IOException
+    {
+        requireNonNull(path,    "Input path cannot be null.");
+        requireNonNull(charset, "Charset cannot be null.");
+        return parse(parser, ByteCharSequence.map(path, charset), options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Parses {@code list} with {@code parser} and the given parse options.
      *
@@ -72,14 +112,48 @@ public final class Autumn
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Parses {@code string} with {@code rule} and the given parse options.
+     * Parses the token kinds in {@code kinds} with {@code parser} and the given parse options.
+     *
+     * <p>The array is wrapped in a {@link TokenArray} (see {@link TokenArray#of(int[])}) without
+     * being copied, and must not be modified during the parse. Match the kinds with {@link
+     * norswap.autumn.parsers.KindMatch} parsers, which read them directly from the array. Since the
+     * array has no associated text, actions that need the matched text (e.g. {@link
+     * DSL#with_string}) are not supported.
+     *
+     * <p>Use {@code ParseOptions.get()} to get a default set of options.
+     */
+    public static ParseResult parse (Parser parser, int[] kinds, ParseOptions options)
+    {
+        requireNonNull(kinds, "Input kinds cannot be null.");
+        return parse(parser, TokenArray.of(kinds), options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses {@code text} with {@code rule} and the given parse options.
      *
      * <p>Use {@code ParseOptions.get()} to get a default set of options.
      */
-    public static ParseResult parse (DSL.rule rule, String string, ParseOptions options)
+    public static ParseResult parse (DSL.rule rule, CharSequence text, ParseOptions options)
     {
         requireNonNull(rule, "Rule cannot be null.");
-        return parse(rule.get(), string, options);
+        return parse(rule.get(), text, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses the content of the file at {@code path} with {@code rule} and the given parse options.
+     * See {@link #parse(Parser, Path, Charset, ParseOptions)}.
+     *
+     * <p>Use {@code ParseOptions.get()} to get a default set of options.
+     */
+    public static ParseResult parse (
+        DSL.rule rule, Path path, Charset charset, ParseOptions options) throws IOException
+    {
+        requireNonNull(rule, "Rule cannot be null.");
+        return parse(rule.get(), path, charset, options);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -96,4 +170,248 @@ public final class Autumn
     }
 
     // ---------------------------------------------------------------------------------------------
-}
\ No newline at end of file
+
+    /**
+     * Parses the token kinds in {@code kinds} with {@code rule} and the given parse options.
+     * See {@link #parse(Parser, int[], ParseOptions)}.
+     *
+     * <p>Use {@code ParseOptions.get()} to get a default set of options.
+     */
+    public static ParseResult parse (DSL.rule rule, int[] kinds, ParseOptions options)
+    {
+        requireNonNull(rule, "Rule cannot be null.");
+        return parse(rule.get(), kinds, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a {@link ParseWorkspace} to parse many inputs with {@code parser} and the given
+     * parse options, recycling the parse data structures between parses.
+     *
+     * <p>If {@link ParseOptions#well_formedness_check} is set, the check is performed only once,
+     * now, and may throw a {@link MalformedGrammarError}.
+     */
+    public static ParseWorkspace workspace (Parser parser, ParseOptions options)
+    {
+        requireNonNull(parser,  "Parser cannot be null.");
+        requireNonNull(options, "Parse options cannot be null.");
+        return new ParseWorkspace(parser, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Same as {@link #workspace(Parser, ParseOptions)}, using the parser of {@code rule}.
+     */
+    public static ParseWorkspace workspace (DSL.rule rule, ParseOptions options)
+    {
+        requireNonNull(rule, "Rule cannot be null.");
+        return workspace(rule.get(), options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses the text obtained by applying {@code edit} to the input of the {@code previous} parse
+     * (which must have been over text), with the same parser and options, reusing the results
+     * memoized by the previous parse where possible.
+     *
+     * <p>The entries of the {@link norswap.autumn.memo.MemoTable} memoizers (the default for {@link
+     * DSL.rule#memo()} and tokens) that the edit does not invalidate are carried over to the new
+     * parse: those that only examined input before the edit are kept, and those that start after
+     * the edited range are shifted (see {@link Edit#relocate}). Only entries whose side effects are
+     * limited to the value stack are carried over. Other memoizers and parse states start empty.
+     *
+     * <p>With memoized rules at the right granularity (e.g. statements or declarations), the
+     * unchanged parts of the input are skipped over by replaying memoized results, so that the
+     * work is proportional to the size of the edit rather than to the size of the input.
+     *
+     * <p>This assumes the memoized results do not depend on their absolute position, or on the
+     * input before their start position. In particular, values that record their input position
+     * (such as AST nodes with a source span) are not updated when shifted.
+     */
+    public static ParseResult reparse (ParseResult previous, Edit edit)
+    {
+        requireNonNull(previous, "Previous result cannot be null.");
+        requireNonNull(edit,     "Edit cannot be null.");
+        try {
+            return Parse.rerun(previous, edit);
+        } catch (StackOverflowError e) {
+            throw new PotentiallyMalformedGrammarError(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Maximum number of parses that {@link #parse_all} keeps in flight, per thread of the
+     * executor.
+     */
+    private static final int IN_FLIGHT_PER_THREAD = 4;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses each of the {@code inputs} with {@code parser} and the given parse options,
+     * concurrently on the given executor. Returns a stream of outcomes, in the order in which the
+     * parses complete.
+     *
+     * <p>Each input must be either a {@link CharSequence} (e.g. a {@link String}) or a {@link
+     * Path}, in which case the file is memory-mapped and decoded as UTF-8 (see {@link
+     * ByteCharSequence#map(Path, Charset)}) by the task that parses it. Invalid inputs, failing to
+     * read a file, an error escaping the parse, or the executor rejecting the task are reported in
+     * {@link ParseOutcome#thrown}.
+     *
+     * <p>Before parsing, the parser graph is frozen: it is walked entirely, which forces all {@link
+     * norswap.autumn.parsers.LazyParser}s to resolve, so that the graph is never mutated while the
+     * parses run. If {@link ParseOptions#well_formedness_check} is set, the check is performed only
+     * once, on the calling thread, and may throw a {@link MalformedGrammarError}.
+     *
+     * <p>Each parse stores its {@link ParseState} data in its own {@link Parse} object, so that the
+     * parses do not contend with one another.
+     *
+     * <p>If {@link ParseOptions#trace} is set, all parses record their metrics into the single
+     * {@link ParseMetrics} obtained from {@link ParseOptions#metrics} (which is also the {@link
+     * ParseResult#parse_metrics} of every parse). Each thread records into its own shard, so the
+     * parses do not contend; the metrics must only be read after all parses complete.
+     *
+     * <p>The {@code inputs} stream is consumed lazily, on the thread that pulls from the returned
+     * stream: pulling an outcome submits tasks until a few parses per thread of the executor (its
+     * parallelism if it is a {@link ForkJoinPool}, the number of processors otherwise) are in
+     * flight, then blocks until the next parse completes. Closing the returned stream closes
+     * {@code inputs}.
+     *
+     * <p>Parsing may require a deep stack: if the threads of the executor have a small stack
+     * size, stack overflows may be reported for deeply nested inputs.
+     */
+    public static Stream<ParseOutcome> parse_all (
+        Parser parser, Stream<?> inputs, ParseOptions options, Executor executor)
+    {
+        requireNonNull(parser,   "Parser cannot be null.");
+        requireNonNull(inputs,   "Input stream cannot be null.");
+        requireNonNull(options,  "Parse options cannot be null.");
+        requireNonNull(executor, "Executor cannot be null.");
+
+        if (options.well_formedness_check)
+            FrozenGrammar.freeze(parser);
+        else
+            freeze(parser);
+
+        ParseMetrics metrics = options.trace ? options.metrics.get() : null;
+        ParseOptions parse_options = ParseOptions.builder(options)
+            .well_formedness_check(false)
+            .metrics(options.trace ? () -> metrics : null)
+            .get();
+
+        int threads = executor instanceof ForkJoinPool
+            ? ((ForkJoinPool) executor).getParallelism()
+            : Runtime.getRuntime().availableProcessors();
+        int max_in_flight = IN_FLIGHT_PER_THREAD * threads;
+
+        BlockingQueue<ParseOutcome> outcomes = new LinkedBlockingQueue<>();
+        Iterator<?> iterator = inputs.iterator();
+
+        Spliterator<ParseOutcome> spliterator = new Spliterators.AbstractSpliterator<ParseOutcome>(
+            Long.MAX_VALUE, Spliterator.NONNULL)
+        {
+            int in_flight = 0;
+
+            @Override public boolean tryAdvance (Consumer<? super ParseOutcome> action)
+            {
+                while (in_flight < max_in_flight && iterator.hasNext())
+                {
+                    Object input = iterator.next();
+                    ++ in_flight;
+                    try {
+                        executor.execute(() ->
+                            outcomes.add(parse_input(parser, input, parse_options)));
+                    } catch (RejectedExecutionException e) {
+                        outcomes.add(new ParseOutcome(input, null, e));
+                    }
+                }
+
+                if (in_flight == 0) return false;
+                -- in_flight;
+
+                try {
+                    action.accept(outcomes.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for a parse.", e);
+                }
+                return true;
+            }
+        };
+
+        return StreamSupport.stream(spliterator, false).onClose(inputs::close);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Same as {@link #parse_all(Parser, Stream, ParseOptions, Executor)}, using the common
+     * fork-join pool ({@link ForkJoinPool#commonPool()}).
+     */
+    public static Stream<ParseOutcome> parse_all (
+        Parser parser, Stream<?> inputs, ParseOptions options)
+    {
+        return parse_all(parser, inputs, options, ForkJoinPool.commonPool());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Same as {@link #parse_all(Parser, Stream, ParseOptions, Executor)}, using the parser of
+     * {@code rule}.
+     */
+    public static Stream<ParseOutcome> parse_all (
+        DSL.rule rule, Stream<?> inputs, ParseOptions options, Executor executor)
+    {
+        requireNonNull(rule, "Rule cannot be null.");
+        return parse_all(rule.get(), inputs, options, executor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses a single input for {@link #parse_all}, never throwing.
+     */
+    private static ParseOutcome parse_input (Parser parser, Object input, ParseOptions options)
+    {
+        try {
+            if (!(input instanceof CharSequence || input instanceof Path))
+                throw new IllegalArgumentException(
+                    "Inputs must be char sequences or paths, not: " + input);
+
+            CharSequence text = input instanceof Path
+                ? ByteCharSequence.map((Path) input, StandardCharsets.UTF_8)
+                : (CharSequence) input;
+
+            ParseResult result = Parse.run(parser, text, null, options);
+            return new ParseOutcome(input, result, null);
+        }
+        catch (StackOverflowError e) {
+            return new ParseOutcome(input, null, new PotentiallyMalformedGrammarError(e));
+        }
+        catch (Throwable t) {
+            return new ParseOutcome(input, null, t);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Walks the whole parser graph reachable from {@code parser}, which forces lazy parsers to
+     * resolve, so that the graph is not mutated anymore while parsing.
+     */
+    static void freeze (Parser parser)
+    {
+        new ParserWalker() {
+            @Override protected void work (Parser parser, State state) {}
+        }
+        .walk(parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
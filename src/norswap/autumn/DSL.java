@@ -2,6 +2,7 @@ package norswap.autumn;
 
 import norswap.autumn.memo.*;
 import norswap.autumn.parsers.*;
+import norswap.autumn.util.TokenArray;
 import norswap.utils.NArrays;
 import norswap.utils.Slot;
 import norswap.utils.Util;
@@ -10,6 +11,8 @@ import java.lang.reflect.Modifier;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.IntPredicate;
 import java.util.function.Predicate;
@@ -52,21 +55,46 @@ public class DSL
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Supplies the memoizers used by {@link rule#memo()} and {@link rule#memo(Function)}.
+     */
+    public final Supplier<Memoizer> rule_memo;
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Creates a new instance using the default memoization strategy for tokens (currently: an
-     * 8-slot cache).
+     * 8-slot cache) and for rules (a {@link MemoTable}).
      */
     public DSL () {
-        this.tokens = new Tokens(() -> new MemoCache(8, false));
+        this(() -> new MemoCache(8, false));
     }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Creates a new instance using a custom memoization strategy for tokens.
+     * Creates a new instance using a custom memoization strategy for tokens, and the default
+     * strategy for rules (a {@link MemoTable}).
+     *
+     * <p>e.g. {@code () -> new PackedMemoTable(false)} memoizes all tokens without allocating
+     * memo entries.
      */
     public DSL (Supplier<Memoizer> token_memo) {
+        this(token_memo, () -> new MemoTable(false));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new instance using custom memoization strategies for tokens and for rules
+     * memoized with {@link rule#memo()}.
+     *
+     * <p>e.g. {@code () -> new PackedMemoTable(false)} memoizes all results without allocating
+     * memo entries.
+     */
+    public DSL (Supplier<Memoizer> token_memo, Supplier<Memoizer> rule_memo) {
         this.tokens = new Tokens(token_memo);
+        this.rule_memo = rule_memo;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -298,6 +326,14 @@ public class DSL
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Always succeeds, matching no input, and advances the cut watermark ({@link Parse#cut}) to the
+     * current position, allowing some memoizers to discard results before it. See {@link Cut}.
+     */
+    public rule cut = new rule(new Cut());
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * A {@link CharPredicate} parser that matches any character.
      */
@@ -397,6 +433,25 @@ public class DSL
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns a {@link KeywordSet} parser matching the longest of the given strings.
+     */
+    public rule str_set (String... strings) {
+        return new rule(new KeywordSet(null, strings));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a {@link KeywordSet} parser matching the longest of the given strings, with post
+     * whitespace matching dependent on {@link #ws}.
+     */
+    public rule word_set (String... strings) {
+        return new rule(new KeywordSet(ws(), strings));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * A {@link CharPredicate} that matches a single character.
      */
@@ -451,6 +506,35 @@ public class DSL
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns a {@link KindMatch} parser that matches a single token whose kind is one of the given
+     * kinds, within a {@link TokenArray} input. The kinds are given as ints, and {@code name} is
+     * used as the display name of the parser.
+     */
+    public rule kind (String name, int... kinds) {
+        return new rule(new KindMatch(name, kinds));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a {@link KindMatch} parser that matches a single token whose kind is one of the given
+     * kinds, within a {@link TokenArray} input. The kinds are given as enum constants, whose
+     * ordinals are the token kinds stored in the array.
+     */
+    public rule kind (Enum<?>... kinds)
+    {
+        int[] ordinals = new int[kinds.length];
+        StringJoiner name = new StringJoiner("|", "<", ">");
+        for (int i = 0; i < kinds.length; ++i) {
+            ordinals[i] = kinds[i].ordinal();
+            name.add(kinds[i].name());
+        }
+        return new rule(new KindMatch(name.toString(), ordinals));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Returns a {@link ContextPredicate} parsed with name "context".
      */
@@ -504,6 +588,16 @@ public class DSL
         return new RightExpressionBuilder();
     }
 
+    // -----------------------------------------------------------------------------------------
+
+    /**
+     * Returns a {@link PrecedenceExpressionBuilder} that helps build a {@link
+     * PrecedenceExpression} parser.
+     */
+    public PrecedenceExpressionBuilder precedence_expression() {
+        return new PrecedenceExpressionBuilder();
+    }
+
     // =============================================================================================
     // Lazy, Recursive and Associative Parsers
     // =============================================================================================
@@ -950,6 +1044,23 @@ public class DSL
 
         // -----------------------------------------------------------------------------------------
 
+        /**
+         * Returns a {@link Collect} parser wrapping the parser, that pops the items pushed by the
+         * parser and passes them to {@code sink}, instead of leaving them on the stack.
+         *
+         * <p>This is meant to stream results out of a parse without accumulating them — typically
+         * the items of a top-level repetition, when parsing a {@link
+         * norswap.autumn.util.StreamingText}. Since the sink is called as soon as the parser
+         * succeeds, it should be followed by a {@link #cut}, to ensure the parse will never
+         * backtrack past an emitted item.
+         */
+        public rule emit (Consumer<Object[]> sink) {
+            return new rule(new Collect("emit", parser, 0, false, true,
+                (StackAction.ActionWithParse) (p, xs) -> sink.accept(xs)));
+        }
+
+        // -----------------------------------------------------------------------------------------
+
         /**
          * Returns a peek-only {@link Collect} parser wrapping the parser. The returned parser
          * pushes true or false on the stack depending on whether the underlying parser succeeds or
@@ -993,7 +1104,7 @@ public class DSL
 
         /**
          * Returns a new {@link Memo} parser wrapping the parser. The parse results will be memoized
-         * in a {@link MemoTable}.
+         * in a memoizer supplied by {@link DSL#rule_memo} (a {@link MemoTable} by default).
          */
         public rule memo() {
             return memo((Function<Parse, Object>) null);
@@ -1003,13 +1114,14 @@ public class DSL
 
         /**
          * Returns a new context-sensitive {@link Memo} parser wrapping the parser. The parse
-         * results will be memoized in a {@link MemoTable}. {@code extractor} will be used to
-         * extract and compare the relevant context (see {@link Memo} for details).
+         * results will be memoized in a memoizer supplied by {@link DSL#rule_memo} (a {@link
+         * MemoTable} by default). {@code extractor} will be used to extract and compare the
+         * relevant context (see {@link Memo} for details).
          */
         public rule memo (Function<Parse, Object> extractor)
         {
             ParseState<Memoizer> memoizer
-                = new ParseState<>(new Slot<>(parser), () -> new MemoTable(false));
+                = new ParseState<>(new Slot<>(parser), rule_memo);
 
             return new rule(new Memo(parser, memoizer, extractor));
         }
@@ -1590,6 +1702,195 @@ public class DSL
         }
     }
 
+    // =============================================================================================
+
+    /**
+     * Helps build a {@link PrecedenceExpression} parser.
+     *
+     * <p>Each operator is given a binding power (a non-negative integer): operators with higher
+     * binding power bind tighter. For instance, with {@code infix(2, add_op, ...)} and {@code
+     * infix(3, mult_op, ...)}, {@code 1 + 2 * 3} parses as {@code 1 + (2 * 3)}.
+     */
+    public final class PrecedenceExpressionBuilder
+    {
+        // -----------------------------------------------------------------------------------------
+
+        final Parser operand;
+        final Parser[] prefixes;
+        final int[] prefix_powers;
+        final StackAction[] prefix_steps;
+        final Parser[] infixes;
+        final int[] infix_powers;
+        final boolean[] infix_right;
+        final StackAction[] infix_steps;
+        final Parser[] suffixes;
+        final int[] suffix_powers;
+        final StackAction[] suffix_steps;
+
+        // -----------------------------------------------------------------------------------------
+
+        PrecedenceExpressionBuilder (
+            Parser operand,
+            Parser[] prefixes, int[] prefix_powers, StackAction[] prefix_steps,
+            Parser[] infixes, int[] infix_powers, boolean[] infix_right, StackAction[] infix_steps,
+            Parser[] suffixes, int[] suffix_powers, StackAction[] suffix_steps)
+        {
+            this.operand = operand;
+            this.prefixes = prefixes;
+            this.prefix_powers = prefix_powers;
+            this.prefix_steps = prefix_steps;
+            this.infixes = infixes;
+            this.infix_powers = infix_powers;
+            this.infix_right = infix_right;
+            this.infix_steps = infix_steps;
+            this.suffixes = suffixes;
+            this.suffix_powers = suffix_powers;
+            this.suffix_steps = suffix_steps;
+        }
+
+        // -----------------------------------------------------------------------------------------
+
+        PrecedenceExpressionBuilder () {
+            this(null,
+                new Parser[0], new int[0], new StackAction[0],
+                new Parser[0], new int[0], new boolean[0], new StackAction[0],
+                new Parser[0], new int[0], new StackAction[0]);
+        }
+
+        // -----------------------------------------------------------------------------------------
+
+        private int check_power (int power)
+        {
+            if (power < 0)
+                throw new IllegalArgumentException("Negative binding power: " + power);
+            return power;
+        }
+
+        // -----------------------------------------------------------------------------------------
+
+        /**
+         * Define the operand.
+         */
+        public PrecedenceExpressionBuilder operand (rule operand)
+        {
+            if (this.operand != null)
+                throw new IllegalStateException("Trying to redefine the operand.");
+
+            return new PrecedenceExpressionBuilder(
+                operand.get(),
+                prefixes, prefix_powers, prefix_steps,
+                infixes, infix_powers, infix_right, infix_steps,
+                suffixes, suffix_powers, suffix_steps);
+        }
+
+        // -----------------------------------------------------------------------------------------
+
+        /**
+         * Define a prefix operator with the given binding power, along with the corresponding step
+         * action. The operator applies to the expression made of all following operators with at
+         * least the same binding power.
+         */
+        public PrecedenceExpressionBuilder prefix (int power, rule op, StackAction.Push step)
+        {
+            return new PrecedenceExpressionBuilder(
+                operand,
+                NArrays.append(prefixes, op.get()),
+                append(prefix_powers, check_power(power)),
+                NArrays.append(prefix_steps, step),
+                infixes, infix_powers, infix_right, infix_steps,
+                suffixes, suffix_powers, suffix_steps);
+        }
+
+        // -----------------------------------------------------------------------------------------
+
+        /**
+         * Define a left-associative infix operator with the given binding power, along with the
+         * corresponding step action.
+         */
+        public PrecedenceExpressionBuilder infix (int power, rule op, StackAction.Push step) {
+            return infix(power, false, op, step);
+        }
+
+        // -----------------------------------------------------------------------------------------
+
+        /**
+         * Define a right-associative infix operator with the given binding power, along with the
+         * corresponding step action.
+         */
+        public PrecedenceExpressionBuilder infix_right (int power, rule op, StackAction.Push step) {
+            return infix(power, true, op, step);
+        }
+
+        // -----------------------------------------------------------------------------------------
+
+        private PrecedenceExpressionBuilder infix (
+            int power, boolean right, rule op, StackAction.Push step)
+        {
+            return new PrecedenceExpressionBuilder(
+                operand,
+                prefixes, prefix_powers, prefix_steps,
+                NArrays.append(infixes, op.get()),
+                append(infix_powers, check_power(power)),
+                append(infix_right, right),
+                NArrays.append(infix_steps, step),
+                suffixes, suffix_powers, suffix_steps);
+        }
+
+        // -----------------------------------------------------------------------------------------
+
+        /**
+         * Define a suffix operator with the given binding power, along with the corresponding step
+         * action. The operator applies to the expression made of all preceding operators with at
+         * least the same binding power.
+         */
+        public PrecedenceExpressionBuilder suffix (int power, rule op, StackAction.Push step)
+        {
+            return new PrecedenceExpressionBuilder(
+                operand,
+                prefixes, prefix_powers, prefix_steps,
+                infixes, infix_powers, infix_right, infix_steps,
+                NArrays.append(suffixes, op.get()),
+                append(suffix_powers, check_power(power)),
+                NArrays.append(suffix_steps, step));
+        }
+
+        // -----------------------------------------------------------------------------------------
+
+        /**
+         * Construct the parser and returns a {@link rule} wrapping it.
+         */
+        public rule get()
+        {
+            if (operand == null)
+                throw new IllegalStateException(
+                    "No operand specified for a precedence expression.");
+
+            return rule(new PrecedenceExpression(
+                operand,
+                prefixes, prefix_powers, prefix_steps,
+                infixes, infix_powers, infix_right, infix_steps,
+                suffixes, suffix_powers, suffix_steps));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int[] append (int[] array, int item)
+    {
+        int[] out = Arrays.copyOf(array, array.length + 1);
+        out[array.length] = item;
+        return out;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean[] append (boolean[] array, boolean item)
+    {
+        boolean[] out = Arrays.copyOf(array, array.length + 1);
+        out[array.length] = item;
+        return out;
+    }
+
     // =============================================================================================
     // =============================================================================================
     // =============================================================================================
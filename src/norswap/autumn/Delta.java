@@ -0,0 +1,224 @@
+package norswap.autumn;
+
+import norswap.utils.Slot;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static norswap.autumn.Log.*;
+import static norswap.utils.Util.cast;
+
+/**
+ * A list of side effects that were applied during a parse, as returned by {@link Log#delta(int)},
+ * and that can be replayed using {@link Log#apply(List)}.
+ *
+ * <p>Like {@link Log}, this stores the side effects as typed entries in parallel arrays: for the
+ * common effects (value stack operations, {@link Log#put} and {@link Log#set}), an opcode and its
+ * operands. Replaying them re-executes the operation directly, without allocating or calling any
+ * {@link SideEffect} closure. Other side effects are stored as-is.
+ *
+ * <p>To the outside world, this is an unmodifiable list of {@link SideEffect}. For typed entries,
+ * {@link #get(int)} materializes a new {@link SideEffect} equivalent to the stored operation. This
+ * is mostly useful for compatibility: {@link Log#apply(List)} never calls it.
+ *
+ * <p>Besides {@link Log#delta(int)}, a delta can be created empty then grown using {@link
+ * Log#append_to(Delta, int)} and {@link #append(List)}, which is useful to pack the side effects
+ * of many matches in a single object — see {@link norswap.autumn.memo.PackedMemoTable}. Ranges of
+ * such a delta can be replayed using {@link Log#apply(Delta, int, int)}.
+ */
+public final class Delta extends AbstractList<SideEffect>
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Opcodes of the entries (cf. {@link Log}). */
+    byte[] ops;
+
+    /** First operands: side effect, stack, map or slot. */
+    Object[] xs;
+
+    /** Second operands: pushed or popped item(s), or map key. */
+    Object[] ys;
+
+    /** Third operands: new value for a map or slot. */
+    Object[] zs;
+
+    /** Number of entries. */
+    int size;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new empty delta.
+     */
+    public Delta () {
+        this(8);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    Delta (int capacity)
+    {
+        ops = new byte[capacity];
+        xs = new Object[capacity];
+        ys = new Object[capacity];
+        zs = new Object[capacity];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Ensures there is room for {@code n} more entries.
+     */
+    void reserve (int n)
+    {
+        if (size + n <= ops.length) return;
+        int capacity = Math.max(ops.length * 2, size + n);
+        ops = Arrays.copyOf(ops, capacity);
+        xs  = Arrays.copyOf(xs,  capacity);
+        ys  = Arrays.copyOf(ys,  capacity);
+        zs  = Arrays.copyOf(zs,  capacity);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Appends the given side effects at the end of this delta. If {@code effects} is itself a
+     * {@link Delta}, its typed entries are copied as such.
+     */
+    public void append (List<SideEffect> effects)
+    {
+        if (effects instanceof Delta) {
+            Delta delta = (Delta) effects;
+            reserve(delta.size);
+            System.arraycopy(delta.ops, 0, ops, size, delta.size);
+            System.arraycopy(delta.xs,  0, xs,  size, delta.size);
+            System.arraycopy(delta.ys,  0, ys,  size, delta.size);
+            System.arraycopy(delta.zs,  0, zs,  size, delta.size);
+            size += delta.size;
+            return;
+        }
+
+        reserve(effects.size());
+        for (SideEffect effect: effects) {
+            ops[size] = CUSTOM;
+            xs[size++] = effect;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new delta containing the entries whose index {@code i} is such that {@code from <=
+     * i < to}.
+     */
+    public Delta slice (int from, int to)
+    {
+        int n = to - from;
+        Delta delta = new Delta(n);
+        System.arraycopy(ops, from, delta.ops, 0, n);
+        System.arraycopy(xs,  from, delta.xs,  0, n);
+        System.arraycopy(ys,  from, delta.ys,  0, n);
+        System.arraycopy(zs,  from, delta.zs,  0, n);
+        delta.size = n;
+        return delta;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a copy of {@code effects} in which the operations on stack {@code from} are
+     * redirected to {@code to}, or null if that is not possible because {@code effects} includes
+     * other kinds of side effects. Used by {@link Autumn#reparse} to replay side effects memoized
+     * in a previous parse.
+     */
+    static List<SideEffect> rebind (List<SideEffect> effects, Object from, Object to)
+    {
+        if (effects.isEmpty())
+            return effects;
+
+        if (!(effects instanceof Delta))
+            return null;
+
+        Delta delta = (Delta) effects;
+        Delta out = delta.slice(0, delta.size);
+
+        for (int i = 0; i < out.size; ++i) {
+            if (out.ops[i] != PUSH && out.ops[i] != POP && out.ops[i] != POP_N || out.xs[i] != from)
+                return null;
+            out.xs[i] = to;
+        }
+
+        return out;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public int size() {
+        return size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public SideEffect get (int i)
+    {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("index: " + i + ", size: " + size);
+
+        Object x = xs[i];
+        Object y = ys[i];
+        Object z = zs[i];
+
+        switch (ops[i])
+        {
+            case CUSTOM:
+                return (SideEffect) x;
+
+            case PUSH: {
+                SideEffectingArrayStack stack = (SideEffectingArrayStack) x;
+                return () -> {
+                    stack.raw_push(y);
+                    return stack::raw_pop;
+                };
+            }
+            case POP: {
+                SideEffectingArrayStack stack = (SideEffectingArrayStack) x;
+                return () -> {
+                    Object item = stack.raw_pop();
+                    return () -> stack.raw_push(item);
+                };
+            }
+            case POP_N: {
+                SideEffectingArrayStack stack = (SideEffectingArrayStack) x;
+                int n = ((Object[]) y).length;
+                return () -> {
+                    Object[] items = stack.raw_pop(n);
+                    return () -> stack.raw_push(items);
+                };
+            }
+            case PUT: {
+                Map<Object, Object> map = cast(x);
+                return () -> {
+                    boolean present = map.containsKey(y);
+                    Object old = map.put(y, z);
+                    return () -> {
+                        if (present) map.put(y, old);
+                        else map.remove(y);
+                    };
+                };
+            }
+            case SET: {
+                Slot<Object> slot = cast(x);
+                return () -> {
+                    Object old = slot.x;
+                    slot.x = z;
+                    return () -> slot.x = old;
+                };
+            }
+            default:
+                throw new Error("unknown opcode: " + ops[i]);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,113 @@
+package norswap.autumn;
+
+import norswap.autumn.memo.MemoEntry;
+
+/**
+ * A text edit, which replaces the range {@code [start, end)} of an input text by {@link
+ * #replacement}. Used with {@link Autumn#reparse(ParseResult, Edit)}.
+ */
+public final class Edit
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Start of the replaced range in the original text. */
+    public final int start;
+
+    /** End of the replaced range in the original text (exclusive). */
+    public final int end;
+
+    /** The text that replaces the range. */
+    public final String replacement;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public Edit (int start, int end, String replacement)
+    {
+        if (start < 0 || end < start)
+            throw new IllegalArgumentException("invalid range: [" + start + ", " + end + ")");
+
+        this.start = start;
+        this.end = end;
+        this.replacement = replacement;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an edit inserting {@code text} at {@code position}.
+     */
+    public static Edit insert (int position, String text) {
+        return new Edit(position, position, text);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an edit deleting the range {@code [start, end)}.
+     */
+    public static Edit delete (int start, int end) {
+        return new Edit(start, end, "");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The amount by which the positions after the edit are shifted.
+     */
+    public int shift() {
+        return replacement.length() - (end - start);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the text obtained by applying this edit to {@code text}.
+     */
+    public String apply (CharSequence text)
+    {
+        if (end > text.length())
+            throw new IllegalArgumentException(
+                "edit end (" + end + ") is past the end of the text (" + text.length() + ")");
+
+        return new StringBuilder(text.length() + shift())
+            .append(text, 0, start)
+            .append(replacement)
+            .append(text, end, text.length())
+            .toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the version of {@code entry} that is valid for the edited text, or null if the entry
+     * may be invalidated by the edit.
+     *
+     * <p>The entry is kept as-is if all the input it examined ({@link MemoEntry#extent}) lies
+     * before the edit, and its positions are shifted if it starts after the edited range. This
+     * assumes that parsers do not examine the input before their start position, and that the
+     * entry's side effects and context do not depend on its absolute position.
+     */
+    public MemoEntry relocate (MemoEntry entry)
+    {
+        if (entry.extent <= start)
+            return entry;
+
+        if (entry.start_position < end)
+            return null;
+
+        int shift = shift();
+        return new MemoEntry(entry.succeeded(), entry.parser,
+            entry.start_position + shift,
+            entry.end_position + shift,
+            entry.extent + shift,
+            entry.delta, entry.ctx);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString() {
+        return "Edit { [" + start + ", " + end + ") -> \"" + replacement + "\" }";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
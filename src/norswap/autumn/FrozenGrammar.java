@@ -0,0 +1,219 @@
+package norswap.autumn;
+
+import norswap.autumn.parsers.CharDispatch;
+import norswap.autumn.visitors.VisitorFirstParsers;
+import norswap.autumn.visitors.VisitorNullable;
+import norswap.autumn.visitors.WellFormednessChecker;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A handle to a grammar (the parser graph reachable from a root parser) on which the grammar
+ * analyses have been run once and for all, obtained via {@link #freeze(Parser)}.
+ *
+ * <p>Freezing a grammar walks the whole parser graph, which forces all {@link
+ * norswap.autumn.parsers.LazyParser}s to resolve. It then checks that the grammar is well-formed
+ * (cf. {@link WellFormednessChecker}), throwing a {@link MalformedGrammarError} if it isn't, and
+ * records the nullability and FIRST set of every parser, which can be queried with {@link
+ * #nullable(Parser)} and {@link #firsts(Parser)}. Finally, it builds the dispatch tables of the
+ * whole grammar at once (cf. {@link CharDispatch#prepare(Parser)}), instead of letting each
+ * {@link norswap.autumn.parsers.Choice} and {@link norswap.autumn.parsers.PrecedenceExpression}
+ * build them during its first invocation.
+ *
+ * <p>The verdict is remembered by the root parser: parsing with it (through this handle, {@link
+ * Autumn#parse} or {@link Autumn#reparse}) skips the {@link ParseOptions#well_formedness_check},
+ * even when the option is set. Freezing the same root again returns the same handle.
+ *
+ * <p>The grammar must not be modified after it is frozen.
+ */
+public final class FrozenGrammar
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The root parser of the grammar.
+     */
+    public final Parser root;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * All the parsers reachable from {@link #root}.
+     */
+    public final Set<Parser> parsers;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Set<Parser> nullables;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Map<Parser, Set<Parser>> firsts;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private FrozenGrammar (Parser root)
+    {
+        Autumn.freeze(root);
+
+        VisitorNullable nullable_visitor = new VisitorNullable();
+        WellFormednessChecker checker = new WellFormednessChecker(nullable_visitor);
+        Parse.check_well_formed(root, checker);
+
+        VisitorFirstParsers firsts_visitor = new VisitorFirstParsers(nullable_visitor);
+        HashSet<Parser> parsers = new HashSet<>();
+        HashSet<Parser> nullables = new HashSet<>();
+        HashMap<Parser, Set<Parser>> firsts = new HashMap<>();
+
+        new ParserWalker() {
+            @Override protected void work (Parser parser, State state)
+            {
+                if (state != State.BEFORE) return;
+                parsers.add(parser);
+                if (nullable_visitor.nullable(parser)) nullables.add(parser);
+                firsts.put(parser, Collections.unmodifiableSet(firsts_visitor.firsts(parser)));
+            }
+        }
+        .walk(root);
+
+        CharDispatch.prepare(root);
+
+        this.root = root;
+        this.parsers = Collections.unmodifiableSet(parsers);
+        this.nullables = nullables;
+        this.firsts = firsts;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Freezes the grammar rooted at {@code root} (see {@link FrozenGrammar}), or returns the
+     * existing handle if it was already frozen.
+     *
+     * @throws MalformedGrammarError if the grammar is not well-formed.
+     */
+    public static FrozenGrammar freeze (Parser root)
+    {
+        requireNonNull(root, "Parser cannot be null.");
+
+        FrozenGrammar frozen = root.frozen;
+        if (frozen != null) return frozen;
+
+        synchronized (FrozenGrammar.class) {
+            if (root.frozen == null)
+                root.frozen = new FrozenGrammar(root);
+            return root.frozen;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Same as {@link #freeze(Parser)}, using the parser of {@code rule}.
+     */
+    public static FrozenGrammar freeze (DSL.rule rule)
+    {
+        requireNonNull(rule, "Rule cannot be null.");
+        return freeze(rule.get());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Same as {@link #freeze(Parser)}, using the parser of {@code rule}, but first assigns rule
+     * names to the parsers held in the fields of {@code grammar} (see {@link
+     * DSL#make_rule_names()}), unless the grammar is already frozen.
+     */
+    public static FrozenGrammar freeze (DSL grammar, DSL.rule rule)
+    {
+        requireNonNull(grammar, "Grammar cannot be null.");
+        requireNonNull(rule, "Rule cannot be null.");
+
+        FrozenGrammar frozen = rule.get().frozen;
+        if (frozen != null) return frozen;
+
+        grammar.make_rule_names();
+        return freeze(rule);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void check_member (Parser parser)
+    {
+        if (!parsers.contains(parser))
+            throw new IllegalArgumentException("Parser is not part of the grammar: " + parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns true iff {@code parser} (which must be part of the grammar) is nullable: it can
+     * succeed while consuming no input (cf. {@link VisitorNullable}).
+     */
+    public boolean nullable (Parser parser)
+    {
+        check_member(parser);
+        return nullables.contains(parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the FIRST set of {@code parser} (which must be part of the grammar): the set of its
+     * direct sub-parsers that may be invoked at the same input position (cf. {@link
+     * VisitorFirstParsers}).
+     */
+    public Set<Parser> firsts (Parser parser)
+    {
+        check_member(parser);
+        return firsts.get(parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses {@code text} with the root parser, cf. {@link Autumn#parse(Parser, CharSequence,
+     * ParseOptions)}.
+     */
+    public ParseResult parse (CharSequence text, ParseOptions options) {
+        return Autumn.parse(root, text, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses {@code list} with the root parser, cf. {@link Autumn#parse(Parser, List,
+     * ParseOptions)}.
+     */
+    public ParseResult parse (List<?> list, ParseOptions options) {
+        return Autumn.parse(root, list, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses the token {@code kinds} with the root parser, cf. {@link Autumn#parse(Parser, int[],
+     * ParseOptions)}.
+     */
+    public ParseResult parse (int[] kinds, ParseOptions options) {
+        return Autumn.parse(root, kinds, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a {@link ParseWorkspace} for the root parser, cf. {@link Autumn#workspace(Parser,
+     * ParseOptions)}.
+     */
+    public ParseWorkspace workspace (ParseOptions options) {
+        return Autumn.workspace(root, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -1,10 +1,13 @@
 package norswap.autumn;
 
-import norswap.autumn.util.ArrayStack;
-import norswap.utils.Vanilla;
+import norswap.utils.Slot;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+
+import static norswap.utils.Util.cast;
 
 /**
  * The list of side-effects that have been applied during this parse. New side-effects
@@ -13,21 +16,100 @@ import java.util.List;
  * <p>Usually, this is only modified through the {@link #apply} methods. Parsers automatically
  * undo side-effects on failure through {@link #rollback}. A list of recently applied
  * side-effects can be acquired through {@link #delta}.
+ *
+ * <p>The log is a journal of typed entries, stored in parallel arrays. The most common side
+ * effects have their own opcode: value stack operations (see {@link SideEffectingArrayStack}),
+ * map updates ({@link #put}) and slot updates ({@link #set}). Applying, undoing and replaying
+ * (from a {@link Delta}) these effects does not allocate any closure. Arbitrary side effects can
+ * still be applied using {@link #apply(SideEffect)}, in which case the log stores the side effect
+ * and its undo function.
+ *
+ * <p>When parsing a {@link norswap.autumn.util.StreamingText}, the prefix of the log that can no
+ * longer be rolled back is dropped by {@link #commit(int)}. Indices into the log are not affected:
+ * {@link #size()} still counts the committed side effects.
  */
-public final class Log extends ArrayStack<SideEffect.Applied>
+public final class Log
 {
     // ---------------------------------------------------------------------------------------------
 
+    // Opcodes. Operands are stored in (xs, ys, zs), and the undo information in ws.
+
+    /** (effect, -, -), undo function in ws. */
+    static final byte CUSTOM = 0;
+
+    /** (stack, pushed item, -) */
+    static final byte PUSH = 1;
+
+    /** (stack, popped item, -) */
+    static final byte POP = 2;
+
+    /** (stack, popped items, -) */
+    static final byte POP_N = 3;
+
+    /** (map, key, new value), old value (or {@link #ABSENT}) in ws. */
+    static final byte PUT = 4;
+
+    /** (slot, -, new value), old value in ws. */
+    static final byte SET = 5;
+
+    /** Marks a key that was absent from a map before a {@link #PUT}. */
+    private static final Object ABSENT = new Object();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private byte[] ops = new byte[64];
+    private Object[] xs = new Object[64];
+    private Object[] ys = new Object[64];
+    private Object[] zs = new Object[64];
+    private Object[] ws = new Object[64];
+    private int size = 0;
+
+    /** Number of committed side effects, dropped from the arrays. */
+    private int base = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
     Log () {}
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns the number of side effects in the log, including committed side effects.
+     */
+    public int size() {
+        return base + size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void record (byte op, Object x, Object y, Object z, Object w)
+    {
+        if (size == ops.length) {
+            int capacity = size * 2;
+            ops = Arrays.copyOf(ops, capacity);
+            xs  = Arrays.copyOf(xs,  capacity);
+            ys  = Arrays.copyOf(ys,  capacity);
+            zs  = Arrays.copyOf(zs,  capacity);
+            ws  = Arrays.copyOf(ws,  capacity);
+        }
+
+        ops[size] = op;
+        xs[size] = x;
+        ys[size] = y;
+        zs[size] = z;
+        ws[size] = w;
+        ++size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Applies the given side-effect and adds it to the log of applied side effects.
      */
     public void apply (SideEffect effect)
     {
-        add(effect.apply());
+        Runnable undo = effect.__apply();
+        record(CUSTOM, effect, null, null, undo);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -38,7 +120,125 @@ public final class Log extends ArrayStack<SideEffect.Applied>
      */
     public void apply (List<SideEffect> delta)
     {
-        delta.forEach(this::apply);
+        if (delta instanceof Delta)
+            apply((Delta) delta, 0, delta.size());
+        else
+            for (SideEffect effect: delta)
+                apply(effect);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Applies the side-effects of {@code delta} whose index {@code i} are such that {@code from <=
+     * i < to}, in order.
+     */
+    public void apply (Delta delta, int from, int to)
+    {
+        for (int i = from; i < to; ++i)
+        {
+            Object x = delta.xs[i];
+            switch (delta.ops[i])
+            {
+                case CUSTOM:
+                    apply((SideEffect) x);
+                    break;
+                case PUSH:
+                    push((SideEffectingArrayStack) x, delta.ys[i]);
+                    break;
+                case POP:
+                    pop((SideEffectingArrayStack) x);
+                    break;
+                case POP_N:
+                    pop((SideEffectingArrayStack) x, ((Object[]) delta.ys[i]).length);
+                    break;
+                case PUT:
+                    put(cast(x), delta.ys[i], delta.zs[i]);
+                    break;
+                case SET:
+                    set(cast(x), delta.zs[i]);
+                    break;
+                default:
+                    throw new Error("unknown opcode: " + delta.ops[i]);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Side-effecting version of {@code map.put(key, value)}: the previous mapping for the key is
+     * restored on rollback.
+     */
+    public <K, V> void put (Map<K, V> map, K key, V value)
+    {
+        Object old = map.containsKey(key) ? map.get(key) : ABSENT;
+        map.put(key, value);
+        record(PUT, map, key, value, old);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Side-effecting version of {@code slot.x = value}: the previous value is restored on rollback.
+     */
+    public <T> void set (Slot<T> slot, T value)
+    {
+        T old = slot.x;
+        slot.x = value;
+        record(SET, slot, null, value, old);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    void push (SideEffectingArrayStack stack, Object item)
+    {
+        stack.raw_push(item);
+        record(PUSH, stack, item, null, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    Object pop (SideEffectingArrayStack stack)
+    {
+        Object item = stack.raw_pop();
+        record(POP, stack, item, null, null);
+        return item;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    Object[] pop (SideEffectingArrayStack stack, int amount)
+    {
+        Object[] items = stack.raw_pop(amount);
+        record(POP_N, stack, items, null, null);
+        return items;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Drops all side effects without undoing them, so that the log can be reused for another
+     * parse (cf. {@link ParseWorkspace}). The capacity of the log is retained, unless it exceeds
+     * {@code max_capacity}, in which case it is reset.
+     */
+    void clear (int max_capacity)
+    {
+        if (ops.length > max_capacity) {
+            ops = new byte[64];
+            xs  = new Object[64];
+            ys  = new Object[64];
+            zs  = new Object[64];
+            ws  = new Object[64];
+        }
+        else {
+            Arrays.fill(xs, 0, size, null);
+            Arrays.fill(ys, 0, size, null);
+            Arrays.fill(zs, 0, size, null);
+            Arrays.fill(ws, 0, size, null);
+        }
+        size = 0;
+        base = 0;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -49,22 +249,136 @@ public final class Log extends ArrayStack<SideEffect.Applied>
      */
     public void rollback (int log_target_size)
     {
-        for (int i = size(); i > log_target_size; --i)
-            pop().undo.run();
+        int target = log_target_size - base;
+
+        if (target < 0)
+            throw new IllegalStateException(
+                "Cannot rollback committed side effects (backtracking before a cut?).");
+
+        for (int i = size - 1; i >= target; --i)
+        {
+            undo(i);
+            xs[i] = ys[i] = zs[i] = ws[i] = null;
+        }
+
+        if (target < size)
+            size = target;
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Commits the side effects whose index is smaller than {@code log_index}: they can no longer be
+     * rolled back nor be retrieved with {@link #delta}, and the log releases them.
+     */
+    public void commit (int log_index)
+    {
+        int n = log_index - base;
+        if (n <= 0) return;
+        if (n > size)
+            throw new IllegalArgumentException(
+                "log index " + log_index + " is past the log size " + size());
+
+        System.arraycopy(ops, n, ops, 0, size - n);
+        System.arraycopy(xs,  n, xs,  0, size - n);
+        System.arraycopy(ys,  n, ys,  0, size - n);
+        System.arraycopy(zs,  n, zs,  0, size - n);
+        System.arraycopy(ws,  n, ws,  0, size - n);
+        Arrays.fill(xs, size - n, size, null);
+        Arrays.fill(ys, size - n, size, null);
+        Arrays.fill(zs, size - n, size, null);
+        Arrays.fill(ws, size - n, size, null);
+        size -= n;
+        base = log_index;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the position in the arrays of the side effect at index {@code log_index}.
+     */
+    private int physical (int log_index)
+    {
+        int i = log_index - base;
+        if (i < 0)
+            throw new IllegalStateException("Side effects were committed (see Log#commit).");
+        return i;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void undo (int i) {
+        undo(ops[i], xs[i], ys[i], ws[i]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void undo (byte op, Object x, Object y, Object w)
+    {
+        switch (op)
+        {
+            case CUSTOM:
+                ((Runnable) w).run();
+                break;
+            case PUSH:
+                ((SideEffectingArrayStack) x).raw_pop();
+                break;
+            case POP:
+                ((SideEffectingArrayStack) x).raw_push(y);
+                break;
+            case POP_N:
+                ((SideEffectingArrayStack) x).raw_push((Object[]) y);
+                break;
+            case PUT: {
+                Map<Object, Object> map = cast(x);
+                if (w == ABSENT) map.remove(y);
+                else map.put(y, w);
+                break;
+            }
+            case SET: {
+                Slot<Object> slot = cast(x);
+                slot.x = w;
+                break;
+            }
+            default:
+                throw new Error("unknown opcode: " + op);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
 
     /**
      * Returns a list of side effects (without undo functions!) whose index {@code i} are such that
      * {@code log_start_index <= i < log.size()}, in increasing index order.
+     *
+     * <p>The returned list is a {@link Delta}, unless it is empty.
      */
     public List<SideEffect> delta (int log_start_index)
     {
-        return log_start_index == size()
-            ? Collections.emptyList()
-            : Vanilla.map(from(log_start_index), it -> it.effect);
+        if (log_start_index == size())
+            return Collections.emptyList();
+
+        Delta delta = new Delta(size() - log_start_index);
+        append_to(delta, log_start_index);
+        return delta;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Appends the side effects whose index {@code i} are such that {@code log_start_index <= i <
+     * log.size()} to {@code delta}, in increasing index order.
+     */
+    public void append_to (Delta delta, int log_start_index)
+    {
+        int start = physical(log_start_index);
+        int n = size - start;
+        delta.reserve(n);
+        System.arraycopy(ops, start, delta.ops, delta.size, n);
+        System.arraycopy(xs,  start, delta.xs,  delta.size, n);
+        System.arraycopy(ys,  start, delta.ys,  delta.size, n);
+        System.arraycopy(zs,  start, delta.zs,  delta.size, n);
+        delta.size += n;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -72,10 +386,21 @@ public final class Log extends ArrayStack<SideEffect.Applied>
     /**
      * Returns a list of applied side effects (with undo function) whose index {@code i} are such
      * that {@code log_start_index <= i < log.size()}, in increasing index order.
+     *
+     * <p>For typed entries, this materializes new side effects and undo functions.
      */
     public List<SideEffect.Applied> delta_applied (int log_start_index)
     {
-        return new ArrayList<>(from(log_start_index));
+        List<SideEffect> delta = delta(log_start_index);
+        ArrayList<SideEffect.Applied> out = new ArrayList<>(delta.size());
+        int start = physical(log_start_index);
+        for (int i = start; i < size; ++i) {
+            byte op = ops[i];
+            Object x = xs[i], y = ys[i], w = ws[i];
+            Runnable undo = op == CUSTOM ? (Runnable) w : () -> undo(op, x, y, w);
+            out.add(new SideEffect.Applied(delta.get(i - start), undo));
+        }
+        return out;
     }
 
     // ---------------------------------------------------------------------------------------------
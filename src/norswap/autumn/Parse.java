@@ -1,16 +1,22 @@
 package norswap.autumn;
 
+import norswap.autumn.memo.MemoEntry;
+import norswap.autumn.memo.Memoizer;
+import norswap.autumn.parsers.Cut;
 import norswap.autumn.parsers.Not;
+import norswap.autumn.util.ArrayStack;
+import norswap.autumn.util.TokenArray;
 import norswap.autumn.visitors.WellFormednessChecker;
 import norswap.utils.ArrayListLong;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * The context associated with <i>a parse</i>, which is the the invocation of a (root) parser on
- * some input — either a String ({@link #string}) or a list ({@link #list}).
+ * some input — either text ({@link #text}) or a list ({@link #list}).
  *
  * <p>Instances of this class cannot be created by the user, instead they are generated by one of
  * the {@link Autumn} {@code .run} methods. However, custom {@link Parser} implementations
@@ -38,6 +44,65 @@ public final class Parse
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * The cut watermark: the furthest input position reached by a {@link Cut} parser. The parse is
+     * not expected to backtrack before this position, so results memoized before it may be
+     * discarded (cf. {@link norswap.autumn.memo.WindowedMemoTable}).
+     *
+     * <p>This is only a hint, and never decreases, even when backtracking.
+     */
+    public int cut = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The smallest {@link #log} index from which an ongoing parser invocation will still retrieve
+     * the side effects (e.g. to memoize them, cf. {@link Log#delta(int)}), or {@link
+     * Integer#MAX_VALUE} if there is none. When parsing a {@link
+     * norswap.autumn.util.StreamingText}, {@link Cut} does not commit the log past this index.
+     *
+     * <p>Parsers that need the side effects lower this to the log size at the start of their
+     * invocation, and restore the previous value when they complete.
+     */
+    public int pinned_log = Integer.MAX_VALUE;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The smallest input position to which an ongoing parser invocation will backtrack even if its
+     * sub-invocations succeed (e.g. {@link norswap.autumn.parsers.Longest}, which tries all its
+     * alternatives), or {@link Integer#MAX_VALUE} if there is none. When parsing a {@link
+     * norswap.autumn.util.StreamingText}, {@link Cut} does not release the input past this
+     * position.
+     *
+     * <p>Managed like {@link #pinned_log}.
+     */
+    public int pinned_pos = Integer.MAX_VALUE;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The examined watermark: one past the furthest input position examined by the current parser
+     * invocation (and its sub-invocations) so far — including positions examined without being
+     * consumed, e.g. by lookahead or to determine where a repetition stops.
+     *
+     * <p>{@link Parser#parse} sets this to the initial position of the invocation, and on exit
+     * merges it back into the value of the calling invocation. Accesses to the input through
+     * {@link #char_at(int)}, {@link #match(int, String)} and {@link #object_at(int)} advance it,
+     * and parsers that read {@link #text} or {@link #list} directly must call {@link
+     * #examine(int)}.
+     * Memoizers record it as the extent of their entries ({@link
+     * norswap.autumn.memo.MemoEntry#extent}), which is what enables {@link Autumn#reparse} to
+     * determine which results remain valid after an edit.
+     *
+     * <p>Parsers that examine the input outside of these methods (e.g. {@link
+     * norswap.autumn.parsers.ContextPredicate} whose predicate reads the input) must also call
+     * {@link #examine(int)} if they are to be memoized and reparsed.
+     */
+    public int examined = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * An optional message associated with the furthest error position.
      *
@@ -48,7 +113,21 @@ public final class Parse
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * One of the two forms of input the parse may have.
+     * One of the two forms of input the parse may have: text, which can be any {@link
+     * CharSequence}, including a view over a memory-mapped file (see {@link
+     * norswap.autumn.util.ByteCharSequence}).
+     *
+     * <p>The text is only accessed through {@link CharSequence#charAt(int)} and {@link
+     * CharSequence#length()} while parsing, so it is never copied.
+     */
+    public final CharSequence text;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Same as {@link #text} if it is a {@link String}, null otherwise. Parsers should use {@link
+     * #text} (or {@link #char_at(int)}, {@link #match(int, String)} and {@link #substring(int,
+     * int)}) instead, in order to support all kinds of text input.
      */
     public final String string;
 
@@ -61,6 +140,23 @@ public final class Parse
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Same as {@link #list} if it is a {@link TokenArray}, null otherwise. Parsers matching token
+     * kinds should use {@link #kind_at(int)}.
+     */
+    public final TokenArray tokens;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The array backing the token kinds of {@link #tokens} (see {@link TokenArray#kinds()}), read
+     * directly by {@link #kind_at(int)}, and the number of tokens.
+     */
+    private final int[] kinds;
+    private final int kinds_length;
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * The parse options used to construct this parse object.
      */
@@ -71,14 +167,14 @@ public final class Parse
     /**
      * The list of side-effects that have been applied during this parse.
      */
-    public final Log log = new Log();
+    public final Log log;
 
     // ---------------------------------------------------------------------------------------------
 
     /**
      * A stack that can be used to build ASTs.
      */
-    public final SideEffectingArrayStack stack = new SideEffectingArrayStack(log);
+    public final SideEffectingArrayStack stack;
 
     // ---------------------------------------------------------------------------------------------
 
@@ -88,39 +184,41 @@ public final class Parse
      * {@link SideEffect}.
      *
      * <p>Always use {@link ParseState} to transparently access this map (which also yield
-     * increased performance via caching).
+     * increased performance, as it looks up the data in {@link #state_slots} instead).
      */
-    public final Map<Object, Object> state_data = new HashMap<>();
+    public final Map<Object, Object> state_data;
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * List of {@link ParseState} used during this parse, i.e. parse states whose data
-     * are registered in {@link #state_data}.
+     * The data of the {@link ParseState}s used during this parse (which is also registered in
+     * {@link #state_data}), indexed by {@link ParseState#slot}. Grown as needed by {@link
+     * #set_state_slot}.
      */
-    ArrayList<ParseState<?>> parse_states = new ArrayList<>();
+    Object[] state_slots;
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * The current parser invocation stack if {@link ParseOptions#record_call_stack} is set,
-     * null otherwise.
+     * The frame of the innermost ongoing parser invocation if {@link
+     * ParseOptions#record_call_stack} is set, null otherwise (or if no parser is running). The
+     * rest of the call stack can be reached via {@link ParserCallFrame#parent}.
      *
      * <p>Only access if required (and check if the option is set!). No base parsers use this.
      */
-    public ParserCallStack call_stack;
+    public ParserCallFrame call_stack;
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * If {@link ParseOptions#record_call_stack} is set, the stack of parser invocations that lead
-     * to the furthest error (at position {@link #error}), or null if there were no parse errors.
-     * Otherwise, always null.
+     * If {@link ParseOptions#record_call_stack} is set, the top frame of the stack of parser
+     * invocations that lead to the furthest error (at position {@link #error}), or null if there
+     * were no parse errors. Otherwise, always null.
      *
      * <p>Only access if required (and check if the option is set!). Only the {@link Not} base
      * parser uses this.
      */
-    public ParserCallStack error_call_stack;
+    public ParserCallFrame error_call_stack;
 
     // ---------------------------------------------------------------------------------------------
 
@@ -141,57 +239,266 @@ public final class Parse
 
     // ---------------------------------------------------------------------------------------------
 
-    private Parse (String string, List<?> list, ParseOptions options)
+    /**
+     * The shard of {@link #parse_metrics} for the thread running the parse, or null if not in
+     * tracing mode.
+     */
+    final ParseMetrics.Shard metrics_shard;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The sampling state if {@link ParseOptions#sampler} is set (and {@link ParseOptions#trace}
+     * isn't), null otherwise.
+     */
+    final StackSampler.Session sampling;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of rule stack samples taken so far (see {@link StackSampler.Session}), kept here
+     * rather than in {@link #sampling} to spare rule invocations an indirection. Written by the
+     * timer thread of {@link ParseOptions#sampler}, if it has one.
+     */
+    volatile int sample_ticks;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Rule invocations until the next sample is taken if {@link ParseOptions#sampler} samples
+     * every n rule invocations, 0 otherwise.
+     */
+    int sample_countdown;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Parse (CharSequence text, List<?> list, ParseOptions options) {
+        this(text, list, options, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new parse. If {@code recycled} is non-null, the new parse uses its containers
+     * instead of allocating new ones, so {@code recycled} must not be used anymore.
+     */
+    Parse (CharSequence text, List<?> list, ParseOptions options, Containers recycled)
     {
         options = options != null ? options : ParseOptions.get();
-        this.string = string;
+
+        if (recycled == null) {
+            log = new Log();
+            stack = new SideEffectingArrayStack(log);
+            state_data = new HashMap<>();
+            state_slots = new Object[16];
+        }
+        else {
+            log = recycled.log;
+            stack = recycled.stack;
+            state_data = recycled.state_data;
+            state_slots = recycled.state_slots;
+        }
+
+        this.text = text;
+        this.string = text instanceof String ? (String) text : null;
         this.list = list;
+        this.tokens = list instanceof TokenArray ? (TokenArray) list : null;
+        this.kinds = tokens != null ? tokens.kinds() : null;
+        this.kinds_length = tokens != null ? tokens.size() : 0;
         this.options = options;
-        call_stack = options.record_call_stack ? new ParserCallStack() : null;
         trace_timings = options.trace ? new ArrayListLong(256) : null;
         parse_metrics = options.trace ? options.metrics.get() : null;
+        metrics_shard = options.trace ? parse_metrics.shard() : null;
+        sampling = options.sampler != null && !options.trace
+            ? new StackSampler.Session(options.sampler, this)
+            : null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * @see Autumn#parse
+     * The log, value stack and parse state containers of a completed parse, cleared so that they
+     * can be reused by another parse (cf. {@link ParseWorkspace}), without keeping the rest of the
+     * completed parse (its input, result and memoization tables) alive.
      */
-    static ParseResult run (Parser parser, String string, List<?> list, ParseOptions options)
+    static final class Containers
     {
-        if (options.well_formedness_check)
+        final Log log;
+        final SideEffectingArrayStack stack;
+        final Map<Object, Object> state_data;
+        final Object[] state_slots;
+
+        private Containers (
+            Log log, SideEffectingArrayStack stack, Map<Object, Object> state_data,
+            Object[] state_slots)
         {
-            WellFormednessChecker checker = new WellFormednessChecker();
+            this.log = log;
+            this.stack = stack;
+            this.state_data = state_data;
+            this.state_slots = state_slots;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Clears the containers of this parse and returns them, for reuse by another parse. The parse
+     * must have completed, and its result must have been detached (cf. {@link #execute(Parser,
+     * Parse, boolean)}). Containers that hold more than {@code max_capacity} items are shrunk or
+     * replaced, so that a single large input does not keep a lot of memory alive.
+     */
+    Containers recycle (int max_capacity)
+    {
+        log.clear(max_capacity);
 
-            if (!checker.well_formed(parser))
-            {
-                StringBuilder b = new StringBuilder();
+        boolean large_stack = stack.size() > max_capacity;
+        stack.clear();
+        if (large_stack) stack.trimToSize();
 
-                for (Parser p: checker.left_recursives)
-                    b   .append("\n- Left-recursive parser cycle detected, passing through parser: ")
-                        .append(p);
+        Map<Object, Object> data = state_data;
+        if (data.size() > max_capacity)
+            data = new HashMap<>();
+        else
+            data.clear();
 
-                for (Parser p: checker.nullable_repetitions)
-                    b   .append("\n- Nullable repetition detected: ")
-                        .append(p);
+        Object[] slots = state_slots;
+        if (slots.length > max_capacity)
+            slots = new Object[16];
+        else
+            Arrays.fill(slots, null);
+
+        return new Containers(log, stack, data, slots);
+    }
+
+    // ---------------------------------------------------------------------------------------------
 
-                throw new MalformedGrammarError(b.toString(), checker);
+    /**
+     * Checks that the grammar rooted at {@code parser} is well-formed, throwing a {@link
+     * MalformedGrammarError} if it isn't.
+     */
+    static void check_well_formed (Parser parser) {
+        check_well_formed(parser, new WellFormednessChecker());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Same as {@link #check_well_formed(Parser)}, using the given checker.
+     */
+    static void check_well_formed (Parser parser, WellFormednessChecker checker)
+    {
+        if (!checker.well_formed(parser))
+        {
+            StringBuilder b = new StringBuilder();
+
+            for (Parser p: checker.left_recursives)
+                b   .append("\n- Left-recursive parser cycle detected, passing through parser: ")
+                    .append(p);
+
+            for (Parser p: checker.nullable_repetitions)
+                b   .append("\n- Nullable repetition detected: ")
+                    .append(p);
+
+            throw new MalformedGrammarError(b.toString(), checker);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * @see Autumn#parse
+     */
+    static ParseResult run (Parser parser, CharSequence text, List<?> list, ParseOptions options)
+    {
+        if (options.well_formedness_check && parser.frozen == null)
+            check_well_formed(parser);
+
+        return execute(parser, new Parse(text, list, options), false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * @see Autumn#reparse
+     */
+    static ParseResult rerun (ParseResult previous, Edit edit)
+    {
+        if (previous.text == null)
+            throw new IllegalArgumentException("Can only reparse text inputs.");
+
+        if (previous.options.well_formedness_check && previous.parser.frozen == null)
+            check_well_formed(previous.parser);
+
+        Parse parse = new Parse(edit.apply(previous.text), null, previous.options);
+
+        Object old_stack = previous.value_stack;
+
+        for (Map.Entry<Object, Object> e: previous.parse_states.entrySet())
+        {
+            if (!(e.getValue() instanceof Memoizer))
+                continue;
+
+            Memoizer memo = ((Memoizer) e.getValue()).reuse(entry -> {
+                MemoEntry relocated = edit.relocate(entry);
+                if (relocated == null) return null;
+                List<SideEffect> delta = Delta.rebind(relocated.delta, old_stack, parse.stack);
+                if (delta == null) return null;
+                return new MemoEntry(relocated.succeeded(), relocated.parser,
+                    relocated.start_position, relocated.end_position, relocated.extent,
+                    delta, relocated.ctx);
+            });
+
+            if (memo != null) {
+                if (parse.options.memo_stats) memo.enable_stats();
+                parse.state_data.put(e.getKey(), memo);
             }
         }
 
-        Parse parse = new Parse(string, list, options);
+        return execute(previous.parser, parse, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs {@code parser} over the input of {@code parse}, and returns the result.
+     *
+     * <p>If {@code detach} is true, the result does not refer to the value stack and parse state
+     * map of {@code parse} (copies are made), so that these can be reused for another parse.
+     */
+    static ParseResult execute (Parser parser, Parse parse, boolean detach)
+    {
+        if (parse.parse_metrics != null)
+            ParseMetrics.number(parser);
+
+        CharSequence text = parse.text;
+        ParseOptions options = parse.options;
+        long time0 = options.listener != null ? System.nanoTime() : 0;
         Throwable thrown = null;
         boolean success = false;
+        if (parse.sampling != null) parse.sampling.start();
         try { success = parser.parse(parse); }
-        catch (StackOverflowError e) { throw e; } // (1)
+        catch (StackOverflowError e) {
+            if (options.listener != null)
+                options.listener.stack_overflow(parser, parse.pos, System.nanoTime() - time0);
+            throw e; // (1)
+        }
         catch (Throwable t) { thrown = t; }
         finally {
-            for (ParseState<?> state: parse.parse_states)
-                state.discard_cache(parse);
+            if (parse.sampling != null) {
+                parse.sampling.finish();
+                options.sampler.merge(parse.sampling.samples);
+            }
+            if (parse.metrics_shard != null)
+                parse.metrics_shard.release();
         }
 
         // (1) wrapped in PotentiallyMalformedGrammarError in Autumn#parse
 
+        // Makes a streaming input (whose length is unknown until its end is reached) read up
+        // to the end of the match, if possible.
+        if (success && text != null && parse.pos <= text.length())
+            parse.char_at(parse.pos);
+
         boolean full_match
             = success && parse.pos == parse.input_length();
 
@@ -213,13 +520,16 @@ public final class Parse
                     : parse.error_message;
 
         ParserCallStack error_call_stack
-            = thrown != null
-                ? parse.call_stack
-                : full_match
-                    ? null
-                    : parse.error_call_stack;
+            = !options.record_call_stack
+                ? null
+                : thrown != null
+                    ? ParserCallStack.of(parse.call_stack)
+                    : full_match || parse.error_call_stack == null
+                        ? null
+                        : ParserCallStack.of(parse.error_call_stack);
 
-        return new ParseResult(
+        ParseResult result = new ParseResult(
+            text,
             success,
             full_match,
             match_size,
@@ -228,10 +538,23 @@ public final class Parse
             options,
             error_position,
             error_message,
-            parse.stack,
-            parse.state_data,
+            detach ? new ArrayStack<>(parse.stack.toArray()) : parse.stack,
+            !detach
+                ? parse.state_data
+                : parse.state_data.isEmpty()
+                    ? Collections.emptyMap()
+                    : new HashMap<>(parse.state_data),
             error_call_stack,
             parse.parse_metrics);
+
+        if (options.listener != null) {
+            int length = parse.input_length();
+            // streaming input not read to the end
+            if (length == Integer.MAX_VALUE) length = parse.pos;
+            options.listener.parse_completed(result, length, System.nanoTime() - time0);
+        }
+
+        return result;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -269,27 +592,77 @@ public final class Parse
      */
     public int input_length()
     {
-        return string != null
-            ? string.length()
+        return text != null
+            ? text.length()
             : list.size();
     }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Returns the character from {@link #string} at the given index,
-     * or 0 if {@code index == string.length}.
+     * Records that the input positions before {@code end} have been examined, by advancing {@link
+     * #examined} if needed.
+     *
+     * <p>Parsers that read {@link #text} or {@link #list} directly (instead of using {@link
+     * #char_at(int)}, {@link #match(int, String)}) should call this.
+     */
+    public void examine (int end)
+    {
+        if (end > examined)
+            examined = end;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the data for the given {@link ParseState#slot} in {@link #state_slots}, growing the
+     * array if needed.
+     */
+    void set_state_slot (int slot, Object data)
+    {
+        if (slot >= state_slots.length)
+            state_slots = Arrays.copyOf(state_slots, Math.max(slot + 1, state_slots.length * 2));
+        state_slots[slot] = data;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the character from {@link #text} at the given index,
+     * or 0 if {@code index == text.length}.
      */
     public char char_at (int index)
     {
-        assert string != null;
-        return index != string.length()
-            ? string.charAt(index)
+        assert text != null;
+        if (index >= examined)
+            examined = index + 1;
+        return index != text.length()
+            ? text.charAt(index)
             : 0;
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns the part of {@link #text} between {@code start} (inclusive) and {@code end}
+     * (exclusive), as a string.
+     *
+     * <p>If the input is a {@link TokenArray} ({@link #tokens}), returns instead the part of its
+     * text spanned by the tokens between {@code start} and {@code end}.
+     */
+    public String substring (int start, int end)
+    {
+        if (tokens != null)
+            return tokens.string(start, end);
+
+        assert text != null;
+        return string != null
+            ? string.substring(start, end)
+            : text.subSequence(start, end).toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Returns the object from {@link #list} at the given index,
      * or null if {@code index == list.size()}.
@@ -297,6 +670,8 @@ public final class Parse
     public Object object_at (int index)
     {
         assert list != null;
+        if (index >= examined)
+            examined = index + 1;
         return index != list.size()
             ? list.get(index)
             : null;
@@ -304,21 +679,42 @@ public final class Parse
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns the kind of the token from {@link #tokens} at the given index,
+     * or -1 if {@code index == tokens.size()}.
+     */
+    public int kind_at (int index)
+    {
+        assert kinds != null;
+        if (index >= examined)
+            examined = index + 1;
+        return index != kinds_length
+            ? kinds[index]
+            : -1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Returns true if the given string candidate appears in the parse's input string at the given
      * index. This function is safe even if the string candidate is longer than the remaining input.
      */
     public boolean match (int index, String candidate)
     {
-        assert string != null;
+        assert text != null;
 
-        if (string.length() < index + candidate.length())
+        if (text.length() < index + candidate.length()) {
+            examine(text.length() + 1);
             return false;
+        }
 
         for (int i = 0; i < candidate.length(); ++i)
-            if (string.charAt(index + i) != candidate.charAt(i))
+            if (text.charAt(index + i) != candidate.charAt(i)) {
+                examine(index + i + 1);
                 return false;
+            }
 
+        examine(index + candidate.length());
         return true;
     }
 
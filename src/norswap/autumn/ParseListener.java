@@ -0,0 +1,57 @@
+package norswap.autumn;
+
+/**
+ * A listener notified of the completion of each parse, registered with {@link
+ * ParseOptions#listener}. Used to export parse metrics to a telemetry system, such as a meter
+ * registry or JDK Flight Recorder (see {@link norswap.autumn.jfr.JfrParseListener}).
+ *
+ * <p>Listeners are called on the thread that ran the parse, so they must be thread-safe if parses
+ * run concurrently (e.g. with {@link Autumn#parse_all}). They should return quickly.
+ */
+public interface ParseListener
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Called after a parse completes — successfully or not, including if it threw an exception
+     * (see {@link ParseResult#thrown}).
+     *
+     * <p>{@code input_length} is the length of the input (or the position reached, for a streaming
+     * input that wasn't read to the end) and {@code duration} is the time taken by the parse in
+     * nanoseconds.
+     */
+    void parse_completed (ParseResult result, int input_length, long duration);
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Called when a parse with {@code parser} aborts because of a stack overflow (which {@link
+     * Autumn#parse} then reports as a potentially malformed grammar).
+     *
+     * <p>{@code position} is the input position reached at the time of the overflow, and {@code
+     * duration} is the time taken by the parse in nanoseconds.
+     */
+    default void stack_overflow (Parser parser, int position, long duration) {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a listener that forwards notifications to all the given listeners, in order.
+     */
+    static ParseListener all (ParseListener... listeners)
+    {
+        return new ParseListener() {
+            @Override public void parse_completed (ParseResult result, int length, long duration) {
+                for (ParseListener listener: listeners)
+                    listener.parse_completed(result, length, duration);
+            }
+
+            @Override public void stack_overflow (Parser parser, int position, long duration) {
+                for (ParseListener listener: listeners)
+                    listener.stack_overflow(parser, position, duration);
+            }
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
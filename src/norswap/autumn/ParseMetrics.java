@@ -1,19 +1,410 @@
 package norswap.autumn;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A set of per-parser performance metrics ({@link ParserMetrics}), which are collected
  * when a parse is running in tracing mode ({@link ParseOptions#TRACE}).
  *
- * <p>Currently just a wrapper around a {@code Map[Parser, ParserMetrics]}.
+ * <p>The metrics are stored in primitive arrays indexed by parser, in one shard per thread: each
+ * thread records its measurements without synchronization, and the shards are combined when the
+ * metrics are read ({@link #metrics()}). Hence, a single instance can be shared by concurrent
+ * parses (e.g. by returning it from the {@link ParseOptions#metrics} supplier), as long as the
+ * metrics are not read while these parses run.
+ *
+ * <p>The indices are dense and local to each instance: the arrays are sized by the number of
+ * parsers recorded in this instance, regardless of how many parsers exist or were recorded by
+ * other instances. To find the index of a parser without hashing, each traced parser is given a
+ * stable id ({@link Parser#metrics_id}) the first time a grammar containing it is traced, and
+ * each shard caches the index of each id in an array. Only the first invocation of a parser in
+ * a shard requires synchronization.
  */
 public final class ParseMetrics
 {
     // ---------------------------------------------------------------------------------------------
 
-    public final Map<Parser, ParserMetrics> metrics = new HashMap<>();
+    // Layout of the measurements of a parser in Shard#data.
+
+    static final int SELF_TIME         = 0;
+    static final int TOTAL_TIME        = 1;
+    static final int INVOCATIONS       = 2;
+    static final int REINVOCATIONS     = 3;
+    static final int REINVOCATION_TIME = 4;
+    static final int RECENT            = 5;
+    static final int STRIDE            = RECENT + ParserMetrics.RECENT;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Next {@link Parser#metrics_id} to assign, guarded by {@code ParseMetrics.class}. */
+    private static int next_id = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Index of the parser with each {@link Parser#metrics_id} in these metrics, plus one (0 if the
+     * parser has no index yet). Guarded by {@code this}.
+     */
+    private int[] indices = new int[0];
+
+    /** Number of indices assigned. Guarded by {@code this}. */
+    private int size = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** All shards, including those of {@link #local} and those added by {@link #merge}. */
+    private final ArrayList<Shard> shards = new ArrayList<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final ThreadLocal<Shard> local = ThreadLocal.withInitial(() -> {
+        Shard shard = new Shard(this);
+        synchronized (this) { shards.add(shard); }
+        return shard;
+    });
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Read-only view of {@link #metrics()}, kept for compatibility: each access to the view
+     * computes a new snapshot, so prefer calling {@link #metrics()} once.
+     */
+    public final Map<Parser, ParserMetrics> metrics = new AbstractMap<Parser, ParserMetrics>() {
+        @Override public Set<Entry<Parser, ParserMetrics>> entrySet() {
+            return metrics().entrySet();
+        }
+    };
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the stable id of {@code parser}, assigning the next id if it doesn't have one yet.
+     */
+    static int id (Parser parser)
+    {
+        int id = parser.metrics_id;
+        if (id >= 0) return id;
+        synchronized (ParseMetrics.class) {
+            if (parser.metrics_id < 0)
+                parser.metrics_id = next_id++;
+            return parser.metrics_id;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Assigns an id to all the parsers reachable from {@code root} that do not have one yet, so
+     * that the parsers of a grammar have contiguous ids. Does nothing if {@code root} already has
+     * an id, so that the grammar is only walked the first time it is traced.
+     */
+    static void number (Parser root)
+    {
+        if (root.metrics_id >= 0) return;
+        synchronized (ParseMetrics.class) {
+            new ParserWalker() {
+                @Override protected void work (Parser parser, State state) {
+                    if (state == State.BEFORE && parser.metrics_id < 0)
+                        parser.metrics_id = next_id++;
+                }
+            }
+            .walk(root);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of {@code parser} (whose id is {@code id}) in the arrays of these metrics,
+     * assigning the next index if it doesn't have one yet.
+     */
+    private synchronized int index (Parser parser, int id)
+    {
+        if (id >= indices.length)
+            indices = Arrays.copyOf(indices, Math.max(id + 1, indices.length * 2));
+        if (indices[id] == 0)
+            indices[id] = ++ size;
+        return indices[id] - 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the shard in which the current thread records its measurements.
+     */
+    Shard shard() {
+        return local.get();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a snapshot of the metrics, mapping each parser that was invoked to its metrics.
+     *
+     * <p>This combines the shards of all threads, and must not be called while parses using these
+     * metrics are running.
+     */
+    public synchronized Map<Parser, ParserMetrics> metrics()
+    {
+        Shard combined = combined();
+        HashMap<Parser, ParserMetrics> map = new HashMap<>();
+
+        for (int id = 0; id < combined.parsers.length; ++id)
+            if (combined.parsers[id] != null)
+                map.put(combined.parsers[id],
+                    new ParserMetrics(combined.parsers[id], combined.data, id * STRIDE));
+
+        return map;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the metrics of {@code parser}, or null if it wasn't invoked. Prefer {@link
+     * #metrics()} to retrieve the metrics of multiple parsers.
+     */
+    public ParserMetrics get (Parser parser) {
+        return metrics().get(parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new shard holding the sum of all shards.
+     */
+    private synchronized Shard combined()
+    {
+        Shard combined = new Shard(null);
+        for (Shard shard: shards)
+            combined.add(shard);
+        return combined;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the metrics from {@code other} to these metrics.
+     *
+     * <p>The metrics must not be concurrently read or modified in other ways.
+     */
+    public void merge (ParseMetrics other)
+    {
+        Shard theirs = other.combined();
+        Shard shard = new Shard(null);
+
+        for (int id = 0; id < theirs.parsers.length; ++id)
+        {
+            Parser parser = theirs.parsers[id];
+            if (parser == null) continue;
+            int index = index(parser, id(parser));
+            shard.register(parser, index);
+            System.arraycopy(theirs.data, id * STRIDE, shard.data, index * STRIDE, STRIDE);
+        }
+
+        synchronized (this) { shards.add(shard); }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The measurements made by a single thread.
+     */
+    static final class Shard
+    {
+        /** The metrics this shard belongs to, or null for shards that only hold a sum. */
+        private final ParseMetrics owner;
+
+        /** Index of the parser with each {@link Parser#metrics_id}, plus one (0 if none). */
+        private int[] indices = new int[0];
+
+        Shard (ParseMetrics owner) {
+            this.owner = owner;
+        }
+
+        /** Measurements of the parser with index {@code i} start at {@code i * STRIDE}. */
+        long[] data = new long[0];
+
+        /** The parser for each index, or null if it hasn't been invoked. */
+        Parser[] parsers = new Parser[0];
+
+        /** Number of in-progress invocations of each parser. */
+        int[] recursions = new int[0];
+
+        /** Number of in-progress re-invocations of each parser. */
+        int[] reinvocations = new int[0];
+
+        // Tracking of invocation positions, reset for each parse.
+
+        /** The parse whose positions are tracked, or null if none is in progress. */
+        private Parse tracked;
+
+        /**
+         * Open-addressing hash set of the {@code (id << 32) | pos} keys of the positions where each
+         * parser was invoked during {@link #tracked}. Empty slots hold -1.
+         */
+        private long[] seen = empty_seen(SEEN_CAPACITY);
+
+        /** Number of keys in {@link #seen}. */
+        private int seen_size = 0;
+
+        private static final int SEEN_CAPACITY = 1024;
+
+        /** Circular buffers of the last {@link ParserMetrics#RECENT} positions of each parser. */
+        private int[] recent = new int[0];
+
+        /** Index of the most recent position of each parser in {@link #recent}. */
+        private int[] recent_head = new int[0];
+
+        /** Number of positions of each parser in {@link #recent}. */
+        private int[] recent_size = new int[0];
+
+        /**
+         * Returns the index of {@code parser} in the arrays of the shard's metrics, ensuring that
+         * the shard has room for its measurements.
+         */
+        int index (Parser parser)
+        {
+            int id = parser.metrics_id;
+            if (id < 0) id = ParseMetrics.id(parser);
+            if (id < indices.length && indices[id] != 0)
+                return indices[id] - 1;
+
+            int index = owner.index(parser, id);
+            if (id >= indices.length)
+                indices = Arrays.copyOf(indices, Math.max(id + 1, indices.length * 2));
+            indices[id] = index + 1;
+            register(parser, index);
+            return index;
+        }
+
+        /**
+         * Ensures the shard has room for the measurements of {@code parser}, whose index is {@code
+         * id}.
+         */
+        void register (Parser parser, int id)
+        {
+            if (id >= parsers.length)
+            {
+                int size = Math.max(id + 1, parsers.length * 2);
+                data          = Arrays.copyOf(data, size * STRIDE);
+                parsers       = Arrays.copyOf(parsers, size);
+                recursions    = Arrays.copyOf(recursions, size);
+                reinvocations = Arrays.copyOf(reinvocations, size);
+                recent        = Arrays.copyOf(recent, size * ParserMetrics.RECENT);
+                recent_head   = Arrays.copyOf(recent_head, size);
+                recent_size   = Arrays.copyOf(recent_size, size);
+            }
+
+            parsers[id] = parser;
+        }
+
+        /**
+         * Records an invocation of the parser with the given index at the given position, updating
+         * its re-invocation counts. Returns true if the invocation is a re-invocation.
+         */
+        boolean record_position (Parse parse, int id, int pos)
+        {
+            if (tracked != parse) {
+                release();
+                tracked = parse;
+            }
+
+            int base = id * ParserMetrics.RECENT;
+            int head = recent_head[id];
+            int size = recent_size[id];
+
+            if (add_seen(((long) id << 32) | pos)) {
+                head = recent_head[id] = (head + 1) % ParserMetrics.RECENT;
+                recent[base + head] = pos;
+                if (size < ParserMetrics.RECENT) ++recent_size[id];
+                return false;
+            }
+
+            ++data[id * STRIDE + REINVOCATIONS];
+
+            for (int d = 0; d < size; ++d) {
+                int i = (head - d + ParserMetrics.RECENT) % ParserMetrics.RECENT;
+                if (recent[base + i] == pos) {
+                    ++data[id * STRIDE + RECENT + d];
+                    break;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Adds {@code key} to {@link #seen}, returning false if it was already present.
+         */
+        private boolean add_seen (long key)
+        {
+            if (2 * (seen_size + 1) > seen.length) {
+                long[] old = seen;
+                seen = empty_seen(old.length * 2);
+                for (long k: old)
+                    if (k >= 0) seen[slot(k)] = k;
+            }
+
+            int i = slot(key);
+            if (seen[i] == key) return false;
+            seen[i] = key;
+            ++ seen_size;
+            return true;
+        }
+
+        /**
+         * Returns the index of {@code key} in {@link #seen}, or of the empty slot where it belongs.
+         */
+        private int slot (long key)
+        {
+            int mask = seen.length - 1;
+            int i = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+            while (seen[i] >= 0 && seen[i] != key)
+                i = (i + 1) & mask;
+            return i;
+        }
+
+        private static long[] empty_seen (int capacity)
+        {
+            long[] seen = new long[capacity];
+            Arrays.fill(seen, -1);
+            return seen;
+        }
+
+        /**
+         * Forgets the positions recorded for the tracked parse, and releases it. Called when a
+         * parse completes, so that the shard does not keep it alive.
+         */
+        void release()
+        {
+            tracked = null;
+            if (seen_size == 0) return;
+            if (seen.length == SEEN_CAPACITY)
+                Arrays.fill(seen, -1);
+            else
+                seen = empty_seen(SEEN_CAPACITY);
+            seen_size = 0;
+            Arrays.fill(recent_size, 0);
+        }
+
+        /**
+         * Adds the measurements of {@code other} to this shard.
+         */
+        void add (Shard other)
+        {
+            for (int id = 0; id < other.parsers.length; ++id)
+            {
+                if (other.parsers[id] == null) continue;
+                register(other.parsers[id], id);
+                for (int i = id * STRIDE; i < (id + 1) * STRIDE; ++i)
+                    data[i] += other.data[i];
+            }
+        }
+    }
 
     // ---------------------------------------------------------------------------------------------
 }
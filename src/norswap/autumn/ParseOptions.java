@@ -10,9 +10,9 @@ import java.util.function.Supplier;
  * from {@link ParseOptionsBuilder} to select the option you desires. End with {@link
  * ParseOptionsBuilder#get()} to create the option set.
  *
- * <p>Instances may usually be reused, but beware that {@link #metrics} return an object that is
- * shared accross parses. For one, this object is not thread-safe, and for two, sharing it might not
- * be what you want.
+ * <p>Instances may usually be reused, but beware that {@link #metrics} may return an object that
+ * is shared accross parses, which might not be what you want. Concurrent parses can safely share
+ * it, however (see {@link ParseMetrics}).
  *
  * <p>The canonical documentation for an option is the field through which it is accessible in
  * {@link ParseOptions}.
@@ -29,6 +29,9 @@ import java.util.function.Supplier;
  *     <li>{@link #record_call_stack} = {@code false}</li>
  *     <li>{@link #well_formedness_check} = {@code true}</li>
  *     <li>{@link #metrics} = {@code null}</li>
+ *     <li>{@link #sampler} = {@code null}</li>
+ *     <li>{@link #listener} = {@code null}</li>
+ *     <li>{@link #memo_stats} = {@code false}</li>
  * </ul>
  *
  * <p>The code ensures that if {@link #trace} is true/false, its corresponding {@link #metrics}
@@ -57,6 +60,9 @@ public final class ParseOptions
      * parsers via  {@link Parse#call_stack}); as well as the call stack snapshot for the furthest
      * error location ({@link Parse#error)}), made available to parsers via {@link
      * Parse#error_call_stack} and passed on to the {@link ParseResult}.
+     *
+     * <p>Call stacks are chains of immutable {@link ParserCallFrame}, so taking a snapshot is
+     * free, and the overhead is limited to allocating one frame per parser invocation.
      */
     public final boolean record_call_stack;
 
@@ -66,6 +72,9 @@ public final class ParseOptions
      * Indicates if Autumn should check that the grammar is well-formed (i.e. does not exhibit
      * unprotected left-recursion nor repetition over nullable parsers) before starting the parse.
      *
+     * <p>The check is skipped if the grammar was already checked by {@link
+     * FrozenGrammar#freeze(Parser)}.
+     *
      * <p>True by default.
      */
     public final boolean well_formedness_check;
@@ -81,14 +90,48 @@ public final class ParseOptions
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * If non-null, the parse periodically samples the stack of grammar rules being invoked, and
+     * adds the samples to this sampler. This is much cheaper than {@link #trace}, and is ignored if
+     * {@link #trace} is set.
+     */
+    public final StackSampler sampler;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If non-null, notified of the completion of every parse using these options, e.g. to export
+     * metrics to a telemetry system. Parses are not timed when this is null.
+     */
+    public final ParseListener listener;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Indicates whether the memoizers used during the parse collect usage statistics (lookups,
+     * hits, evictions, probe lengths — see {@link norswap.autumn.memo.MemoStats}), which are
+     * available from {@link ParseResult#memo_stats()}. The overhead is a few counter increments per
+     * memoizer operation.
+     *
+     * <p>To aggregate the statistics over multiple parses, use a {@link
+     * norswap.autumn.memo.MemoStatsAggregator} as {@link #listener}.
+     */
+    public final boolean memo_stats;
+
+    // ---------------------------------------------------------------------------------------------
+
     private ParseOptions
         (boolean trace, boolean record_call_stack, boolean well_formedness_check,
-         Supplier<ParseMetrics> metrics)
+         Supplier<ParseMetrics> metrics, StackSampler sampler, ParseListener listener,
+         boolean memo_stats)
     {
         this.trace = trace;
         this.record_call_stack = record_call_stack;
         this.well_formedness_check = well_formedness_check;
         this.metrics = metrics;
+        this.sampler = sampler;
+        this.listener = listener;
+        this.memo_stats = memo_stats;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -132,6 +175,33 @@ public final class ParseOptions
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Sets the {@link ParseOptions#sampler} option.
+     */
+    public static ParseOptionsBuilder sampler (StackSampler sampler) {
+        return new ParseOptionsBuilder().sampler(sampler);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the {@link ParseOptions#listener} option.
+     */
+    public static ParseOptionsBuilder listener (ParseListener listener) {
+        return new ParseOptionsBuilder().listener(listener);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Enables/disables the {@link ParseOptions#memo_stats} option.
+     */
+    public static ParseOptionsBuilder memo_stats (boolean enabled) {
+        return new ParseOptionsBuilder().memo_stats(enabled);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Returns a parse options builder with the default options (see {@link ParseOptions}).
      */
@@ -141,6 +211,24 @@ public final class ParseOptions
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns a parse options builder initialized with the given options.
+     */
+    public static ParseOptionsBuilder builder (ParseOptions options)
+    {
+        ParseOptionsBuilder builder = new ParseOptionsBuilder();
+        builder.trace = options.trace;
+        builder.record_call_stack = options.record_call_stack;
+        builder.well_formedness_check = options.well_formedness_check;
+        builder.metrics = options.metrics;
+        builder.sampler = options.sampler;
+        builder.listener = options.listener;
+        builder.memo_stats = options.memo_stats;
+        return builder;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Builds a default option set (see {@link ParseOptions}).
      */
@@ -159,6 +247,9 @@ public final class ParseOptions
         private boolean record_call_stack = false;
         private boolean well_formedness_check = true;
         private Supplier<ParseMetrics> metrics = null;
+        private StackSampler sampler = null;
+        private ParseListener listener = null;
+        private boolean memo_stats = false;
 
         private ParseOptionsBuilder() {}
 
@@ -204,12 +295,41 @@ public final class ParseOptions
             return this;
         }
 
+        /**
+         * Sets the {@link ParseOptions#sampler} option.
+         */
+        public ParseOptionsBuilder sampler (StackSampler sampler)
+        {
+            this.sampler = sampler;
+            return this;
+        }
+
+        /**
+         * Sets the {@link ParseOptions#listener} option.
+         */
+        public ParseOptionsBuilder listener (ParseListener listener)
+        {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * Enables/disables the {@link ParseOptions#memo_stats} option.
+         */
+        public ParseOptionsBuilder memo_stats (boolean enabled)
+        {
+            memo_stats = enabled;
+            return this;
+        }
+
         /**
          * Builds the set of options.
          */
         public ParseOptions get()
         {
-            return new ParseOptions(trace, record_call_stack, well_formedness_check, metrics);
+            return new ParseOptions(
+                trace, record_call_stack, well_formedness_check, metrics, sampler, listener,
+                memo_stats);
         }
     }
 
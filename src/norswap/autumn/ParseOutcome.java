@@ -0,0 +1,70 @@
+package norswap.autumn;
+
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+
+/**
+ * The outcome of parsing one of the inputs passed to {@link Autumn#parse_all(Parser,
+ * java.util.stream.Stream, ParseOptions, Executor)}: the input itself, and either the {@link
+ * ParseResult} or the exception that prevented the parse from completing.
+ */
+public final class ParseOutcome
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The input that was parsed, normally a {@link CharSequence} or a {@link Path}.
+     */
+    public final Object input;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The result of the parse, or null if {@link #thrown} is non-null.
+     *
+     * <p>Note that exceptions thrown by parsers during the parse are reported through {@link
+     * ParseResult#thrown} and do not cause this to be null.
+     */
+    public final ParseResult result;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The exception that prevented the parse from completing, or null. This is either an {@link
+     * IllegalArgumentException} if the input is neither a char sequence nor a path, an I/O error
+     * occuring while reading a file input, an {@link Error} escaping the parse (e.g. the error
+     * caused by a stack overflow), or a {@link java.util.concurrent.RejectedExecutionException} if
+     * the executor rejected the parse.
+     */
+    public final Throwable thrown;
+
+    // ---------------------------------------------------------------------------------------------
+
+    ParseOutcome (Object input, ParseResult result, Throwable thrown)
+    {
+        this.input = input;
+        this.result = result;
+        this.thrown = thrown;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the parse completed and matched the whole input.
+     */
+    public boolean full_match() {
+        return result != null && result.full_match;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString()
+    {
+        String name = input instanceof Path ? input.toString() : "<string>";
+        return thrown != null
+            ? name + ": " + thrown
+            : name + ": " + (result.full_match ? "full match" : "no full match");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -1,7 +1,12 @@
 package norswap.autumn;
 
+import norswap.autumn.memo.MemoStats;
+import norswap.autumn.memo.Memoizer;
+import norswap.autumn.parsers.Memo;
+import norswap.autumn.parsers.Tokens;
 import norswap.autumn.util.ArrayStack;
 import norswap.utils.Exceptions;
+import java.util.HashMap;
 import java.util.Map;
 
 import static norswap.utils.Util.cast;
@@ -60,6 +65,13 @@ public final class ParseResult
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * The input text, or null if the input was a list.
+     */
+    public final CharSequence text;
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * If the parse ended with an exception, the input position at which this exception occured;
      * otherwise if the parse isn't a full match, the position of the furthest error encountered;
@@ -130,6 +142,7 @@ public final class ParseResult
     // ---------------------------------------------------------------------------------------------
 
     ParseResult (
+        CharSequence text,
         boolean success,
         boolean full_match,
         int match_size,
@@ -143,6 +156,7 @@ public final class ParseResult
         ParserCallStack error_call_stack,
         ParseMetrics parse_metrics)
     {
+        this.text = text;
         this.success = success;
         this.full_match = full_match;
         this.match_size = match_size;
@@ -168,6 +182,49 @@ public final class ParseResult
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns a map from parse state keys ({@link ParseState#key}) to the usage statistics of the
+     * memoizers held by these parse states, if the {@link ParseOptions#memo_stats} option was
+     * specified (otherwise the map is empty).
+     *
+     * <p>Like {@link #parse_states}, this only includes the memoizers that were used during the
+     * parse. The statistics of the token memoizer of a {@link Tokens} instance are found under
+     * the {@code Tokens.class} key.
+     */
+    public Map<Object, MemoStats> memo_stats()
+    {
+        HashMap<Object, MemoStats> map = new HashMap<>();
+        parse_states.forEach((key, data) -> {
+            MemoStats stats = data instanceof Memoizer ? ((Memoizer) data).stats() : null;
+            if (stats != null) map.put(key, stats);
+        });
+        return map;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the usage statistics of the memoizer used by {@code parser} during the parse — which
+     * must be a {@link Memo} or a parser with a memoizer ({@link Parser#memo()}) — or null if the
+     * memoizer wasn't used, or if the {@link ParseOptions#memo_stats} option wasn't specified.
+     */
+    public MemoStats memo_stats (Parser parser)
+    {
+        Object key;
+
+        if (parser instanceof Memo)
+            key = ((Memo) parser).memoizer.key;
+        else if (parser.memo() != null)
+            key = parser.memo().key;
+        else
+            throw new IllegalArgumentException("parser does not memoize: " + parser);
+
+        Object data = parse_states.get(key);
+        return data instanceof Memoizer ? ((Memoizer) data).stats() : null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Appends a string representing the results of the parse to {@code b}.
      *
@@ -1,5 +1,11 @@
 package norswap.autumn;
 
+import norswap.autumn.memo.Memoizer;
+import norswap.utils.ArrayListInt;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
 import java.util.function.Supplier;
 
 import static norswap.utils.Util.cast;
@@ -16,7 +22,8 @@ import static norswap.utils.Util.cast;
  * case, any change to the data object ({@link Data}) must be done through a {@link SideEffect}.
  *
  * <p>This class does not actually store the parse state. Instead it is stored in the {@link
- * Parse#state_data} map. This class also includes a cache to speed up lookups.
+ * Parse#state_data} map, and in an array held by the {@link Parse}, indexed by the {@link #slot} of
+ * the parse state, which makes lookups a single array load.
  *
  * <p>Each instance of this class designates his own {@link Data} instances in the {@link
  * Parse#state_data} maps using a <b>unique</b> object key. The convention is to use a {@link Class}
@@ -32,35 +39,65 @@ import static norswap.utils.Util.cast;
  * in the {@link Parse} object is necessary because parsers are not tied to a particular parse and
  * can be reused.
  *
- * <p>This class caches a (parse, thread) pair. It's possible for multiple parse on different
- * threads to use this kind of parse state (with different instances of {@link Data} and {@link
- * Parse}!), but this class will cache the state of a single thread, while the other thread will
- * fall back on querying {@link Parse#state_data} on access. The cached thread is selected
- * non-deterministically (it's a race). After the parse that owns the cache completes, the cache is
- * evicted, enabling other threads, or another parse on the same thread, to take ownership of the
- * cache.
+ * <p>Since the data is looked up in the parse, the same parse state can be used by any number of
+ * parses, including parses running concurrently on different threads.
  *
- * <p>If for performance reasons you really require parse state caching for every thread, give each
- * thread his own copy of the parser.
+ * <p>Each key is assigned a slot (a small integer), shared by all parse states with an equal key,
+ * for as long as one of these parse states is reachable. Slots are then reused for other keys,
+ * so that the slot arrays remain dense even if grammars are created repeatedly.
  */
 public class ParseState<Data>
 {
     // ---------------------------------------------------------------------------------------------
 
-    private class Cached
+    private static final class SlotRef extends WeakReference<Object>
     {
-        final Parse parse;
-        final Data data;
+        final int slot;
 
-        Cached (Parse parse) {
-            this.parse = parse;
-            this.data = get_or_init_data(parse);
+        SlotRef (Object key, int slot) {
+            super(key, collected_keys);
+            this.slot = slot;
         }
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private Cached cached;
+    /** Maps keys to their slot. Guarded by its own lock. */
+    private static final WeakHashMap<Object, SlotRef> slots = new WeakHashMap<>();
+
+    /** Queue of the {@link SlotRef}s whose key has been garbage-collected. */
+    private static final ReferenceQueue<Object> collected_keys = new ReferenceQueue<>();
+
+    /** Slots whose key has been garbage-collected, available for reuse. */
+    private static final ArrayListInt free_slots = new ArrayListInt();
+
+    /** Number of slots assigned so far, including the free slots. */
+    private static int slot_count = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the slot assigned to {@code key}, assigning a new one if needed, and sets {@code
+     * canonical[0]} to the key object the slot is registered with.
+     */
+    private static int slot (Object key, Object[] canonical)
+    {
+        synchronized (slots)
+        {
+            for (Reference<?> ref; (ref = collected_keys.poll()) != null; )
+                free_slots.push(((SlotRef) ref).slot);
+
+            SlotRef ref = slots.get(key);
+            Object registered = ref == null ? null : ref.get();
+            if (registered == null) {
+                int slot = free_slots.size() > 0 ? free_slots.pop() : slot_count++;
+                slots.put(key, ref = new SlotRef(key, slot));
+                registered = key;
+            }
+            canonical[0] = registered;
+            return ref.slot;
+        }
+    }
 
     // ---------------------------------------------------------------------------------------------
 
@@ -78,6 +115,20 @@ public class ParseState<Data>
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * The index of the data for this parse state in the array of state data of a {@link Parse}.
+     * Parse states with equal keys share the same slot.
+     */
+    public final int slot;
+
+    /**
+     * The key object the slot is registered with, which may be a different (but equal) object
+     * than {@link #key}. Keeps the slot assigned as long as this parse state is reachable.
+     */
+    private final Object slot_key;
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * @param key The key used to access the state in {@link Parse#state_data}.
      * @param init Used to initialize the parse state data. Must not return null!
@@ -86,19 +137,25 @@ public class ParseState<Data>
     {
         this.key = key;
         this.init = init;
+        Object[] canonical = new Object[1];
+        this.slot = slot(key, canonical);
+        this.slot_key = canonical[0];
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private Data get_or_init_data (Parse parse)
+    private Data init_data (Parse parse)
     {
+        // The data may have been seeded in the map before the parse (see Parse#rerun).
         Data data = cast(parse.state_data.get(key));
         if (data == null) {
             data = init.get();
             if (data == null) throw new Error("state initialized to null");
+            if (parse.options.memo_stats && data instanceof Memoizer)
+                ((Memoizer) data).enable_stats();
             parse.state_data.put(key, data);
-            parse.parse_states.add(this);
         }
+        parse.set_state_slot(slot, data);
         return data;
     }
 
@@ -109,28 +166,10 @@ public class ParseState<Data>
      */
     public Data data (Parse parse)
     {
-        // There are race conditions on cached, but ultimately a single cache entry will
-        // prevail, with other threads forced to the slow path. The semantics of the function
-        // is preserved during races.
-
-        Cached c = cached;
-        if (c == null)
-            cached = c = new Cached(parse);
-        return c.parse == parse
-            ? c.data
-            : get_or_init_data(parse); // slow path
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    /**
-     * Discard the cached parse state data. Automatically called after a parse in order to enable
-     * another thread to cache his data.
-     */
-    void discard_cache (Parse parse)
-    {
-        if (cached != null && cached.parse == parse)
-            cached = null;
+        Object[] data = parse.state_slots;
+        return slot < data.length && data[slot] != null
+            ? cast(data[slot])
+            : init_data(parse); // first access during this parse
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -0,0 +1,126 @@
+package norswap.autumn;
+
+import norswap.autumn.util.TokenArray;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Parses many inputs with the same parser and options, recycling the data structures of the
+ * parses. Obtained via {@link Autumn#workspace(Parser, ParseOptions)}.
+ *
+ * <p>Each {@link Autumn#parse} call allocates a new {@link Parse}, along with its {@link Log},
+ * value stack and parse state containers, and (by default) checks that the grammar is well-formed.
+ * For small inputs, this dwarfs the actual parsing work. A workspace checks the grammar (if {@link
+ * ParseOptions#well_formedness_check} is set) and freezes the parser graph once, when created.
+ * Then, each thread parsing with the workspace keeps the data structures of its last parse
+ * (cleared, and shrunk if a large input made them grow), and reuses them for its next parse
+ * instead of reallocating them.
+ *
+ * <p>Workspaces can be shared between threads. The results do not share any mutable structure
+ * with the workspace, and remain valid after subsequent parses.
+ *
+ * <p>Parse state data (cf. {@link ParseState}), including memoization tables, is still initialized
+ * anew for each parse. Results can be reparsed ({@link Autumn#reparse}), but no memoized results
+ * that affect the value stack will be reused.
+ */
+public final class ParseWorkspace
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The parser used for all parses.
+     */
+    public final Parser parser;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The parse options used for all parses. Unlike the options passed to {@link
+     * Autumn#workspace(Parser, ParseOptions)}, {@link ParseOptions#well_formedness_check} is
+     * always disabled, as the check is performed when the workspace is created.
+     */
+    public final ParseOptions options;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Containers that hold more items than this after a parse are not kept as is (cf. {@link
+     * Parse#recycle(int)}).
+     */
+    private static final int MAX_RECYCLED_CAPACITY = 1 << 12;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The containers of the last parse completed by each thread, which can be reused. Cleared
+     * while a parse is running, in case the workspace is used reentrantly.
+     */
+    private final ThreadLocal<Parse.Containers[]> recycled =
+        ThreadLocal.withInitial(() -> new Parse.Containers[1]);
+
+    // ---------------------------------------------------------------------------------------------
+
+    ParseWorkspace (Parser parser, ParseOptions options)
+    {
+        if (options.well_formedness_check)
+            FrozenGrammar.freeze(parser);
+        else
+            Autumn.freeze(parser);
+
+        this.parser = parser;
+        this.options = ParseOptions.builder(options).well_formedness_check(false).get();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses {@code text}, cf. {@link Autumn#parse(Parser, CharSequence, ParseOptions)}.
+     */
+    public ParseResult parse (CharSequence text)
+    {
+        requireNonNull(text, "Input string cannot be null.");
+        return run(text, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses {@code list}, cf. {@link Autumn#parse(Parser, List, ParseOptions)}.
+     */
+    public ParseResult parse (List<?> list)
+    {
+        requireNonNull(list, "Input list cannot be null.");
+        return run(null, list);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses the token {@code kinds}, cf. {@link Autumn#parse(Parser, int[], ParseOptions)}.
+     */
+    public ParseResult parse (int[] kinds)
+    {
+        requireNonNull(kinds, "Input kinds cannot be null.");
+        return run(null, TokenArray.of(kinds));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ParseResult run (CharSequence text, List<?> list)
+    {
+        Parse.Containers[] last = recycled.get();
+        Parse parse = new Parse(text, list, options, last[0]);
+        last[0] = null;
+
+        try {
+            ParseResult result = Parse.execute(parser, parse, true);
+            last[0] = parse.recycle(MAX_RECYCLED_CAPACITY);
+            return result;
+        } catch (StackOverflowError e) {
+            throw new Autumn.PotentiallyMalformedGrammarError(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
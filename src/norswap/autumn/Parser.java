@@ -1,5 +1,10 @@
 package norswap.autumn;
 
+import norswap.autumn.compiler.CompiledParser;
+import norswap.autumn.compiler.ParserCompiler;
+import norswap.autumn.memo.MemoPlan;
+import norswap.autumn.memo.Memoizer;
+
 /**
  * The parent class for all parsers.
  *
@@ -7,7 +12,7 @@ package norswap.autumn;
  * a prefix of this remaining input.
  *
  * <p>In particular, parsers are invoked via the {@link #parse(Parse)} function. The remaining input
- * is delineated via the input ({@link Parse#string} or {@link Parse#list}) and the {@link
+ * is delineated via the input ({@link Parse#text} or {@link Parse#list}) and the {@link
  * Parse#pos} fields. This method returns a boolean to indicate success or failure, and, in case of
  * success, updates {@link Parse#pos} to reflect the amount of input that was matched (otherwise
  * the position remains unchanged).
@@ -41,6 +46,14 @@ public abstract class Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Stable id of this parser, assigned the first time it is traced and never changed afterwards,
+     * or -1. Used to look up the index of the parser in {@link ParseMetrics}.
+     */
+    volatile int metrics_id = -1;
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Whether to exclude errors (failure to match) from this parser and all its sub-parsers from
      * being used as the furthest error ({@link Parse#error}).
@@ -49,6 +62,37 @@ public abstract class Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Compiled code implementing {@link #parse(Parse)} for this parser, installed by {@link
+     * ParserCompiler}, or null.
+     */
+    private CompiledParser compiled;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * 1 if this parser is a rule ({@link #rule()} is non-null), 0 otherwise. Lets {@link
+     * StackSampler} count rule invocations without branching.
+     */
+    private byte rule_bit;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Memoizer used to memoize the results of this parser, or null.
+     */
+    private ParseState<Memoizer> memo;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The handle of the grammar rooted at this parser, if it has been frozen ({@link
+     * FrozenGrammar#freeze(Parser)}), or null.
+     */
+    volatile FrozenGrammar frozen;
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * The name of the rule this parser is assigned to, if any, or null.
      */
@@ -67,6 +111,54 @@ public abstract class Parser
         if (this.rule != null)
             throw new Error("rule name already set");
         this.rule = rule;
+        this.rule_bit = rule != null ? (byte) 1 : (byte) 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the compiled code installed for this parser by {@link ParserCompiler}, or null.
+     */
+    public final CompiledParser compiled() {
+        return compiled;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Installs compiled code to be used by {@link #parse(Parse)} in lieu of the regular logic, or
+     * removes it if {@code compiled} is null. The compiled code must have the exact same semantics
+     * as {@link #parse(Parse)} when none of {@link ParseOptions#trace}, {@link
+     * ParseOptions#sampler} and {@link ParseOptions#record_call_stack} are set — it is not used
+     * when any of them is set.
+     *
+     * <p>This is meant to be called by {@link ParserCompiler}.
+     */
+    public final void set_compiled (CompiledParser compiled) {
+        this.compiled = compiled;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the memoizer installed for this parser by {@link #set_memo}, or null.
+     */
+    public final ParseState<Memoizer> memo() {
+        return memo;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Makes this parser memoize its results in the given memoizer — which has the same effect as
+     * wrapping it in a {@link norswap.autumn.parsers.Memo} parser, but without modifying the
+     * parser graph. Removes memoization if {@code memo} is null.
+     *
+     * <p>This is meant to be called by {@link MemoPlan#apply}, before parsing and before compiling
+     * the grammar with {@link ParserCompiler}: memoized parsers are not compiled.
+     */
+    public final void set_memo (ParseState<Memoizer> memo) {
+        this.memo = memo;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -98,22 +190,60 @@ public abstract class Parser
      * if the parse succeeded.
      *
      * <p>Will register side effects in {@link Parse#log}, if any; and only if the parse succeeded.
+     *
+     * <p>Scopes {@link Parse#examined} to the invocation: it is set to the initial position on
+     * entry, and merged back into the caller's value on exit.
      */
     public final boolean parse (Parse parse)
     {
-        if (parse.options.trace)
-            return tracing_parse(parse);
+        int examined0 = parse.examined;
+        parse.examined = parse.pos;
+
+        // Stack sampling bookkeeping (see StackSampler.Session). Inline: in a separate method, it
+        // makes this method too big for the JIT to inline it into its callers. Only branches on
+        // per-parse conditions in the common case: branching on whether this parser is a rule
+        // causes mispredictions that cost more than the bookkeeping itself.
+        StackSampler.Session sampling = parse.sampling;
+        int ticks0 = 0;
+        if (sampling != null) {
+            ticks0 = parse.sample_ticks;
+            if (parse.sample_countdown > 0 && (parse.sample_countdown -= rule_bit) == 0)
+                sampling.sample();
+        }
 
+        boolean result = parse.options.trace
+            ? tracing_parse(parse)
+            : compiled != null && memo == null && parse.sampling == null
+                    && !parse.options.record_call_stack
+                ? compiled.parse(parse)
+                : plain_parse(parse);
+
+        if (sampling != null && parse.sample_ticks != ticks0 && rule_bit != 0)
+            sampling.exit(this, ticks0);
+
+        if (examined0 > parse.examined)
+            parse.examined = examined0;
+
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Implementation of {@link #parse(Parse)} when not tracing nor running compiled code.
+     */
+    private boolean plain_parse (Parse parse)
+    {
         int pos0 = parse.pos;
         int log0 = parse.log.size();
         int err0 = parse.error;
         String errmsg0 = parse.error_message;
-        ParserCallStack stk0 = parse.error_call_stack;
+        ParserCallFrame stk0 = parse.error_call_stack;
 
         if (parse.options.record_call_stack)
-            parse.call_stack.push(this, pos0);
+            parse.call_stack = new ParserCallFrame(parse.call_stack, this, pos0);
 
-        boolean result = doparse(parse);
+        boolean result = memo == null ? doparse(parse) : memo_doparse(parse);
 
         if (exclude_errors) {
             parse.error = err0;
@@ -123,7 +253,7 @@ public abstract class Parser
 
         if (result) {
             if (parse.options.record_call_stack)
-                parse.call_stack.pop();
+                parse.call_stack = parse.call_stack.parent;
             return true;
         }
 
@@ -133,11 +263,11 @@ public abstract class Parser
             if (parse.error_message == errmsg0)
                 parse.error_message = null;
             if (parse.options.record_call_stack)
-                parse.error_call_stack = parse.call_stack.clone();
+                parse.error_call_stack = parse.call_stack;
         }
 
         if (parse.options.record_call_stack)
-            parse.call_stack.pop();
+            parse.call_stack = parse.call_stack.parent;
 
         parse.pos = pos0;
         parse.log.rollback(log0);
@@ -146,6 +276,31 @@ public abstract class Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Implementation of {@link #doparse(Parse)} for parsers with a memoizer ({@link #set_memo}).
+     */
+    private boolean memo_doparse (Parse parse)
+    {
+        Memoizer memoizer = memo.data(parse);
+
+        switch (memoizer.replay(parse, this, null, null)) {
+            case SUCCESS: return true;
+            case FAILURE: return false;
+            default: break; // not memoized yet
+        }
+
+        int pos0 = parse.pos;
+        int log0 = parse.log.size();
+        int pin0 = parse.pinned_log;
+        parse.pinned_log = Math.min(pin0, log0);
+        boolean success = doparse(parse);
+        parse.pinned_log = pin0;
+        memoizer.memoize(parse, success, this, pos0, log0, null);
+        return success;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Implementation of {@link #parse(Parse)} for the tracing case. See {@link ParseOptions#trace}
      * for more info.
@@ -155,22 +310,25 @@ public abstract class Parser
         long time0 = System.nanoTime();
 
         int trace0 = parse.trace_timings.size();
-        ParserMetrics metrics
-            = parse.parse_metrics.metrics.computeIfAbsent(this, k -> new ParserMetrics(this));
-        ++ metrics.invocations;
-        ++ metrics.recursive_invocations;
+        ParseMetrics.Shard shard = parse.metrics_shard;
+        int id = shard.index(this);
+        int offset = id * ParseMetrics.STRIDE;
+        ++ shard.data[offset + ParseMetrics.INVOCATIONS];
+        ++ shard.recursions[id];
+        boolean reinvoked = shard.record_position(parse, id, parse.pos);
+        if (reinvoked) ++ shard.reinvocations[id];
 
         long time1 = System.nanoTime();
 
         int pos0 = parse.pos;
         int log0 = parse.log.size();
         int err0 = parse.error;
-        ParserCallStack stk0 = parse.error_call_stack;
+        ParserCallFrame stk0 = parse.error_call_stack;
 
         if (parse.options.record_call_stack)
-            parse.call_stack.push(this, pos0);
+            parse.call_stack = new ParserCallFrame(parse.call_stack, this, pos0);
 
-        boolean result = doparse(parse);
+        boolean result = memo == null ? doparse(parse) : memo_doparse(parse);
 
         if (exclude_errors) {
             parse.error = err0;
@@ -179,17 +337,17 @@ public abstract class Parser
 
         if (result) {
             if (parse.options.record_call_stack)
-                parse.call_stack.pop();
+                parse.call_stack = parse.call_stack.parent;
         }
         else {
             if (!exclude_errors && parse.error <= pos0) {
                 parse.error = pos0;
                 if (parse.options.record_call_stack)
-                    parse.error_call_stack = parse.call_stack.clone();
+                    parse.error_call_stack = parse.call_stack;
             }
 
             if (parse.options.record_call_stack)
-                parse.call_stack.pop();
+                parse.call_stack = parse.call_stack.parent;
 
             parse.pos = pos0;
             parse.log.rollback(log0);
@@ -206,10 +364,14 @@ public abstract class Parser
             overheads += parse.trace_timings.pop();
         }
 
-        metrics.self_time += total - children;
+        // children may have reallocated the arrays
+        shard.data[offset + ParseMetrics.SELF_TIME] += total - children;
+
+        if (--shard.recursions[id] == 0)
+            shard.data[offset + ParseMetrics.TOTAL_TIME] += total - overheads;
 
-        if (--metrics.recursive_invocations == 0)
-            metrics.total_time += total - overheads;
+        if (reinvoked && --shard.reinvocations[id] == 0)
+            shard.data[offset + ParseMetrics.REINVOCATION_TIME] += total - overheads;
 
         overheads += System.nanoTime() - time0 - total;
         parse.trace_timings.push(overheads);
@@ -2,6 +2,10 @@ package norswap.autumn;
 
 /**
  * Represents a parser invocation at a certain input position.
+ *
+ * <p>Frames are immutable and linked to the frame of the invocation that caused them ({@link
+ * #parent}), so a frame also represents the whole call stack that lead to its invocation. This
+ * makes taking a snapshot of the call stack free: one only needs to retain the top frame.
  */
 public final class ParserCallFrame
 {
@@ -15,8 +19,14 @@ public final class ParserCallFrame
 
     // ---------------------------------------------------------------------------------------------
 
-    ParserCallFrame (Parser parser, int position)
+    /** Frame of the invocation that caused this one, or null if this is the bottom frame. */
+    public final ParserCallFrame parent;
+
+    // ---------------------------------------------------------------------------------------------
+
+    ParserCallFrame (ParserCallFrame parent, Parser parser, int position)
     {
+        this.parent = parent;
         this.parser = parser;
         this.position = position;
     }
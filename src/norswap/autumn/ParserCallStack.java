@@ -5,17 +5,36 @@ import norswap.utils.Strings;
 
 /**
  * A stack of {@link ParserCallFrame} representing parser invocations at a certain position.
+ *
+ * <p>During the parse, call stacks are represented by their top frame (see {@link
+ * Parse#call_stack}). This class materializes such a stack for reporting, see {@link
+ * ParseResult#error_call_stack}.
  */
 public final class ParserCallStack extends ArrayStack<ParserCallFrame>
 {
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Pushes a new call frame onto the stack.
+     * Returns a new call stack holding {@code top} and all its ancestors (bottom frame first). If
+     * {@code top} is null, the stack is empty.
      */
-    public void push (Parser parser, int position)
+    public static ParserCallStack of (ParserCallFrame top)
     {
-        push(new ParserCallFrame(parser, position));
+        int size = 0;
+        for (ParserCallFrame frame = top; frame != null; frame = frame.parent)
+            ++ size;
+
+        ParserCallFrame[] frames = new ParserCallFrame[size];
+        for (ParserCallFrame frame = top; frame != null; frame = frame.parent)
+            frames[-- size] = frame;
+
+        return new ParserCallStack(frames);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ParserCallStack (ParserCallFrame[] frames) {
+        super(frames);
     }
 
     // ---------------------------------------------------------------------------------------------
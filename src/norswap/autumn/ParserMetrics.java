@@ -6,7 +6,7 @@ import java.time.Duration;
  * A set of performance metrics linked to a parser, produced in tracing mode ({@link
  * ParseOptions#trace}).
  *
- * <p>Multiple {@link ParserMetrics} are aggregated within a single {@link ParseMetrics}.
+ * <p>Instances are snapshots, obtained from {@link ParseMetrics#metrics()}.
  *
  * <p>Field are public for convenience but should not be written.
  */
@@ -14,6 +14,13 @@ public final class ParserMetrics
 {
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Number of distinct positions tracked for {@link #recent_reinvocations}.
+     */
+    public static final int RECENT = 32;
+
+    // ---------------------------------------------------------------------------------------------
+
     public final Parser parser;
 
     // ---------------------------------------------------------------------------------------------
@@ -38,22 +45,57 @@ public final class ParserMetrics
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Running counter of the number of in-progress invocations (so the parser is recursing
-     * when > 1).
+     * Total number of invocations of the parser.
      */
-    int recursive_invocations = 0;
+    public int invocations = 0;
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Total number of invocations of the parser.
+     * Number of invocations of the parser at an input position where it had already been invoked
+     * during the same parse. These are the invocations that memoizing the parser would save.
      */
-    public int invocations = 0;
+    public int reinvocations = 0;
 
     // ---------------------------------------------------------------------------------------------
 
-    public ParserMetrics (Parser parser) {
+    /**
+     * Cumulative "total" execution time of the {@link #reinvocations} of the parser, i.e. the time
+     * that memoizing the parser would save.
+     *
+     * <p>Unlike for {@link #total_time}, recursive invocations are counted, unless they are nested
+     * within another re-invocation of the parser (which already includes their time).
+     */
+    public long reinvocation_time = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * {@code recent_reinvocations[d]} is the number of {@link #reinvocations} at the position of
+     * the {@code d}-th most recent distinct position where the parser was invoked (0 being the
+     * most recent), for {@code d < RECENT}.
+     *
+     * <p>Hence, the sum of the {@code n} first items is the number of re-invocations that a
+     * {@link norswap.autumn.memo.MemoCache} with {@code n} slots would catch.
+     */
+    public final int[] recent_reinvocations = new int[RECENT];
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reads the metrics of {@code parser} from {@code data}, starting at {@code offset} (see {@link
+     * ParseMetrics}).
+     */
+    ParserMetrics (Parser parser, long[] data, int offset)
+    {
         this.parser = parser;
+        self_time     = data[offset + ParseMetrics.SELF_TIME];
+        total_time    = data[offset + ParseMetrics.TOTAL_TIME];
+        invocations   = (int) data[offset + ParseMetrics.INVOCATIONS];
+        reinvocations = (int) data[offset + ParseMetrics.REINVOCATIONS];
+        reinvocation_time = data[offset + ParseMetrics.REINVOCATION_TIME];
+        for (int i = 0; i < RECENT; ++i)
+            recent_reinvocations[i] = (int) data[offset + ParseMetrics.RECENT + i];
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -64,6 +106,7 @@ public final class ParserMetrics
             ", self: "  + Duration.ofNanos(self_time) +
             ", total: " + Duration.ofNanos(total_time) +
             ", invocs:" + String.format("%,d", invocations) +
+            ", reinvocs:" + String.format("%,d", reinvocations) +
             '}';
     }
 
@@ -110,6 +110,7 @@ public interface ParserVisitor
     void visit (Empty parser);
     void visit (Fail parser);
     void visit (GuardedRecursion parser);
+    void visit (KeywordSet parser);
     void visit (LazyParser parser);
     void visit (LeftExpression parser);
     void visit (LeftFold parser);
@@ -120,6 +121,7 @@ public interface ParserVisitor
     void visit (Not parser);
     void visit (ObjectPredicate parser);
     void visit (Optional parser);
+    void visit (PrecedenceExpression parser);
     void visit (Repeat parser);
     void visit (RightExpression parser);
     void visit (RightFold parser);
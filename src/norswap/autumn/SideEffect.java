@@ -6,23 +6,27 @@ package norswap.autumn;
  *
  * <p>In general, you should never call side-effects yourself (just pass them to {@link Log}).
  *
- * <p>The functional method is {@link #__apply()}, but {@link Log} will call {@link #apply()}, in
- * order to store both the side-effect and its undo function. Storing the side-effect is notably
- * needed for {@link Log#delta(int)}.
+ * <p>The functional method is {@link #__apply()}. {@link Log} stores both the side-effect and the
+ * undo function it returns. Storing the side-effect is notably needed for {@link Log#delta(int)}.
  *
  * <p>The reason why a side effect must return an undo function upon application (instead of the
  * undo function being supplied once and for all) is that a specific application of the side effect
  * may need to save some data for the undo function to access. Typically this will be achieved
- * through lambda capture. For instance, {@link SideEffectingArrayStack#pop()} uses:
+ * through lambda capture. For instance, popping from a stack could be implemented as:
  *
  * <pre>
  * {@code
  * log.apply(() -> {
- *     Object x = super.pop();
- *     return () -> super.push(x);
+ *     Object x = stack.pop();
+ *     return () -> stack.push(x);
  * });
  * }
  * </pre>
+ *
+ * <p>The most common side effects do not need to go through this interface: {@link Log} has
+ * dedicated (allocation-free) entries for the operations of {@link SideEffectingArrayStack}, map
+ * updates ({@link Log#put}) and slot updates ({@link Log#set}). Side effects remain the way to
+ * perform any other kind of state change.
  */
 @FunctionalInterface
 public interface SideEffect
@@ -55,7 +59,7 @@ public interface SideEffect
         public final SideEffect effect;
         public final Runnable undo;
 
-        private Applied (SideEffect effect, Runnable undo) {
+        Applied (SideEffect effect, Runnable undo) {
             this.effect = effect;
             this.undo = undo;
         }
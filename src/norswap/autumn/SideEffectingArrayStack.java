@@ -1,7 +1,6 @@
 package norswap.autumn;
 
 import norswap.autumn.util.ArrayStack;
-import norswap.utils.Slot;
 import java.util.ArrayList;
 import java.util.function.IntFunction;
 
@@ -19,9 +18,10 @@ import java.util.function.IntFunction;
  * <p>The stack should only be mutated through these operations, or it won't be safe
  * to use during a parser!
  *
- * <p>A <i>side-effecting</i> operation is one where a {@link SideEffect.Applied} is pushed onto {@link
- * Parse#log} to represent a state mutation, enabling it to be undone in case of parser
- * backtracking.
+ * <p>A <i>side-effecting</i> operation is one where an entry is added to {@link Parse#log} to
+ * represent a state mutation, enabling it to be undone in case of parser backtracking. These
+ * operations have dedicated entries in the log, which do not require allocating a {@link
+ * SideEffect}.
  *
  * <p>Norswap's note: in the long run it would be good if we overrode every single mutating method
  * of {@link ArrayStack} and {@link ArrayList} and made them side-effecting. For now, it will have
@@ -44,12 +44,8 @@ public final class SideEffectingArrayStack extends ArrayStack<Object>
     /**
      * Side-effecting version of {@link ArrayStack#push(Object)}.
      */
-    @Override public void push (Object item)
-    {
-        log.apply(() -> {
-            super.push(item);
-            return super::pop;
-        });
+    @Override public void push (Object item) {
+        log.push(this, item);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -57,14 +53,8 @@ public final class SideEffectingArrayStack extends ArrayStack<Object>
     /**
      * Side-effecting version of {@link ArrayStack#pop()}.
      */
-    @Override public Object pop()
-    {
-        Object out = super.peek();
-        log.apply(() -> {
-            Object x = super.pop();
-            return () -> super.push(x);
-        });
-        return out;
+    @Override public Object pop() {
+        return log.pop(this);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -72,15 +62,8 @@ public final class SideEffectingArrayStack extends ArrayStack<Object>
     /**
      * Side-effecting version of {@link ArrayStack#pop(int, IntFunction)}.
      */
-    public Object[] pop (int amount)
-    {
-        Slot<Object[]> slot = new Slot<>();
-        log.apply(() -> {
-            Object[] x = super.pop(amount, Object[]::new);
-            slot.x = x; // useless after first application
-            return () -> super.push(x);
-        });
-        return slot.x;
+    public Object[] pop (int amount) {
+        return log.pop(this, amount);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -97,4 +80,24 @@ public final class SideEffectingArrayStack extends ArrayStack<Object>
     }
 
     // ---------------------------------------------------------------------------------------------
+
+    // Non-side-effecting operations, used by the log to apply and undo the side effects.
+
+    void raw_push (Object item) {
+        super.push(item);
+    }
+
+    void raw_push (Object[] items) {
+        super.push(items);
+    }
+
+    Object raw_pop() {
+        return super.pop();
+    }
+
+    Object[] raw_pop (int amount) {
+        return super.pop(amount, Object[]::new);
+    }
+
+    // ---------------------------------------------------------------------------------------------
 }
@@ -76,7 +76,7 @@ public interface StackAction
     /**
      * An action that is supplied with the {@link Parse} object as well as an array of items that
      * have been pushed on the value stack ({@link Parse#stack}), and part of the {@link
-     * Parse#string} input.
+     * Parse#text} input.
      *
      * <p>Typically the items are those pushed by the sub-parser(s) of the action's consumer, and
      * the string is the input it matched.
@@ -86,13 +86,14 @@ public interface StackAction
     {
         @Override default void apply (Parse parse, Object[] items, int pos0, int size0)
         {
-            assert parse.string != null;
-            apply(parse, items, items != null ? parse.string.substring(pos0, parse.pos) : null);
+            assert parse.text != null || parse.tokens != null;
+            apply(parse, items, items != null ? parse.substring(pos0, parse.pos) : null);
         }
 
         /**
          * @param items collected items from the stack, or null if the child parser failed.
-         * @param match part of {@link Parse#string} matched by the child parser.
+         * @param match part of {@link Parse#text} matched by the child parser (see {@link
+         * Parse#substring(int, int)}).
          */
         void apply (Parse parse, Object[] items, String match);
     }
@@ -168,7 +169,7 @@ public interface StackAction
     /**
      * An action that is supplied with the {@link Parse} object as well as an array of items that
      * have been pushed on the value stack ({@link Parse#stack}), and part of the {@link
-     * Parse#string} input. This action must return a value which is automatically pushed on the
+     * Parse#text} input. This action must return a value which is automatically pushed on the
      * value stack.
      *
      * <p>Typically the items are those pushed by the sub-parser(s) of the action's consumer, and
@@ -179,7 +180,7 @@ public interface StackAction
     {
         @Override default void apply (Parse parse, Object[] items, int pos0, int size0)
         {
-            String match = items != null ? parse.string.substring(pos0, parse.pos) : null;
+            String match = items != null ? parse.substring(pos0, parse.pos) : null;
             parse.stack.push(get(parse, items, match));
         }
 
@@ -0,0 +1,310 @@
+package norswap.autumn;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A low-overhead alternative to tracing ({@link ParseOptions#trace}): when passed to {@link
+ * ParseOptions#sampler}, the stack of grammar rules being invoked is periodically sampled, and the
+ * samples are aggregated across parses.
+ *
+ * <p>Only parsers that are grammar rules (i.e. have a non-null {@link Parser#rule()}) appear in
+ * the sampled stacks. An invocation of an unnamed parser is attributed to the closest enclosing
+ * rule.
+ *
+ * <p>Samples are taken either every {@code n} rule invocations ({@link #every(int)}), or when a
+ * timer fires ({@link #timed(Duration)}). The former is deterministic, while the latter is a
+ * better approximation of where the time is spent.
+ *
+ * <p>Parser invocations only read a counter of the samples taken on entry, and compare it on exit
+ * (as well as decrement a countdown on entry, when sampling every {@code n} invocations). The
+ * stack of rules being invoked is not maintained: the stack of each sample is reconstructed as
+ * the rule invocations that were in progress when it was taken complete. Hence, a sample costs
+ * about as much as a few rule invocations for each rule in its stack.
+ *
+ * <p>The samples are output by {@link #folded()} in the "folded stacks" format expected by flame
+ * graph tools (e.g. Brendan Gregg's {@code flamegraph.pl} or speedscope).
+ *
+ * <p>In sampling mode, the code generated by {@link norswap.autumn.compiler.ParserCompiler} is not
+ * used, so the relevant baseline to measure the overhead is a parse with the interpreted grammar.
+ *
+ * <p>Instances are thread-safe and can be shared between concurrent parses: each parse aggregates
+ * its samples on its own, and merges them into the sampler when it completes.
+ */
+public final class StackSampler implements AutoCloseable
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of rule invocations between samples, or 0 if samples are taken when the timer fires.
+     */
+    public final int period;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** The timer that takes the samples, or null. */
+    private final ScheduledExecutorService timer;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** The sessions of the parses in progress, if samples are taken by the timer. */
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maps folded stacks to the number of times they were sampled. */
+    private final HashMap<String, long[]> samples = new HashMap<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private StackSampler (int period, ScheduledExecutorService timer)
+    {
+        this.period = period;
+        this.timer = timer;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a sampler that samples the rule stack every {@code invocations} rule invocations.
+     */
+    public static StackSampler every (int invocations)
+    {
+        if (invocations <= 0)
+            throw new IllegalArgumentException("invocations must be positive: " + invocations);
+        return new StackSampler(invocations, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a sampler that samples the rule stack of each parse in progress after each {@code
+     * interval}. The sampler owns a daemon timer thread, which is stopped by {@link #close()}.
+     */
+    public static StackSampler timed (Duration interval)
+    {
+        long nanos = interval.toNanos();
+        if (nanos <= 0)
+            throw new IllegalArgumentException("interval must be positive: " + interval);
+
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "autumn-stack-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        StackSampler sampler = new StackSampler(0, timer);
+        timer.scheduleAtFixedRate(sampler::tick, nanos, nanos, TimeUnit.NANOSECONDS);
+        return sampler;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Takes a sample in each parse in progress. Only called from the timer thread, which is then
+     * the only thread that writes {@link Parse#sample_ticks}.
+     */
+    private void tick()
+    {
+        for (Session session: sessions)
+            ++ session.parse.sample_ticks;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the samples taken during a parse to this sampler.
+     */
+    synchronized void merge (Map<String, long[]> parse_samples)
+    {
+        parse_samples.forEach((stack, count) ->
+            samples.computeIfAbsent(stack, k -> new long[1])[0] += count[0]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a map from folded stacks (rule names separated by semicolons, outermost first) to
+     * the number of times they were sampled, sorted by stack.
+     */
+    public synchronized Map<String, Long> samples()
+    {
+        TreeMap<String, Long> map = new TreeMap<>();
+        samples.forEach((stack, count) -> map.put(stack, count[0]));
+        return map;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the samples in the "folded stacks" format: one line per distinct stack, made of the
+     * rule names separated by semicolons (outermost first), a space, and the sample count.
+     */
+    public String folded()
+    {
+        StringBuilder b = new StringBuilder();
+        samples().forEach((stack, count) ->
+            b.append(stack).append(' ').append(count).append('\n'));
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Discards all samples collected so far.
+     */
+    public synchronized void reset() {
+        samples.clear();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stops the timer thread, if any. Samples can still be read afterwards.
+     */
+    @Override public void close()
+    {
+        if (timer != null)
+            timer.shutdownNow();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The per-parse sampling state: the samples whose stacks are being reconstructed, and the
+     * samples taken during the parse.
+     *
+     * <p>Samples are numbered by {@link Parse#sample_ticks}, which each parser invocation reads
+     * when it starts and completes: if they differ, the invocation was in progress when the samples
+     * in between were taken, and if the parser is a rule, it records a {@link Frame} to that
+     * effect ({@link #exit}). The frames of the invocations it made are the children of this frame.
+     */
+    static final class Session
+    {
+        final StackSampler sampler;
+        private final Parse parse;
+
+        /**
+         * Frames of the completed rule invocations whose parent invocation is still in progress,
+         * in completion order.
+         */
+        private Frame[] pending = new Frame[16];
+
+        /** Number of elements of {@link #pending}. */
+        private int size = 0;
+
+        final HashMap<String, long[]> samples = new HashMap<>();
+
+        Session (StackSampler sampler, Parse parse) {
+            this.sampler = sampler;
+            this.parse = parse;
+            parse.sample_countdown = sampler.period;
+        }
+
+        /**
+         * Called when the parse starts.
+         */
+        void start()
+        {
+            if (sampler.period == 0)
+                sampler.sessions.add(this);
+        }
+
+        /**
+         * Takes a sample, when sampling every n invocations.
+         */
+        void sample()
+        {
+            parse.sample_countdown = sampler.period;
+            ++ parse.sample_ticks;
+        }
+
+        /**
+         * Called when an invocation of rule {@code parser} completes, if samples were taken since
+         * it started, when {@link Parse#sample_ticks} was {@code ticks0}: records a frame for the
+         * invocation, whose children are the frames of the invocations it made.
+         */
+        void exit (Parser parser, int ticks0)
+        {
+            Frame child = null;
+            while (size > 0 && pending[size - 1].from >= ticks0) {
+                Frame frame = pending[--size];
+                pending[size] = null;
+                frame.next = child;
+                child = frame;
+            }
+
+            if (size == pending.length)
+                pending = Arrays.copyOf(pending, size * 2);
+            pending[size++] = new Frame(parser.rule(), ticks0, parse.sample_ticks, child);
+        }
+
+        /**
+         * Called when the parse completes: folds the stacks of the samples taken during the parse
+         * into {@link #samples}.
+         */
+        void finish()
+        {
+            sampler.sessions.remove(this);
+            StringBuilder stack = new StringBuilder();
+            for (int i = 0; i < size; ++i)
+                fold(pending[i], stack);
+            Arrays.fill(pending, 0, size, null);
+            size = 0;
+        }
+
+        private void fold (Frame frame, StringBuilder stack)
+        {
+            int length = stack.length();
+            if (length > 0) stack.append(';');
+            stack.append(frame.rule);
+
+            long self = frame.to - frame.from;
+            for (Frame child = frame.child; child != null; child = child.next) {
+                self -= child.to - child.from;
+                fold(child, stack);
+            }
+
+            if (self > 0)
+                samples.computeIfAbsent(stack.toString(), k -> new long[1])[0] += self;
+
+            stack.setLength(length);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A completed rule invocation during which samples {@code from + 1} to {@code to} (inclusive)
+     * were taken.
+     */
+    static final class Frame
+    {
+        final String rule;
+        final int from;
+        final int to;
+
+        /** First of the frames of the invocations made by this one, in completion order. */
+        final Frame child;
+
+        /** Next frame with the same parent. */
+        Frame next;
+
+        Frame (String rule, int from, int to, Frame child) {
+            this.rule = rule;
+            this.from = from;
+            this.to = to;
+            this.child = child;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
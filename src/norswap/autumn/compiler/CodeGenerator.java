@@ -0,0 +1,466 @@
+package norswap.autumn.compiler;
+
+import norswap.autumn.Parser;
+import norswap.autumn.ParserVisitor;
+import norswap.autumn.ParserWalker;
+import norswap.autumn.parsers.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Generates the source of a class implementing the parsers reachable from a root parser, for use
+ * by {@link ParserCompiler}.
+ *
+ * <p>The generated class has one method per <em>entry parser</em>, which implements {@link
+ * Parser#parse} for that parser. Entry parsers are the root, the parsers that have a rule name, the
+ * parsers that are reachable through multiple paths, and the parsers whose parent is not compiled
+ * (as they can only be reached through their {@link Parser#parse} method). All other compiled
+ * parsers are inlined in their parent's method.
+ *
+ * <p>Only {@link Sequence}, {@link Choice}, {@link Repeat}, {@link Optional}, {@link StringMatch},
+ * {@link CharPredicate}, {@link Empty} and {@link Fail} parsers are compiled, and only if they do
+ * not have {@link Parser#exclude_errors} set nor a memoizer ({@link Parser#memo()}). Other
+ * parsers are called through their {@link Parser#parse} method.
+ *
+ * <p>The generated class has a constructor taking {@link #parsers} and {@link #predicates} as
+ * arrays, and an {@code entries()} method returning an array of {@link CompiledParser} (indexed
+ * like {@link #parsers}), whose non-null items implement the entry parsers.
+ */
+final class CodeGenerator extends ParserWalker implements ParserVisitor
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Maximum number of parsers inlined in a single method. When exceeded, sub-parsers are given
+     * their own method, in order to keep methods small enough to be JIT-compiled.
+     */
+    private static final int INLINE_BUDGET = 48;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final HashSet<Class<?>> COMPILABLE = new HashSet<>(Arrays.asList(
+        Sequence.class, Choice.class, Repeat.class, Optional.class, StringMatch.class,
+        CharPredicate.class, Empty.class, Fail.class));
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** All parsers reachable from the root, the root being first. */
+    final List<Parser> parsers = new ArrayList<>();
+
+    /** Predicates of the compiled {@link CharPredicate} parsers. */
+    final List<IntPredicate> predicates = new ArrayList<>();
+
+    /** Index of each parser in {@link #parsers}. */
+    private final HashMap<Parser, Integer> ids = new HashMap<>();
+
+    /** Parsers that must be compiled to their own method. */
+    private final LinkedHashSet<Parser> entries = new LinkedHashSet<>();
+
+    /** Entry parsers whose method hasn't been generated yet. */
+    private final ArrayDeque<Parser> pending = new ArrayDeque<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final StringBuilder b = new StringBuilder();
+    private int indent = 0;
+    private int counter = 0;
+    private int budget;
+
+    /** Expression holding the result of the last parser emitted by a {@code visit} method. */
+    private String result;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the parser will be compiled.
+     */
+    static boolean compiled (Parser parser) {
+        return !parser.exclude_errors
+            && parser.memo() == null
+            && COMPILABLE.contains(parser.getClass());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override protected void work (Parser parser, State state)
+    {
+        switch (state)
+        {
+            case BEFORE:
+                ids.put(parser, parsers.size());
+                parsers.add(parser);
+                if (parsers.size() == 1 || parser.rule() != null)
+                    add_entry(parser);
+                if (!compiled(parser))
+                    for (Parser child: parser.children())
+                        add_entry(child);
+                // not returned by children()
+                if (parser instanceof StringMatch && ((StringMatch) parser).whitespace != null)
+                    walk(((StringMatch) parser).whitespace);
+                break;
+            case RECURSE:
+            case VISITED:
+                add_entry(parser);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void add_entry (Parser parser)
+    {
+        if (compiled(parser) && entries.add(parser))
+            pending.add(parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns whether the parser has its own method in the generated class.
+     */
+    boolean is_entry (Parser parser) {
+        return entries.contains(parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Generates the source for the parser graph reachable from {@code root}, as a class with the
+     * given package and simple name.
+     */
+    String generate (Parser root, String pkg, String name)
+    {
+        walk(root);
+
+        StringBuilder methods = new StringBuilder();
+        while (!pending.isEmpty()) {
+            method(pending.remove());
+            methods.append(b);
+            b.setLength(0);
+        }
+
+        indent = 0;
+        line("package " + pkg + ";");
+        line("");
+        line("import norswap.autumn.Parse;");
+        line("import norswap.autumn.Parser;");
+        line("import norswap.autumn.compiler.CompiledParser;");
+        line("import java.util.function.IntPredicate;");
+        line("");
+        line("public final class " + name);
+        line("{");
+        ++indent;
+        line("private final Parser[] refs;");
+        line("private final IntPredicate[] preds;");
+        line("");
+        line("public " + name + " (Parser[] refs, IntPredicate[] preds) {");
+        line("    this.refs = refs;");
+        line("    this.preds = preds;");
+        line("}");
+        line("");
+        line("public CompiledParser[] entries ()");
+        line("{");
+        line("    CompiledParser[] entries = new CompiledParser[" + parsers.size() + "];");
+        for (Parser entry: entries) {
+            int id = ids.get(entry);
+            line("    entries[" + id + "] = this::r" + id + ";");
+        }
+        line("    return entries;");
+        line("}");
+        b.append(methods);
+        --indent;
+        line("}");
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void method (Parser parser)
+    {
+        budget = INLINE_BUDGET;
+        indent = 1;
+        line("");
+        if (parser.rule() != null)
+            line("// " + parser.rule().replace('\n', ' ').replace('\r', ' '));
+        line("public boolean r" + ids.get(parser) + " (Parse parse)");
+        line("{");
+        ++indent;
+        parser.accept(this);
+        line("return " + result + ";");
+        --indent;
+        line("}");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the code to invoke {@code child} and returns an expression holding its result.
+     */
+    private String call (Parser child)
+    {
+        int id = ids.get(child);
+
+        if (!compiled(child))
+            return declare("refs[" + id + "].parse(parse)");
+
+        if (!is_entry(child) && --budget < 0)
+            add_entry(child);
+
+        if (is_entry(child))
+            return declare("r" + id + "(parse)");
+
+        child.accept(this);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String declare (String expression)
+    {
+        String var = "r" + (++counter) + "_";
+        line("boolean " + var + " = " + expression + ";");
+        return var;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void line (String line)
+    {
+        for (int i = 0; i < indent && !line.isEmpty(); ++i)
+            b.append("    ");
+        b.append(line).append("\n");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Opens the bookkeeping block for a parser that may fail after consuming input or registering
+     * side effects, mirroring {@link Parser#parse}. Returns the suffix for the block's variables.
+     * Within the block, {@code break b<suffix>} signals failure.
+     */
+    private String open()
+    {
+        String n = (++counter) + "_";
+        line("boolean r" + n + " = false;");
+        line("{");
+        ++indent;
+        line("int p" + n + " = parse.pos;");
+        line("int l" + n + " = parse.log.size();");
+        line("String m" + n + " = parse.error_message();");
+        line("b" + n + ": {");
+        ++indent;
+        return n;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Closes the block opened by {@link #open()}, marking it as successful if control reaches the
+     * end of the block and {@code success} is true.
+     */
+    private void close (String n, boolean success)
+    {
+        if (success)
+            line("r" + n + " = true;");
+        --indent;
+        line("}");
+        line("if (!r" + n + ") {");
+        line("    if (parse.error <= p" + n + ") {");
+        line("        parse.error = p" + n + ";");
+        line("        if (parse.error_message() == m" + n + " && m" + n + " != null)");
+        line("            parse.set_error_message(null);");
+        line("    }");
+        line("    parse.pos = p" + n + ";");
+        line("    parse.log.rollback(l" + n + ");");
+        line("}");
+        --indent;
+        line("}");
+        result = "r" + n;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the error bookkeeping for a parser that failed at the current position without
+     * side effects.
+     */
+    private void leaf_failure (String prefix)
+    {
+        line(prefix + "if (parse.error <= parse.pos) {");
+        line("    parse.error = parse.pos;");
+        line("    if (parse.error_message() != null)");
+        line("        parse.set_error_message(null);");
+        line("}");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a Java string literal for {@code string}.
+     */
+    static String literal (String string)
+    {
+        StringBuilder b = new StringBuilder("\"");
+        for (char c: string.toCharArray())
+        {
+            if (c == '"' || c == '\\')
+                b.append('\\').append(c);
+            else if (c < 0x20 || 0x7F <= c && c <= 0xFF)
+                b.append(String.format("\\%03o", (int) c));
+            else if (c > 0xFF)
+                b.append(String.format("\\u%04x", (int) c));
+            else
+                b.append(c);
+        }
+        return b.append('"').toString();
+    }
+
+    // =============================================================================================
+
+    @Override public void visit (Sequence parser)
+    {
+        String n = open();
+        for (Parser child: parser.children())
+            line("if (!" + call(child) + ") break b" + n + ";");
+        close(n, true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (Choice parser)
+    {
+        String n = open();
+        for (Parser child: parser.children())
+            line("if (" + call(child) + ") { r" + n + " = true; break b" + n + "; }");
+        close(n, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (Repeat parser)
+    {
+        if (parser.min == 0)
+        {
+            if (!parser.exact) {
+                line("while (true) {");
+                ++indent;
+                line("if (!" + call(parser.child) + ") break;");
+                --indent;
+                line("}");
+            }
+            result = "true";
+            return;
+        }
+
+        String n = open();
+        line("for (int i" + n + " = 0; " + (parser.exact ? "i" + n + " < " + parser.min : "")
+            + "; ++i" + n + ") {");
+        ++indent;
+        String r = call(parser.child);
+        if (parser.exact)
+            line("if (!" + r + ") break b" + n + ";");
+        else
+            line("if (!" + r + ") { "
+                + "if (i" + n + " < " + parser.min + ") break b" + n + "; break; }");
+        --indent;
+        line("}");
+        close(n, true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (Optional parser)
+    {
+        call(parser.child);
+        result = "true";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (StringMatch parser)
+    {
+        String str = literal(parser.string);
+        int len = parser.string.length();
+
+        if (parser.whitespace == null) {
+            String r = declare("parse.match(parse.pos, " + str + ")");
+            line("if (" + r + ") parse.pos += " + len + ";");
+            leaf_failure("else ");
+            result = r;
+            return;
+        }
+
+        String n = open();
+        line("if (!parse.match(parse.pos, " + str + ")) break b" + n + ";");
+        line("parse.pos += " + len + ";");
+        line("if (!" + call(parser.whitespace) + ") break b" + n + ";");
+        close(n, true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (CharPredicate parser)
+    {
+        int k = predicates.size();
+        predicates.add(parser.predicate);
+        String r = declare("preds[" + k + "].test(parse.char_at(parse.pos))");
+        line("if (" + r + ") ++parse.pos;");
+        leaf_failure("else ");
+        result = r;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (Empty parser) {
+        result = "true";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (Fail parser) {
+        leaf_failure("");
+        result = "false";
+    }
+
+    // =============================================================================================
+
+    // Parsers that are not compiled are invoked through their parse method.
+
+    @Override public void default_action (Parser parser) {
+        result = declare("refs[" + ids.get(parser) + "].parse(parse)");
+    }
+
+    @Override public void visit (AbstractChoice parser)    { default_action(parser); }
+    @Override public void visit (AbstractForwarding parser){ default_action(parser); }
+    @Override public void visit (AbstractPrimitive parser) { default_action(parser); }
+    @Override public void visit (AbstractWrapper parser)   { default_action(parser); }
+    @Override public void visit (Around parser)            { default_action(parser); }
+    @Override public void visit (Collect parser)           { default_action(parser); }
+    @Override public void visit (ContextPredicate parser)  { default_action(parser); }
+    @Override public void visit (GuardedRecursion parser)  { default_action(parser); }
+    @Override public void visit (KeywordSet parser)        { default_action(parser); }
+    @Override public void visit (LazyParser parser)        { default_action(parser); }
+    @Override public void visit (LeftExpression parser)    { default_action(parser); }
+    @Override public void visit (LeftFold parser)          { default_action(parser); }
+    @Override public void visit (LeftRecursive parser)     { default_action(parser); }
+    @Override public void visit (Longest parser)           { default_action(parser); }
+    @Override public void visit (Lookahead parser)         { default_action(parser); }
+    @Override public void visit (Memo parser)              { default_action(parser); }
+    @Override public void visit (Not parser)               { default_action(parser); }
+    @Override public void visit (ObjectPredicate parser)   { default_action(parser); }
+    @Override public void visit (PrecedenceExpression parser) { default_action(parser); }
+    @Override public void visit (RightExpression parser)   { default_action(parser); }
+    @Override public void visit (RightFold parser)         { default_action(parser); }
+    @Override public void visit (TokenChoice parser)       { default_action(parser); }
+    @Override public void visit (TokenParser parser)       { default_action(parser); }
+
+    // ---------------------------------------------------------------------------------------------
+}
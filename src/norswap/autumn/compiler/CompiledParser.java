@@ -0,0 +1,23 @@
+package norswap.autumn.compiler;
+
+import norswap.autumn.Parse;
+import norswap.autumn.Parser;
+
+/**
+ * Compiled code implementing {@link Parser#parse(Parse)} for a given parser, as generated by
+ * {@link ParserCompiler} and installed with {@link Parser#set_compiled(CompiledParser)}.
+ *
+ * <p>Unlike {@link Parser#doparse}, the implementation is responsible for all the bookkeeping
+ * performed by {@link Parser#parse(Parse)}: restoring the position and the log on failure, and
+ * updating the furthest error.
+ */
+@FunctionalInterface
+public interface CompiledParser
+{
+    /**
+     * Same contract as {@link Parser#parse(Parse)}, but only called when neither {@link
+     * norswap.autumn.ParseOptions#trace} nor {@link norswap.autumn.ParseOptions#record_call_stack}
+     * are set.
+     */
+    boolean parse (Parse parse);
+}
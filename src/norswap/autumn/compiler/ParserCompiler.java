@@ -0,0 +1,224 @@
+package norswap.autumn.compiler;
+
+import norswap.autumn.Parse;
+import norswap.autumn.Parser;
+import norswap.autumn.ParserWalker;
+import norswap.autumn.parsers.StringMatch;
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
+/**
+ * Compiles a parser graph to JVM bytecode, in order to avoid the overhead of the interpreted
+ * {@link Parser#parse(Parse)} path: virtual calls to {@link Parser#doparse}, and the bookkeeping
+ * that wraps them.
+ *
+ * <p>{@link #compile(Parser)} generates the Java source of a class whose methods implement the
+ * parsers reachable from the given root, compiles it in memory using the system Java compiler
+ * ({@link ToolProvider#getSystemJavaCompiler()}), and installs the resulting code on the
+ * parsers (see {@link Parser#set_compiled(CompiledParser)}). There is nothing else to do: parsing
+ * with the root parser (or any other parser in the graph) then uses the compiled code.
+ *
+ * <p>The sequencing, choice, repetition, optional and literal parsers ({@link
+ * norswap.autumn.parsers.Sequence}, {@link norswap.autumn.parsers.Choice}, {@link
+ * norswap.autumn.parsers.Repeat}, {@link norswap.autumn.parsers.Optional}, {@link
+ * norswap.autumn.parsers.StringMatch}, {@link norswap.autumn.parsers.CharPredicate}) are compiled,
+ * and inlined within the method of the closest rule. All other parsers (including custom parsers)
+ * are invoked through their regular {@link Parser#parse(Parse)} method, and the compiled parsers
+ * they invoke switch back to the compiled code.
+ *
+ * <p>The compiled code has exactly the same semantics as the interpreted code (same matches, same
+ * side effects, same errors). When {@link norswap.autumn.ParseOptions#trace} or {@link
+ * norswap.autumn.ParseOptions#record_call_stack} is set, the compiled code is not used.
+ *
+ * <p>The parser graph must not be modified after it is compiled. In particular, {@link
+ * Parser#exclude_errors} must not change.
+ *
+ * <p>If no Java compiler is available (e.g. when running on a JRE), {@link #compile(Parser)}
+ * returns false and the parsers keep using the interpreted code.
+ */
+public final class ParserCompiler
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private ParserCompiler () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Package of the generated classes. */
+    private static final String PACKAGE = "norswap.autumn.compiler.generated";
+
+    /** Used to give a unique name to each generated class. */
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles the parser graph reachable from {@code root} and installs the compiled code on its
+     * parsers. Returns true if successful, or false if no Java compiler is available.
+     *
+     * <p>Throws an {@link Error} if the generated code fails to compile, which indicates a bug.
+     */
+    public static boolean compile (Parser root)
+    {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) return false;
+
+        String name = "CompiledGrammar" + counter.incrementAndGet();
+        CodeGenerator generator = new CodeGenerator();
+        String source = generator.generate(root, PACKAGE, name);
+        Class<?> klass = load(javac, PACKAGE + "." + name, source);
+
+        Parser[] parsers = generator.parsers.toArray(new Parser[0]);
+        IntPredicate[] predicates = generator.predicates.toArray(new IntPredicate[0]);
+        CompiledParser[] entries;
+
+        try {
+            Object instance = klass
+                .getConstructor(Parser[].class, IntPredicate[].class)
+                .newInstance(parsers, predicates);
+            entries = (CompiledParser[]) klass.getMethod("entries").invoke(instance);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+
+        for (int i = 0; i < parsers.length; ++i)
+            if (entries[i] != null)
+                parsers[i].set_compiled(entries[i]);
+
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the Java source code that {@link #compile(Parser)} would compile for the parser graph
+     * reachable from {@code root}. Useful for debugging.
+     */
+    public static String source (Parser root) {
+        return new CodeGenerator().generate(root, PACKAGE, "CompiledGrammar");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Removes the compiled code from all the parsers reachable from {@code root}, reverting them to
+     * the interpreted code.
+     */
+    public static void decompile (Parser root)
+    {
+        new ParserWalker() {
+            @Override protected void work (Parser parser, State state) {
+                if (state != State.BEFORE) return;
+                parser.set_compiled(null);
+                // not returned by children()
+                if (parser instanceof StringMatch && ((StringMatch) parser).whitespace != null)
+                    walk(((StringMatch) parser).whitespace);
+            }
+        }
+        .walk(root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles the given source in memory and loads the class with the given fully qualified
+     * name from the result.
+     */
+    private static Class<?> load (JavaCompiler javac, String class_name, String source)
+    {
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager std = javac.getStandardFileManager(
+            diagnostics, null, StandardCharsets.UTF_8);
+        HashMap<String, ByteArrayOutputStream> outputs = new HashMap<>();
+
+        JavaFileManager manager = new ForwardingJavaFileManager<StandardJavaFileManager>(std)
+        {
+            @Override public JavaFileObject getJavaFileForOutput (
+                Location location, String name, JavaFileObject.Kind kind, FileObject sibling)
+            {
+                return new SimpleJavaFileObject(uri(name, kind), kind) {
+                    @Override public OutputStream openOutputStream() {
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        outputs.put(name, out);
+                        return out;
+                    }
+                };
+            }
+        };
+
+        JavaFileObject file = new SimpleJavaFileObject(
+            uri(class_name, JavaFileObject.Kind.SOURCE), JavaFileObject.Kind.SOURCE)
+        {
+            @Override public CharSequence getCharContent (boolean ignore_encoding_errors) {
+                return source;
+            }
+        };
+
+        List<String> options = Arrays.asList("-classpath", classpath(), "-g:none", "-nowarn");
+
+        boolean success = javac.getTask(
+            null, manager, diagnostics, options, null, Collections.singletonList(file)).call();
+
+        if (!success)
+            throw new Error("could not compile the generated parser code: "
+                + diagnostics.getDiagnostics());
+
+        ClassLoader loader = new ClassLoader(Parser.class.getClassLoader())
+        {
+            @Override protected Class<?> findClass (String name) throws ClassNotFoundException
+            {
+                ByteArrayOutputStream out = outputs.get(name);
+                if (out == null) throw new ClassNotFoundException(name);
+                byte[] bytes = out.toByteArray();
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        };
+
+        try {
+            return loader.loadClass(class_name);
+        }
+        catch (ClassNotFoundException e) {
+            throw new Error(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static URI uri (String class_name, JavaFileObject.Kind kind) {
+        return URI.create("memory:///" + class_name.replace('.', '/') + kind.extension);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the classpath to compile the generated code against: the JVM classpath, and the
+     * location Autumn was loaded from (which may not be on it, e.g. in a plugin environment).
+     */
+    private static String classpath()
+    {
+        String classpath = System.getProperty("java.class.path", "");
+        try {
+            CodeSource source = Parser.class.getProtectionDomain().getCodeSource();
+            if (source != null)
+                classpath += File.pathSeparator + new File(source.getLocation().toURI()).getPath();
+        }
+        catch (Exception e) {
+            // ignore, hope the classpath is enough
+        }
+        return classpath;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
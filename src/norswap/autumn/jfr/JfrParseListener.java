@@ -0,0 +1,110 @@
+package norswap.autumn.jfr;
+
+import norswap.autumn.ParseListener;
+import norswap.autumn.ParseResult;
+import norswap.autumn.Parser;
+import norswap.autumn.ParserMetrics;
+import norswap.autumn.memo.MemoStats;
+import java.util.Comparator;
+
+/**
+ * A {@link ParseListener} that emits JDK Flight Recorder events: a {@code norswap.autumn.Parse}
+ * event for each parse, and if {@link #top_rules} is positive and the parse runs in tracing mode
+ * ({@link norswap.autumn.ParseOptions#trace}), a {@code norswap.autumn.Rule} event for each of the
+ * {@link #top_rules} rules with the highest self time. If the {@link
+ * norswap.autumn.ParseOptions#memo_stats} option is set, parse events also report the memoizer
+ * statistics aggregated over the whole parse.
+ *
+ * <p>Events are only created when enabled in a running recording, so the listener costs next to
+ * nothing otherwise. Note that if the {@link norswap.autumn.ParseMetrics} are shared between
+ * parses, the rule events report the cumulated metrics.
+ *
+ * <p>This requires the {@code jdk.jfr} module (Java 11+, or Java 8 from update 262).
+ */
+public final class JfrParseListener implements ParseListener
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of rules for which to emit events after a traced parse.
+     */
+    public final int top_rules;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public JfrParseListener (int top_rules) {
+        this.top_rules = top_rules;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a listener that emits no rule events.
+     */
+    public JfrParseListener() {
+        this(0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void parse_completed (ParseResult result, int input_length, long duration)
+    {
+        ParseEvent event = new ParseEvent();
+
+        if (event.isEnabled())
+        {
+            event.parser         = result.parser.toString();
+            event.parse_time     = duration;
+            event.input_length   = input_length;
+            event.success        = result.success;
+            event.full_match     = result.full_match;
+            event.match_size     = result.match_size;
+            event.error_position = result.error_position;
+            event.thrown         = result.thrown == null
+                ? null
+                : result.thrown.getClass().getName();
+
+            if (result.options.memo_stats) {
+                MemoStats stats = new MemoStats();
+                result.memo_stats().values().forEach(stats::add);
+                event.memo_gets      = stats.gets;
+                event.memo_hits      = stats.hits;
+                event.memo_evictions = stats.evictions;
+            }
+
+            event.commit();
+        }
+
+        if (top_rules > 0 && result.parse_metrics != null && new RuleEvent().isEnabled())
+            result.parse_metrics.metrics().values().stream()
+                .filter(m -> m.parser.rule() != null)
+                .sorted(Comparator.comparingLong((ParserMetrics m) -> m.self_time).reversed())
+                .limit(top_rules)
+                .forEach(m -> {
+                    RuleEvent rule = new RuleEvent();
+                    rule.parser        = m.parser.rule();
+                    rule.self_time     = m.self_time;
+                    rule.total_time    = m.total_time;
+                    rule.invocations   = m.invocations;
+                    rule.reinvocations = m.reinvocations;
+                    rule.commit();
+                });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void stack_overflow (Parser parser, int position, long duration)
+    {
+        ParseEvent event = new ParseEvent();
+        if (!event.isEnabled()) return;
+
+        event.parser         = parser.toString();
+        event.parse_time     = duration;
+        event.match_size     = -1;
+        event.error_position = position;
+        event.stack_overflow = true;
+        event.commit();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,64 @@
+package norswap.autumn.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder event emitted by {@link JfrParseListener} after each parse.
+ */
+@Name("norswap.autumn.Parse")
+@Label("Parse")
+@Category("Autumn")
+@Description("A parse run with Autumn.")
+@StackTrace(false)
+final class ParseEvent extends jdk.jfr.Event
+{
+    @Label("Parser")
+    @Description("The rule name or description of the root parser.")
+    String parser;
+
+    @Label("Parse Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long parse_time;
+
+    @Label("Input Length")
+    @Description("Length of the input, in characters (or list items).")
+    int input_length;
+
+    @Label("Success")
+    boolean success;
+
+    @Label("Full Match")
+    boolean full_match;
+
+    @Label("Match Size")
+    int match_size;
+
+    @Label("Error Position")
+    @Description("Position of the furthest error, or -1 for a full match.")
+    int error_position;
+
+    @Label("Exception")
+    @Description("Class of the exception thrown during the parse, if any.")
+    String thrown;
+
+    @Label("Stack Overflow")
+    @Description("Whether the parse aborted because of a stack overflow.")
+    boolean stack_overflow;
+
+    @Label("Memo Lookups")
+    @Description("Total lookups in the memoizers, if the memo_stats option is set (0 otherwise).")
+    long memo_gets;
+
+    @Label("Memo Hits")
+    @Description("Total memoizer lookups that found an entry, if the memo_stats option is set.")
+    long memo_hits;
+
+    @Label("Memo Evictions")
+    @Description("Total memoizer entries evicted to make room, if the memo_stats option is set.")
+    long memo_evictions;
+}
@@ -0,0 +1,38 @@
+package norswap.autumn.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder event emitted by {@link JfrParseListener} after a parse in tracing mode,
+ * for each of the rules with the highest self time.
+ */
+@Name("norswap.autumn.Rule")
+@Label("Parser Rule")
+@Category("Autumn")
+@Description("Metrics of a parser rule during a traced parse.")
+@StackTrace(false)
+final class RuleEvent extends jdk.jfr.Event
+{
+    @Label("Parser")
+    String parser;
+
+    @Label("Self Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long self_time;
+
+    @Label("Total Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long total_time;
+
+    @Label("Invocations")
+    int invocations;
+
+    @Label("Re-invocations")
+    @Description("Invocations at a position where the parser was already invoked.")
+    int reinvocations;
+}
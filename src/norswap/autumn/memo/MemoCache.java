@@ -25,6 +25,9 @@ public final class MemoCache implements Memoizer
 
     private int next = 0;
 
+    /** Usage statistics, or null if not collected. */
+    private MemoStats stats;
+
     // ---------------------------------------------------------------------------------------------
 
     /**
@@ -54,6 +57,11 @@ public final class MemoCache implements Memoizer
 
     @Override public void memoize (MemoEntry entry)
     {
+        if (stats != null) {
+            ++ stats.inserts;
+            if (entries[next] != null) ++ stats.evictions;
+        }
+
         // fills next slot (unoccupied or oldest added)
         hashes[next] = Memoizer.hash(match_parser, entry);
         entries[next] = entry;
@@ -71,16 +79,36 @@ public final class MemoCache implements Memoizer
         {
             int j = next - 1 - i;
             if (j < 0) j += num_slots;
-            if (hashes[j] == 0)
+            if (hashes[j] == 0) {
+                if (stats != null) stats.lookup(false, i + 1);
                 return null;
-            if (hashes[j] == hash && entries[j].matches(match_parser, parser, pos, ctx))
+            }
+            if (hashes[j] == hash && entries[j].matches(match_parser, parser, pos, ctx)) {
+                if (stats != null) stats.lookup(true, i + 1);
                 return entries[j];
+            }
         }
+        if (stats != null) stats.lookup(false, num_slots);
         return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    @Override public void enable_stats()
+    {
+        if (stats == null)
+            stats = new MemoStats();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public MemoStats stats()
+    {
+        return stats;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private String string (String sep, Function<MemoEntry, String> f)
     {
         MemoEntry[] entries = this.entries.clone();
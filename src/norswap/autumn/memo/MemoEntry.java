@@ -16,6 +16,10 @@ import java.util.Objects;
  *
  * <p>A failure to match is a valid entry, characterized by a -1 {@link #end_position} and an empty
  * {@link #delta}.
+ *
+ * <p>The {@link #extent} of the entry records how far the input was examined to produce the entry,
+ * which determines whether the entry is still valid after an edit (see {@link
+ * norswap.autumn.Edit#relocate(MemoEntry)}).
  */
 public final class MemoEntry
 {
@@ -30,6 +34,12 @@ public final class MemoEntry
     /** The end position of the match. */
     public final int end_position;
 
+    /**
+     * One past the furthest input position examined to produce the entry (at least {@link
+     * #end_position}), or {@link Integer#MAX_VALUE} if unknown.
+     */
+    public final int extent;
+
     /** List of side-effects generated by the match. */
     public final List<SideEffect> delta;
 
@@ -46,10 +56,24 @@ public final class MemoEntry
     public MemoEntry (
         boolean success, Parser parser, int start_position, int end_position,
         List<SideEffect> delta, Object ctx)
+    {
+        this(success, parser, start_position, end_position, Integer.MAX_VALUE, delta, ctx);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #MemoEntry(boolean, Parser, int, int, List, Object)}, but also specifies the
+     * {@link #extent} of the entry.
+     */
+    public MemoEntry (
+        boolean success, Parser parser, int start_position, int end_position, int extent,
+        List<SideEffect> delta, Object ctx)
     {
         this.parser = parser;
         this.start_position = start_position;
         this.end_position = success ? end_position : -1;
+        this.extent = Math.max(extent, this.end_position);
         this.delta = success ? delta : Collections.emptyList();
         this.ctx = ctx;
     }
@@ -61,7 +85,7 @@ public final class MemoEntry
      */
     public boolean succeeded()
     {
-        return end_position > 0;
+        return end_position >= 0;
     }
 
     // ---------------------------------------------------------------------------------------------
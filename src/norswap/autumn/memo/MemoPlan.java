@@ -0,0 +1,121 @@
+package norswap.autumn.memo;
+
+import norswap.autumn.ParseState;
+import norswap.autumn.Parser;
+import norswap.autumn.ParserWalker;
+import norswap.utils.Slot;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A memoization plan: a list of rules to memoize, each with either a {@link MemoTable} or a
+ * {@link MemoCache} of a given size.
+ *
+ * <p>Plans are usually produced by {@link MemoPlanner} from profiling data, and installed on a
+ * grammar with {@link #apply(Parser)}. They can be saved and reloaded in textual form ({@link
+ * #toString()} and {@link #parse(String)}), so that profiling need not happen at every run. The
+ * textual form has one line per rule, e.g.:
+ *
+ * <pre>
+ * expression: table
+ * identifier: cache(4)
+ * </pre>
+ */
+public final class MemoPlan
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Maps rule names to the number of slots of the {@link MemoCache} to use for the rule, or to 0
+     * if a {@link MemoTable} should be used.
+     */
+    public final Map<String, Integer> rules;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public MemoPlan (Map<String, Integer> rules)
+    {
+        rules.forEach((rule, slots) -> {
+            if (slots < 0)
+                throw new IllegalArgumentException(
+                    "negative number of slots for rule " + rule + ": " + slots);
+        });
+
+        this.rules = Collections.unmodifiableMap(new LinkedHashMap<>(rules));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses a plan from the format output by {@link #toString()}. Empty lines are ignored.
+     */
+    public static MemoPlan parse (String plan)
+    {
+        Map<String, Integer> rules = new LinkedHashMap<>();
+
+        for (String line: plan.split("\n"))
+        {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+
+            int colon = line.lastIndexOf(':');
+            if (colon < 0)
+                throw new IllegalArgumentException("invalid memo plan line: " + line);
+
+            String rule = line.substring(0, colon).trim();
+            String kind = line.substring(colon + 1).trim();
+
+            if (kind.equals("table"))
+                rules.put(rule, 0);
+            else if (kind.startsWith("cache(") && kind.endsWith(")"))
+                rules.put(rule, Integer.parseInt(kind.substring(6, kind.length() - 1)));
+            else
+                throw new IllegalArgumentException("invalid memo plan line: " + line);
+        }
+
+        return new MemoPlan(rules);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Installs the memoizers specified by this plan on the named parsers reachable from {@code
+     * root} (see {@link Parser#set_memo}). Parsers that already have a memoizer are left untouched,
+     * as are the rules of the plan that are not found in the grammar.
+     *
+     * <p>This must be done before parsing, and before compiling the grammar.
+     */
+    public void apply (Parser root)
+    {
+        new ParserWalker() {
+            @Override protected void work (Parser parser, State state)
+            {
+                if (state != State.BEFORE || parser.rule() == null || parser.memo() != null)
+                    return;
+
+                Integer slots = rules.get(parser.rule());
+                if (slots == null) return;
+
+                parser.set_memo(slots == 0
+                    ? new ParseState<>(new Slot<>(parser), () -> new MemoTable(false))
+                    : new ParseState<>(new Slot<>(parser), () -> new MemoCache(slots, false)));
+            }
+        }
+        .walk(root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        rules.forEach((rule, slots) -> b
+            .append(rule).append(": ")
+            .append(slots == 0 ? "table" : "cache(" + slots + ")")
+            .append("\n"));
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
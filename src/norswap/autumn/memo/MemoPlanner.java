@@ -0,0 +1,145 @@
+package norswap.autumn.memo;
+
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseMetrics;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.Parser;
+import norswap.autumn.ParserMetrics;
+import norswap.autumn.parsers.Memo;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Derives a {@link MemoPlan} from profiling data, i.e. selects which rules of a grammar are worth
+ * memoizing, and which kind of memoizer to use for each.
+ *
+ * <p>The input is a {@link ParseMetrics} collected in tracing mode ({@link ParseOptions#trace})
+ * over a representative sample of inputs — {@link #profile(Parser, Iterable)} does both steps.
+ * The time memoizing a rule would save is the time spent in its re-invocations at the same
+ * position ({@link ParserMetrics#reinvocation_time}). A rule is memoized if both its proportion of
+ * re-invocations ({@link ParserMetrics#reinvocations}) and these savings (relative to the total
+ * parse time) exceed the thresholds configured by the fields of this class.
+ *
+ * <p>A memoized rule gets the smallest {@link MemoCache} that would have caught {@link
+ * #cache_hit_ratio} of its re-invocations (according to {@link
+ * ParserMetrics#recent_reinvocations}), if it has at most {@link #MAX_CACHE_SLOTS} slots, and a
+ * {@link MemoTable} otherwise.
+ *
+ * <p>Only named parsers ({@link Parser#rule()}) are considered. {@link Memo} parsers and parsers
+ * that already have a memoizer are excluded.
+ */
+public final class MemoPlanner
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maximum number of slots of the {@link MemoCache}s in the generated plans. */
+    public static final int MAX_CACHE_SLOTS = 32;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Minimum proportion of the invocations of a rule that must be re-invocations for the rule to
+     * be memoized.
+     */
+    public double min_reinvocation_ratio = 0.05;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Minimum proportion of the total parse time that memoizing a rule must save (according to the
+     * profile) for the rule to be memoized.
+     */
+    public double min_time_share = 0.001;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Proportion of the re-invocations of a rule that a {@link MemoCache} must catch to be
+     * selected over a {@link MemoTable}.
+     */
+    public double cache_hit_ratio = 0.95;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses each input of {@code corpus} with {@code root} in tracing mode, and returns the plan
+     * derived from the collected metrics.
+     */
+    public MemoPlan profile (Parser root, Iterable<? extends CharSequence> corpus)
+    {
+        ParseMetrics metrics = new ParseMetrics();
+        ParseOptions options = ParseOptions.metrics(() -> metrics).get();
+
+        for (CharSequence input: corpus)
+            Autumn.parse(root, input, options);
+
+        return plan(metrics, root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the plan derived from {@code metrics}, which must have been collected by parsing
+     * with {@code root}. Rules appear in the plan by decreasing estimated savings.
+     */
+    public MemoPlan plan (ParseMetrics metrics, Parser root)
+    {
+        Map<Parser, ParserMetrics> all = metrics.metrics();
+        ParserMetrics root_metrics = all.get(root);
+        if (root_metrics == null)
+            throw new IllegalArgumentException("no metrics collected for the root parser");
+
+        double min_saved = min_time_share * root_metrics.total_time;
+        List<ParserMetrics> selected = new ArrayList<>();
+        Map<ParserMetrics, Double> savings = new LinkedHashMap<>();
+
+        for (ParserMetrics m: all.values())
+        {
+            Parser parser = m.parser;
+            if (parser.rule() == null || parser instanceof Memo || parser.memo() != null)
+                continue;
+            if (m.reinvocations == 0 || m.reinvocations < min_reinvocation_ratio * m.invocations)
+                continue;
+
+            double saved = m.reinvocation_time;
+            if (saved < min_saved) continue;
+
+            selected.add(m);
+            savings.put(m, saved);
+        }
+
+        selected.sort((a, b) -> Double.compare(savings.get(b), savings.get(a)));
+        Map<String, Integer> rules = new LinkedHashMap<>();
+
+        for (ParserMetrics m: selected)
+            rules.put(m.parser.rule(), cache_slots(m));
+
+        return new MemoPlan(rules);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of slots of the smallest cache that catches enough re-invocations (see
+     * {@link #cache_hit_ratio}), or 0 if a table should be used.
+     */
+    private int cache_slots (ParserMetrics m)
+    {
+        double target = cache_hit_ratio * m.reinvocations;
+
+        for (int slots = 1; slots <= MAX_CACHE_SLOTS; slots *= 2)
+        {
+            long caught = 0;
+            for (int i = 0; i < slots; ++i)
+                caught += m.recent_reinvocations[i];
+            if (caught >= target)
+                return slots;
+        }
+
+        return 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
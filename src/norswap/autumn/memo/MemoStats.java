@@ -0,0 +1,118 @@
+package norswap.autumn.memo;
+
+/**
+ * Usage statistics for a {@link Memoizer}, collected when the {@link
+ * norswap.autumn.ParseOptions#memo_stats} option is set (see {@link Memoizer#stats()}).
+ *
+ * <p>Use {@link #add(MemoStats)} to aggregate the statistics of multiple memoizers or parses.
+ *
+ * <p>Field are public for convenience but should not be written.
+ */
+public final class MemoStats
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of lookups. */
+    public long gets;
+
+    /** Number of lookups that found an entry. */
+    public long hits;
+
+    /** Number of lookups that did not find an entry. */
+    public long misses;
+
+    /** Number of entries inserted. */
+    public long inserts;
+
+    /** Number of entries discarded to make room for other entries. */
+    public long evictions;
+
+    /**
+     * Total number of slots examined by lookups. For hash tables, this is 1 per lookup if there are
+     * no collisions. For {@link MemoCache}, this is the number of slots examined from the most
+     * recent.
+     */
+    public long probes;
+
+    /**
+     * For hash tables, the maximum displacement of an entry from its ideal slot, which bounds the
+     * number of slots examined by a lookup. Aggregated with {@code max}.
+     */
+    public long max_displacement;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records a lookup that examined {@code probes} slots.
+     */
+    void lookup (boolean hit, int probes)
+    {
+        ++ gets;
+        if (hit) ++ hits; else ++ misses;
+        this.probes += probes;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the statistics of {@code other} to these statistics.
+     */
+    public void add (MemoStats other)
+    {
+        gets      += other.gets;
+        hits      += other.hits;
+        misses    += other.misses;
+        inserts   += other.inserts;
+        evictions += other.evictions;
+        probes    += other.probes;
+        max_displacement = Math.max(max_displacement, other.max_displacement);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the proportion of lookups that found an entry (0 if there were no lookups).
+     */
+    public double hit_ratio() {
+        return gets == 0 ? 0 : (double) hits / gets;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the average number of slots examined per lookup (0 if there were no lookups).
+     */
+    public double mean_probe_length() {
+        return gets == 0 ? 0 : (double) probes / gets;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a copy of these statistics.
+     */
+    public MemoStats copy()
+    {
+        MemoStats copy = new MemoStats();
+        copy.add(this);
+        return copy;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString()
+    {
+        return "MemoStats{" +
+            "gets: " + gets +
+            ", hits: " + hits +
+            ", misses: " + misses +
+            ", hit ratio: " + String.format("%.3f", hit_ratio()) +
+            ", inserts: " + inserts +
+            ", evictions: " + evictions +
+            ", mean probe length: " + String.format("%.2f", mean_probe_length()) +
+            ", max displacement: " + max_displacement +
+            '}';
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
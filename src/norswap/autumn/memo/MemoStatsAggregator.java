@@ -0,0 +1,72 @@
+package norswap.autumn.memo;
+
+import norswap.autumn.ParseListener;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link ParseListener} that aggregates the memoizer usage statistics ({@link
+ * ParseResult#memo_stats()}) of all the parses it is notified of, per parse state key.
+ *
+ * <p>Register it with both {@link ParseOptions#listener} and {@link ParseOptions#memo_stats}, e.g.
+ * {@code ParseOptions.memo_stats(true).listener(aggregator).get()}.
+ *
+ * <p>Instances are thread-safe and can be shared between concurrent parses.
+ */
+public final class MemoStatsAggregator implements ParseListener
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final HashMap<Object, MemoStats> stats = new HashMap<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void parse_completed (ParseResult result, int input_length, long duration)
+    {
+        Map<Object, MemoStats> parse_stats = result.memo_stats();
+        if (parse_stats.isEmpty()) return;
+
+        synchronized (this) {
+            parse_stats.forEach((key, s) ->
+                stats.computeIfAbsent(key, k -> new MemoStats()).add(s));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a snapshot of the aggregated statistics, keyed by parse state key ({@link
+     * norswap.autumn.ParseState#key}).
+     */
+    public synchronized Map<Object, MemoStats> stats()
+    {
+        HashMap<Object, MemoStats> map = new HashMap<>();
+        stats.forEach((key, s) -> map.put(key, s.copy()));
+        return map;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the sum of the aggregated statistics of all memoizers.
+     */
+    public synchronized MemoStats total()
+    {
+        MemoStats total = new MemoStats();
+        stats.values().forEach(total::add);
+        return total;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Discards all statistics aggregated so far.
+     */
+    public synchronized void reset() {
+        stats.clear();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -8,6 +8,7 @@ import norswap.utils.Strings;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 /**
  * A {@link Memoizer} implementation that memoizes every result it is passed.
@@ -18,6 +19,9 @@ import java.util.function.Function;
  *
  * <p>The second mode of operation is notably used by {@link Tokens} to memoize a single result
  * per input position (as there can only be one matching token).
+ *
+ * <p>This is the memoizer that supports {@link norswap.autumn.Autumn#reparse}: its valid entries
+ * are carried over to the new parse (see {@link #reuse}).
  */
 public final class MemoTable implements Memoizer
 {
@@ -44,6 +48,9 @@ public final class MemoTable implements Memoizer
     /** cf. {@link #hashes} */
     private MemoEntry[] entries = new MemoEntry[8];
 
+    /** Usage statistics, or null if not collected. */
+    private MemoStats stats;
+
     // ---------------------------------------------------------------------------------------------
 
     /**
@@ -60,6 +67,15 @@ public final class MemoTable implements Memoizer
 
     // ---------------------------------------------------------------------------------------------
 
+    private MemoTable (boolean match_parser, int capacity)
+    {
+        this.match_parser = match_parser;
+        this.hashes = new long[capacity];
+        this.entries = new MemoEntry[capacity];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Insert the given entry in the table, under the assumption that the table is large enough and
      * does not already contain the entry (if it does, it will be duplicated). Does not update
@@ -110,6 +126,8 @@ public final class MemoTable implements Memoizer
 
     @Override public void memoize (MemoEntry entry)
     {
+        if (stats != null) ++ stats.inserts;
+
         if (++occupied / (double) hashes.length > MAX_LOAD)
         {
             // rehash
@@ -139,11 +157,15 @@ public final class MemoTable implements Memoizer
         {
             int h = (int) hashes[i]; // stored hash
 
-            if (h == hash && entries[i].matches(match_parser, parser, pos, ctx))
+            if (h == hash && entries[i].matches(match_parser, parser, pos, ctx)) {
+                if (stats != null) stats.lookup(true, d + 1);
                 return entries[i];
+            }
 
-            if (h == 0 || d > max_displacement)
+            if (h == 0 || d > max_displacement) {
+                if (stats != null) stats.lookup(false, d + 1);
                 return null;
+            }
 
             if (++i == hashes.length) i = 0;
             ++d;
@@ -152,6 +174,37 @@ public final class MemoTable implements Memoizer
 
     // ---------------------------------------------------------------------------------------------
 
+    @Override public MemoTable reuse (UnaryOperator<MemoEntry> relocate)
+    {
+        // Same capacity: avoids clustering when inserting the entries in table order.
+        MemoTable table = new MemoTable(match_parser, hashes.length);
+        for (MemoEntry entry: entries) {
+            if (entry == null) continue;
+            MemoEntry relocated = relocate.apply(entry);
+            if (relocated != null) table.memoize(relocated);
+        }
+        return table;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void enable_stats()
+    {
+        if (stats == null)
+            stats = new MemoStats();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public MemoStats stats()
+    {
+        if (stats != null && max_displacement > stats.max_displacement)
+            stats.max_displacement = max_displacement;
+        return stats;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private String string (String sep, Function<MemoEntry, String> f)
     {
         MemoEntry[] entries = NArrays.packed(this.entries);
@@ -1,9 +1,11 @@
 package norswap.autumn.memo;
 
 import norswap.autumn.LineMap;
+import norswap.autumn.Parse;
 import norswap.autumn.Parser;
 import norswap.autumn.parsers.Memo;
 import java.util.Objects;
+import java.util.function.UnaryOperator;
 
 /**
  * An interface for classes that can memoize (or cache) parse results (in the guise of a {@link
@@ -16,11 +18,32 @@ import java.util.Objects;
  *
  * <p>The supplied {@link #hash(boolean, Parser, int, Object)} and {@link #hash(boolean, MemoEntry)}
  * methods help deriving hash codes for both of these scenarios.
+ *
+ * <p>Besides the entry-based {@link #memoize(MemoEntry)} and {@link #get} methods, parsers use
+ * {@link #memoize(Parse, boolean, Parser, int, int, Object)} and {@link #replay(Parse, Parser,
+ * Object, Parser[])}, which work directly off the parse state. Their default implementations
+ * delegate to the entry-based methods, but implementations that do not store {@link MemoEntry}
+ * objects (such as {@link PackedMemoTable}) can override them to avoid allocating entries.
  */
 public interface Memoizer
 {
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * The outcome of {@link #replay(Parse, Parser, Object, Parser[])}.
+     */
+    enum Replay
+    {
+        /** No matching entry was found. */
+        MISS,
+        /** A matching entry indicating a failure (or an unaccepted parser) was found. */
+        FAILURE,
+        /** A matching successful entry was found and applied to the parse. */
+        SUCCESS
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Returns a hash value for the given parser (if {@code match_parser} is true), position and
      * context (can be null).
@@ -72,6 +95,105 @@ public interface Memoizer
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Memoizes the result of an invocation of {@code parser} that started at input position {@code
+     * pos0}, when the log had size {@code log0}. The end position is the current position ({@link
+     * Parse#pos}), the extent is {@link Parse#examined}, and the side-effects are those applied
+     * since {@code log0} (if {@code success} is false, these are ignored).
+     *
+     * <p>Like {@link #memoize(MemoEntry)}, this assumes the memoizer doesn't contain a matching
+     * entry yet.
+     */
+    default void memoize (
+        Parse parse, boolean success, Parser parser, int pos0, int log0, Object ctx)
+    {
+        memoize(new MemoEntry(success, parser, pos0, parse.pos, parse.examined,
+            parse.log.delta(log0), ctx));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Looks up an entry for {@code parser} at the current input position ({@link Parse#pos}) with
+     * the given context (may be null), like {@link #get}.
+     *
+     * <p>If the entry is successful and {@code accepted} is either null or contains the parser of
+     * the entry (compared by identity), the entry is replayed: the input position is set to the
+     * end position of the entry, and its side-effects are applied; then {@link Replay#SUCCESS} is
+     * returned. Otherwise, returns {@link Replay#FAILURE} if an entry was found, or {@link
+     * Replay#MISS} if not. If an entry was found, its extent is recorded with {@link
+     * Parse#examine(int)}.
+     *
+     * <p>{@code accepted} is useful when the parser isn't taken into account to look up the
+     * entry, but the caller nevertheless expects a specific parser (e.g. {@link
+     * norswap.autumn.parsers.Tokens}).
+     */
+    default Replay replay (Parse parse, Parser parser, Object ctx, Parser[] accepted)
+    {
+        MemoEntry entry = get(parser, parse.pos, ctx);
+
+        if (entry == null)
+            return Replay.MISS;
+
+        parse.examine(entry.extent);
+
+        if (!entry.succeeded())
+            return Replay.FAILURE;
+
+        if (accepted != null)
+        {
+            boolean found = false;
+            for (Parser p: accepted)
+                if (p == entry.parser) {
+                    found = true;
+                    break;
+                }
+            if (!found) return Replay.FAILURE;
+        }
+
+        parse.pos = entry.end_position;
+        parse.log.apply(entry.delta);
+        return Replay.SUCCESS;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new memoizer of the same kind, holding the entries of this memoizer transformed by
+     * {@code relocate} (entries for which it returns null are dropped), or null if the memoizer
+     * does not support this operation (the default).
+     *
+     * <p>This is used by {@link norswap.autumn.Autumn#reparse} to carry the valid entries of a
+     * previous parse over to a new parse, relocated with {@link
+     * norswap.autumn.Edit#relocate(MemoEntry)}.
+     */
+    default Memoizer reuse (UnaryOperator<MemoEntry> relocate) {
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Makes the memoizer collect usage statistics from now on, which are then available through
+     * {@link #stats()}. Called on the memoizers held in parse states when the {@link
+     * norswap.autumn.ParseOptions#memo_stats} option is set.
+     *
+     * <p>Does nothing by default: custom memoizers need not support statistics.
+     */
+    default void enable_stats() {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the usage statistics collected by the memoizer, or null if they are not collected
+     * (see {@link #enable_stats()}).
+     */
+    default MemoStats stats() {
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Returns a textual representation of the content of the memoizer (on a single line),
      * converting the input positions using {@code map} (can be null, in which case plain offsets
@@ -0,0 +1,393 @@
+package norswap.autumn.memo;
+
+import norswap.autumn.Delta;
+import norswap.autumn.LineMap;
+import norswap.autumn.Parse;
+import norswap.autumn.Parser;
+import norswap.autumn.SideEffect;
+import norswap.utils.NArrays;
+import norswap.utils.Strings;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * A {@link Memoizer} implementation that memoizes every result it is passed, like {@link
+ * MemoTable}, but which stores its entries in parallel arrays instead of {@link MemoEntry}
+ * objects.
+ *
+ * <p>The start position, end position, extent, parser and context of the entries are stored in
+ * parallel arrays, indexed by the hash table slot. The side-effects of successful entries are
+ * copied to a single {@link Delta} (the arena) shared by all entries, and referenced by offset and
+ * size.
+ *
+ * <p>When used through {@link #memoize(Parse, boolean, Parser, int, int, Object)} and {@link
+ * #replay(Parse, Parser, Object, Parser[])} (as {@link norswap.autumn.parsers.Memo} and {@link
+ * norswap.autumn.parsers.Tokens} do), memoizing an entry does not allocate anything besides the
+ * occasional growth of the arrays — in particular, failures cost no allocation at all. The
+ * entry-based methods ({@link #memoize(MemoEntry)} and {@link #get}) are supported, but {@link
+ * #get} has to materialize a new {@link MemoEntry} at each call.
+ *
+ * <p>The table has two mode of operations depending on its {@link #match_parser} parameter, with
+ * the same semantics as in {@link MemoTable}.
+ */
+public final class PackedMemoTable implements Memoizer
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Max load factor for the table. */
+    private static final double MAX_LOAD = 0.8;
+
+    /** Max displacement from initial position in the table. */
+    private long max_displacement = 0;
+
+    /** Amount of table slots occupied. */
+    private int occupied = 0;
+
+    /**
+     * Hashmap storage for the hashes of the stored entries. The value at an index is either 0, or
+     * a long whose 32 high-order bits are a displacement, and whose 32 low-order bits is the
+     * hash (which must not be 0, so that hash[x] == 0 signifies an empty slot).
+     *
+     * <p>The components of the entries themselves are stored at the same index in {@link
+     * #starts}, {@link #ends}, {@link #extents}, {@link #parsers}, {@link #contexts}, {@link
+     * #delta_offsets} and {@link #delta_sizes}.
+     */
+    private long[] hashes = new long[8];
+
+    /** Start positions of the entries, cf. {@link #hashes}. */
+    private int[] starts = new int[8];
+
+    /** End positions of the entries (-1 for failures), cf. {@link #hashes}. */
+    private int[] ends = new int[8];
+
+    /** Extents of the entries (cf. {@link MemoEntry#extent}), cf. {@link #hashes}. */
+    private int[] extents = new int[8];
+
+    /** Parsers of the entries, cf. {@link #hashes}. */
+    private Parser[] parsers = new Parser[8];
+
+    /** Contexts of the entries, cf. {@link #hashes}. */
+    private Object[] contexts = new Object[8];
+
+    /** Offsets of the entries' side-effects in {@link #arena}, cf. {@link #hashes}. */
+    private int[] delta_offsets = new int[8];
+
+    /** Number of side-effects of the entries, cf. {@link #hashes}. */
+    private int[] delta_sizes = new int[8];
+
+    /** Storage for the side-effects of all entries. */
+    private final Delta arena = new Delta();
+
+    /** Usage statistics, or null if not collected. */
+    private MemoStats stats;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether queries to the table should use parser information when storing/retrieving an entry,
+     * or just the start position and optional context object.
+     */
+    public final boolean match_parser;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public PackedMemoTable (boolean match_parser) {
+        this.match_parser = match_parser;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Inserts an entry in the table, under the assumption that the table is large enough and
+     * does not already contain the entry (if it does, it will be duplicated). Does not update
+     * {@link #occupied}.
+     */
+    private void insert (
+        int hash, int start, int end, int extent, Parser parser, Object ctx, int offset, int size)
+    {
+        int i = (hash & 0x7FFFFFFF) % hashes.length; // non-negative index
+        long displacement = 0;
+
+        while (hashes[i] != 0) // as long as we haven't found an empty spot
+        {
+            long d = hashes[i] >>> 32;
+
+            if (d <= displacement)
+            {
+                // Found an entry with less displacement than the one we're trying to insert.
+                // Insert the later here and carry on trying to insert the former.
+
+                int hash2       = (int) hashes[i];
+                int start2      = starts[i];
+                int end2        = ends[i];
+                int extent2     = extents[i];
+                Parser parser2  = parsers[i];
+                Object ctx2     = contexts[i];
+                int offset2     = delta_offsets[i];
+                int size2       = delta_sizes[i];
+
+                store(i, displacement, hash, start, end, extent, parser, ctx, offset, size);
+
+                if (displacement > max_displacement)
+                    max_displacement = displacement;
+
+                hash    = hash2;
+                start   = start2;
+                end     = end2;
+                extent  = extent2;
+                parser  = parser2;
+                ctx     = ctx2;
+                offset  = offset2;
+                size    = size2;
+                displacement = d;
+            }
+
+            ++displacement;
+            if (++i == hashes.length)
+                i = 0;
+        }
+
+        if (displacement > max_displacement)
+            max_displacement = displacement;
+
+        store(i, displacement, hash, start, end, extent, parser, ctx, offset, size);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void store (
+        int i, long displacement,
+        int hash, int start, int end, int extent, Parser parser, Object ctx, int offset, int size)
+    {
+        hashes[i]           = (displacement << 32) + hash;
+        starts[i]           = start;
+        ends[i]             = end;
+        extents[i]          = extent;
+        parsers[i]          = parser;
+        contexts[i]         = ctx;
+        delta_offsets[i]    = offset;
+        delta_sizes[i]      = size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void add (
+        int start, int end, int extent, Parser parser, Object ctx, int offset, int size)
+    {
+        if (stats != null) ++ stats.inserts;
+
+        if (++occupied / (double) hashes.length > MAX_LOAD)
+            rehash();
+
+        int hash = Memoizer.hash(match_parser, parser, start, ctx);
+        insert(hash, start, end, extent, parser, ctx, offset, size);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void rehash()
+    {
+        long[]   hashes0        = hashes;
+        int[]    starts0        = starts;
+        int[]    ends0          = ends;
+        int[]    extents0       = extents;
+        Parser[] parsers0       = parsers;
+        Object[] contexts0      = contexts;
+        int[]    delta_offsets0 = delta_offsets;
+        int[]    delta_sizes0   = delta_sizes;
+
+        int len = hashes0.length * 2;
+        hashes          = new long   [len];
+        starts          = new int    [len];
+        ends            = new int    [len];
+        extents         = new int    [len];
+        parsers         = new Parser [len];
+        contexts        = new Object [len];
+        delta_offsets   = new int    [len];
+        delta_sizes     = new int    [len];
+
+        for (int j = 0; j < hashes0.length; ++j)
+            if (hashes0[j] != 0)
+                insert((int) hashes0[j], starts0[j], ends0[j], extents0[j], parsers0[j],
+                    contexts0[j], delta_offsets0[j], delta_sizes0[j]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the slot holding the entry matching the parameters, or -1 if there is
+     * none.
+     */
+    private int find (Parser parser, int pos, Object ctx)
+    {
+        int hash = Memoizer.hash(match_parser, parser, pos, ctx);
+        int i = (hash & 0x7FFFFFFF) % hashes.length; // non-negative index
+        int d = 0; // displacement
+
+        while (true)
+        {
+            int h = (int) hashes[i]; // stored hash
+
+            if (h == hash
+                    && starts[i] == pos
+                    && (!match_parser || parsers[i] == parser)
+                    && Objects.equals(contexts[i], ctx)) {
+                if (stats != null) stats.lookup(true, d + 1);
+                return i;
+            }
+
+            if (h == 0 || d > max_displacement) {
+                if (stats != null) stats.lookup(false, d + 1);
+                return -1;
+            }
+
+            if (++i == hashes.length) i = 0;
+            ++d;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void memoize (MemoEntry entry)
+    {
+        int offset = arena.size();
+        int size = 0;
+
+        if (entry.succeeded()) {
+            arena.append(entry.delta);
+            size = arena.size() - offset;
+        }
+
+        add(entry.start_position, entry.end_position, entry.extent, entry.parser, entry.ctx,
+            offset, size);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void memoize (
+        Parse parse, boolean success, Parser parser, int pos0, int log0, Object ctx)
+    {
+        if (!success) {
+            add(pos0, -1, parse.examined, parser, ctx, 0, 0);
+            return;
+        }
+
+        int offset = arena.size();
+        int size = parse.log.size() - log0;
+        parse.log.append_to(arena, log0);
+
+        add(pos0, parse.pos, Math.max(parse.examined, parse.pos), parser, ctx, offset, size);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public Replay replay (Parse parse, Parser parser, Object ctx, Parser[] accepted)
+    {
+        int i = find(parser, parse.pos, ctx);
+
+        if (i < 0)
+            return Replay.MISS;
+
+        parse.examine(extents[i]);
+
+        if (ends[i] < 0)
+            return Replay.FAILURE;
+
+        if (accepted != null)
+        {
+            boolean found = false;
+            for (Parser p: accepted)
+                if (p == parsers[i]) {
+                    found = true;
+                    break;
+                }
+            if (!found) return Replay.FAILURE;
+        }
+
+        parse.pos = ends[i];
+
+        parse.log.apply(arena, delta_offsets[i], delta_offsets[i] + delta_sizes[i]);
+
+        return Replay.SUCCESS;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private MemoEntry entry (int i)
+    {
+        List<SideEffect> delta = delta_sizes[i] == 0
+            ? Collections.emptyList()
+            : arena.slice(delta_offsets[i], delta_offsets[i] + delta_sizes[i]);
+
+        return new MemoEntry(
+            ends[i] >= 0, parsers[i], starts[i], ends[i], extents[i], delta, contexts[i]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public MemoEntry get (Parser parser, int pos, Object ctx)
+    {
+        int i = find(parser, pos, ctx);
+        return i < 0 ? null : entry(i);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String string (String sep, Function<MemoEntry, String> f)
+    {
+        ArrayList<MemoEntry> list = new ArrayList<>(occupied);
+        for (int i = 0; i < hashes.length; ++i)
+            if (hashes[i] != 0)
+                list.add(entry(i));
+
+        MemoEntry[] entries = list.toArray(new MemoEntry[0]);
+        Arrays.sort(entries, Comparator.comparingInt(x -> x.start_position));
+        StringBuilder b = new StringBuilder();
+        Strings.separated(b, sep, NArrays.map(entries, new String[0], f));
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString (LineMap map)
+    {
+        return "PackedMemoTable { " + string(", ", e -> e.toString(map)) + "}";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String listing (LineMap map)
+    {
+        return string("\n", e -> e.listing_string(map, match_parser));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString() {
+        return toString(null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void enable_stats()
+    {
+        if (stats == null)
+            stats = new MemoStats();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public MemoStats stats()
+    {
+        if (stats != null && max_displacement > stats.max_displacement)
+            stats.max_displacement = max_displacement;
+        return stats;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,284 @@
+package norswap.autumn.memo;
+
+import norswap.autumn.LineMap;
+import norswap.autumn.Parse;
+import norswap.autumn.Parser;
+import norswap.autumn.parsers.Cut;
+import norswap.utils.NArrays;
+import norswap.utils.Strings;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.Function;
+
+/**
+ * A {@link Memoizer} implementation that memoizes every result it is passed, like {@link
+ * MemoTable}, but discards the entries whose start position is below the cut watermark ({@link
+ * Parse#cut}, advanced by {@link Cut} parsers).
+ *
+ * <p>Entries are discarded lazily: whenever the table would need to grow, it first drops all
+ * entries that start before the watermark (if it holds any), and only grows if that didn't free
+ * enough room. The table also shrinks when most of its entries are dropped. Memory use is
+ * therefore bounded by the number of entries after the last cut, instead of growing with the size
+ * of the input.
+ *
+ * <p>The watermark is read from the parse in {@link #memoize(Parse, boolean, Parser, int, int,
+ * Object)} and {@link #replay(Parse, Parser, Object, Parser[])}. Entries inserted through {@link
+ * #memoize(MemoEntry)} use the last watermark seen.
+ *
+ * <p>Since the cut is only a hint, lookups before the watermark are still answered if the entry
+ * hasn't been discarded yet, and otherwise miss — in which case the result will be recomputed.
+ *
+ * <p>The table has two mode of operations depending on its {@link #match_parser} parameter, with
+ * the same semantics as in {@link MemoTable}.
+ */
+public final class WindowedMemoTable implements Memoizer
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Max load factor for the table. */
+    private static final double MAX_LOAD = 0.8;
+
+    /** Minimum capacity of the table. */
+    private static final int MIN_CAPACITY = 8;
+
+    /** Max displacement from initial position in the table. */
+    private long max_displacement = 0;
+
+    /** Amount of table slots occupied. */
+    private int occupied = 0;
+
+    /** Last known cut watermark. */
+    private int watermark = 0;
+
+    /** Smallest start position of the entries in the table. */
+    private int min_start = Integer.MAX_VALUE;
+
+    /** See {@link MemoTable}. */
+    private long[] hashes = new long[MIN_CAPACITY];
+
+    /** cf. {@link #hashes} */
+    private MemoEntry[] entries = new MemoEntry[MIN_CAPACITY];
+
+    /** Usage statistics, or null if not collected. */
+    private MemoStats stats;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether queries to the table should use parser information when storing/retrieving an entry,
+     * or just the start position and optional context object.
+     */
+    public final boolean match_parser;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public WindowedMemoTable (boolean match_parser) {
+        this.match_parser = match_parser;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of entries currently held in the table.
+     */
+    public int size() {
+        return occupied;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Insert the given entry in the table, under the assumption that the table is large enough and
+     * does not already contain the entry (if it does, it will be duplicated). Does not update
+     * {@link #occupied}.
+     */
+    private void insert (MemoEntry entry)
+    {
+        int hash = Memoizer.hash(match_parser, entry);
+        int i = (hash & 0x7FFFFFFF) % hashes.length; // non-negative index
+        long displacement = 0;
+
+        while (hashes[i] != 0) // as long as we haven't found an empty spot
+        {
+            long d = hashes[i] >>> 32;
+
+            if (d <= displacement)
+            {
+                // Found an entry with less displacement than the one we're trying to insert.
+                // Insert the later here and carry on trying to insert the former.
+
+                int pos2 = (int) hashes[i];
+                MemoEntry entry2 = entries[i];
+
+                hashes[i] = (displacement << 32) + hash;
+                entries[i] = entry;
+
+                if (displacement > max_displacement)
+                    max_displacement = displacement;
+
+                hash = pos2;
+                entry = entry2;
+                displacement = d;
+            }
+
+            ++displacement;
+            if (++i == hashes.length)
+                i = 0;
+        }
+
+        if (displacement > max_displacement)
+            max_displacement = displacement;
+
+        hashes[i] = (displacement << 32) + hash;
+        entries[i] = entry;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Rebuilds the table with the given capacity, dropping entries that start before the
+     * watermark.
+     */
+    private void rebuild (int capacity)
+    {
+        MemoEntry[] entries0 = entries;
+        int occupied0 = occupied;
+
+        if (stats != null && max_displacement > stats.max_displacement)
+            stats.max_displacement = max_displacement;
+
+        hashes = new long[capacity];
+        entries = new MemoEntry[capacity];
+        max_displacement = 0;
+        occupied = 0;
+        min_start = Integer.MAX_VALUE;
+
+        for (MemoEntry entry: entries0)
+            if (entry != null && entry.start_position >= watermark) {
+                insert(entry);
+                ++ occupied;
+                min_start = Math.min(min_start, entry.start_position);
+            }
+
+        if (stats != null)
+            stats.evictions += occupied0 - occupied;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void memoize (MemoEntry entry)
+    {
+        if (stats != null) ++ stats.inserts;
+
+        if ((occupied + 1) / (double) hashes.length > MAX_LOAD)
+        {
+            // First try to make room by discarding the entries before the watermark, if any.
+            int len = hashes.length;
+            if (min_start < watermark)
+                rebuild(len);
+
+            if ((occupied + 1) / (double) len > MAX_LOAD / 2)
+                rebuild(len * 2);
+            else if (len > MIN_CAPACITY && (occupied + 1) / (double) len < MAX_LOAD / 8)
+                rebuild(len / 2);
+        }
+
+        insert(entry);
+        ++ occupied;
+        min_start = Math.min(min_start, entry.start_position);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void memoize (
+        Parse parse, boolean success, Parser parser, int pos0, int log0, Object ctx)
+    {
+        watermark = parse.cut;
+        Memoizer.super.memoize(parse, success, parser, pos0, log0, ctx);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public Replay replay (Parse parse, Parser parser, Object ctx, Parser[] accepted)
+    {
+        watermark = parse.cut;
+        return Memoizer.super.replay(parse, parser, ctx, accepted);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public MemoEntry get (Parser parser, int pos, Object ctx)
+    {
+        int hash = Memoizer.hash(match_parser, parser, pos, ctx);
+        int i = (hash & 0x7FFFFFFF) % hashes.length; // non-negative index
+        int d = 0; // displacement
+
+        while (true)
+        {
+            int h = (int) hashes[i]; // stored hash
+
+            if (h == hash && entries[i].matches(match_parser, parser, pos, ctx)) {
+                if (stats != null) stats.lookup(true, d + 1);
+                return entries[i];
+            }
+
+            if (h == 0 || d > max_displacement) {
+                if (stats != null) stats.lookup(false, d + 1);
+                return null;
+            }
+
+            if (++i == hashes.length) i = 0;
+            ++d;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void enable_stats()
+    {
+        if (stats == null)
+            stats = new MemoStats();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public MemoStats stats()
+    {
+        if (stats != null && max_displacement > stats.max_displacement)
+            stats.max_displacement = max_displacement;
+        return stats;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String string (String sep, Function<MemoEntry, String> f)
+    {
+        MemoEntry[] entries = NArrays.packed(this.entries);
+        Arrays.sort(entries, Comparator.comparingInt(x -> x.start_position));
+        StringBuilder b = new StringBuilder();
+        Strings.separated(b, sep, NArrays.map(entries, new String[0], f));
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString (LineMap map)
+    {
+        return "WindowedMemoTable { " + string(", ", e -> e.toString(map)) + "}";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String listing (LineMap map)
+    {
+        return string("\n", e -> e.listing_string(map, match_parser));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString() {
+        return toString(null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
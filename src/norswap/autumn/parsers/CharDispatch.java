@@ -0,0 +1,193 @@
+package norswap.autumn.parsers;
+
+import norswap.autumn.Parse;
+import norswap.autumn.Parser;
+import norswap.autumn.ParserWalker;
+import norswap.autumn.visitors.VisitorFirstChars;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A dispatch table that maps the next input character to the subset of a list of alternative
+ * parsers that may succeed on it, as determined by {@link VisitorFirstChars}. This is used by
+ * {@link Choice}, {@link Tokens} and {@link PrecedenceExpression} to avoid invoking alternatives
+ * that are bound to fail.
+ *
+ * <p>For each ASCII character, the table holds a <em>program</em>: the indices of the alternatives
+ * to try, in order, interspersed with {@link #SKIPPED} markers. A marker stands for one or more
+ * skipped alternatives that would have updated the furthest error ({@link Parse#error}) when
+ * failing, and signals that this update must be emulated using {@link #skipped(Parse)}. This
+ * ensures the outcome of the parse is identical with and without dispatch.
+ *
+ * <p>Dispatch is not used for non-ASCII characters, when parsing a list of objects, or when
+ * {@link norswap.autumn.ParseOptions#trace} or {@link
+ * norswap.autumn.ParseOptions#record_call_stack} is enabled (as skipping parsers would alter the
+ * trace and the call stacks). In those cases, {@link #program(Parse)} returns null and all
+ * alternatives must be tried.
+ */
+public final class CharDispatch
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Program marker signalling that skipped alternatives would have updated the furthest error.
+     */
+    public static final int SKIPPED = -1;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A dispatch table that is never applicable. Used when dispatching would not skip any
+     * alternative.
+     */
+    public static final CharDispatch NONE = new CharDispatch(null);
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Program for each ASCII character, or null for {@link #NONE}. */
+    private final int[][] programs;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private CharDispatch (int[][] programs) {
+        this.programs = programs;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Builds a dispatch table for the given alternatives, using the given visitor to determine
+     * their first characters. Returns {@link #NONE} if dispatching would not skip any alternative.
+     */
+    public static CharDispatch build (VisitorFirstChars visitor, Parser[] alternatives)
+    {
+        BitSet[] firsts = new BitSet[alternatives.length];
+        for (int i = 0; i < alternatives.length; ++i)
+            firsts[i] = visitor.first_chars(alternatives[i]);
+
+        int[][] programs = new int[VisitorFirstChars.SIZE][];
+        ArrayList<int[]> distinct = new ArrayList<>();
+        boolean useful = false;
+
+        for (int c = 0; c < programs.length; ++c)
+        {
+            int[] program = new int[2 * alternatives.length];
+            int size = 0;
+            boolean skipped = false;
+
+            for (int i = 0; i < alternatives.length; ++i)
+            {
+                if (firsts[i] == null || firsts[i].get(c)) {
+                    if (skipped) program[size++] = SKIPPED;
+                    program[size++] = i;
+                    skipped = false;
+                }
+                else {
+                    useful = true;
+                    skipped |= !alternatives[i].exclude_errors;
+                }
+            }
+
+            if (skipped) program[size++] = SKIPPED;
+            program = Arrays.copyOf(program, size);
+
+            // share identical programs
+            int[] shared = null;
+            for (int[] other: distinct)
+                if (Arrays.equals(other, program)) {
+                    shared = other;
+                    break;
+                }
+
+            if (shared == null)
+                distinct.add(program);
+
+            programs[c] = shared != null ? shared : program;
+        }
+
+        return useful
+            ? new CharDispatch(programs)
+            : NONE;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the program for the current input position, or null if dispatch is not applicable
+     * and all alternatives must be tried.
+     */
+    public int[] program (Parse parse)
+    {
+        if (programs == null || !applicable(parse))
+            return null;
+
+        char c = parse.char_at(parse.pos);
+        return c < programs.length
+            ? programs[c]
+            : null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether parsers may be skipped for the given parse: false when parsing a list of objects, or
+     * when {@link norswap.autumn.ParseOptions#trace} or {@link
+     * norswap.autumn.ParseOptions#record_call_stack} is enabled.
+     */
+    public static boolean applicable (Parse parse)
+    {
+        return parse.text != null
+            && !parse.options.trace
+            && !parse.options.record_call_stack;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emulates the effect of skipped alternatives failing at the current position, as performed
+     * by {@link Parser#parse(Parse)}: updating the furthest error and clearing the error message.
+     */
+    public static void skipped (Parse parse)
+    {
+        if (parse.error <= parse.pos) {
+            parse.error = parse.pos;
+            if (parse.error_message() != null)
+                parse.set_error_message(null);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Builds the dispatch tables of all the {@link Choice} and {@link PrecedenceExpression} parsers
+     * reachable from {@code root} that do not have them yet, sharing a single first characters
+     * analysis.
+     *
+     * <p>This is called by these parsers the first time they are invoked, but can also be called
+     * ahead of time.
+     */
+    public static void prepare (Parser root)
+    {
+        VisitorFirstChars visitor = new VisitorFirstChars();
+
+        new ParserWalker() {
+            @Override protected void work (Parser parser, State state) {
+                if (state != State.BEFORE) return;
+                if (parser instanceof Choice) {
+                    Choice choice = (Choice) parser;
+                    if (choice.dispatch == null)
+                        choice.dispatch = build(visitor, choice.alternatives());
+                }
+                else if (parser instanceof PrecedenceExpression) {
+                    PrecedenceExpression expr = (PrecedenceExpression) parser;
+                    if (expr.trailer_dispatch == null)
+                        expr.trailer_dispatch = expr.build_dispatch(visitor);
+                }
+            }
+        }
+        .walk(root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -10,7 +10,7 @@ import java.util.function.IntPredicate;
 import static norswap.autumn.util.ParserStringsUtil.escape_quoted_section;
 
 /**
- * Matches a single character that satisfies a predicate, within {@link Parse#string}.
+ * Matches a single character that satisfies a predicate, within {@link Parse#text}.
  *
  * <p>Since predicates are functions and cannot be printed out meaningfully, the parser has
  * a {@link #name} property that will be used to print the parser, unless a {@link #rule()} name
@@ -49,7 +49,7 @@ public final class CharPredicate extends Parser
 
     @Override public boolean doparse (Parse parse)
     {
-        assert parse.string != null;
+        assert parse.text != null;
         if (predicate.test(parse.char_at(parse.pos))) {
             ++ parse.pos;
             return true;
@@ -12,6 +12,9 @@ import java.util.List;
 /**
  * Matches the same thing as its first matching child, or fails if none succeed.
  *
+ * <p>Children that cannot match the next input character are skipped, using a {@link CharDispatch}
+ * table built the first time the parser is invoked.
+ *
  * <p>Build with {@link DSL#choice(Object...)}
  */
 public final class Choice extends Parser
@@ -22,6 +25,14 @@ public final class Choice extends Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Dispatch table used to skip the children that cannot match the next input character, or null
+     * if it hasn't been built yet. See {@link CharDispatch#prepare(Parser)}.
+     */
+    CharDispatch dispatch;
+
+    // ---------------------------------------------------------------------------------------------
+
     @Override public List<Parser> children() {
         return Collections.unmodifiableList(Arrays.asList(children));
     }
@@ -35,11 +46,35 @@ public final class Choice extends Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns the array of children. Must not be modified.
+     */
+    Parser[] alternatives() {
+        return children;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Override public boolean doparse (Parse parse)
     {
-        for (Parser child: children)
-            if (child.parse(parse))
+        if (dispatch == null)
+            CharDispatch.prepare(this);
+
+        int[] program = dispatch.program(parse);
+
+        if (program == null) {
+            for (Parser child: children)
+                if (child.parse(parse))
+                    return true;
+            return false;
+        }
+
+        for (int i: program)
+            if (i == CharDispatch.SKIPPED)
+                CharDispatch.skipped(parse);
+            else if (children[i].parse(parse))
                 return true;
+
         return false;
     }
 
@@ -0,0 +1,56 @@
+package norswap.autumn.parsers;
+
+import norswap.autumn.DSL;
+import norswap.autumn.Parse;
+import norswap.autumn.memo.WindowedMemoTable;
+import norswap.autumn.util.StreamingText;
+
+/**
+ * A parser that always succeeds, matching no input, and advances the cut watermark ({@link
+ * Parse#cut}) to the current input position.
+ *
+ * <p>Like the cut operators of some PEG implementations, placing a cut after a construct asserts
+ * that once the construct has been matched, the parse will not backtrack before its end — typically
+ * after top-level declarations. Memoizers such as {@link WindowedMemoTable} use this to discard
+ * results memoized before the cut.
+ *
+ * <p>The cut is only a hint: it does not prevent backtracking. If the parse does backtrack before
+ * the cut, the discarded results are simply recomputed, so a misplaced cut only costs performance.
+ *
+ * <p>The exception is when parsing a {@link StreamingText}: there the cut is a hard commitment.
+ * The input before the cut is released, and the side effects logged so far are committed (see
+ * {@link norswap.autumn.Log#commit(int)}), so that memory use stays bounded. Backtracking before
+ * the cut is not supported, and may throw an {@link IllegalStateException}.
+ *
+ * <p>Enclosing invocations that still need the side effects or the input before the cut (e.g.
+ * memoized parsers, {@link Longest} or {@link Tokens}) hold these back (see {@link
+ * Parse#pinned_log} and {@link Parse#pinned_pos}): they are only committed and released once the
+ * invocation completes, at the next cut.
+ *
+ * <p>Build with {@link DSL#cut}.
+ */
+public final class Cut extends AbstractPrimitive
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public Cut() {
+        super("cut", true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override protected boolean doparse (Parse parse)
+    {
+        if (parse.pos > parse.cut)
+            parse.cut = parse.pos;
+
+        if (parse.text instanceof StreamingText) {
+            ((StreamingText) parse.text).release(Math.min(parse.cut, parse.pinned_pos));
+            parse.log.commit(Math.min(parse.log.size(), parse.pinned_log));
+        }
+
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,127 @@
+package norswap.autumn.parsers;
+
+import norswap.autumn.DSL;
+import norswap.autumn.Parse;
+import norswap.autumn.Parser;
+import norswap.autumn.ParserVisitor;
+import norswap.autumn.util.StringTrie;
+import java.util.Collections;
+
+import static norswap.autumn.util.ParserStringsUtil.escape_quoted_section;
+
+/**
+ * Matches the longest of a set of literal strings (keywords or operators), within {@code
+ * Parse#text}.
+ *
+ * <p>This is similar to a {@link Longest} choice between {@link StringMatch} parsers for each
+ * string, but the input is only scanned once, using a {@link StringTrie}, instead of once per
+ * string. If {@link #whitespace} is non-null, it is used to skip whitespace after the longest
+ * matching string (unlike {@link Longest}, the whitespace plays no role in picking the string).
+ *
+ * <p>Use {@link #match(Parse)} to find out which string would be matched at the current position.
+ *
+ * <p>Build with {@link DSL#str_set(String...)} or {@link DSL#word_set(String...)}.
+ */
+public final class KeywordSet extends Parser
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final String[] strings;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public final Parser whitespace;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final StringTrie trie = new StringTrie();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a parser that will match the longest of the given strings. If {@code whitespace} is
+     * non-null, this parser will be used to skip whitespace following the matched string.
+     */
+    public KeywordSet (Parser whitespace, String... strings)
+    {
+        this.strings = strings.clone();
+        this.whitespace = whitespace;
+
+        for (int i = 0; i < strings.length; ++i)
+            trie.put(strings[i], i);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the i-th string matched by this parser.
+     */
+    public String string (int i) {
+        return strings[i];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of strings matched by this parser.
+     */
+    public int size() {
+        return strings.length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the longest string that occurs at the current position of the parse (see
+     * {@link #string(int)}), or -1 if there are none.
+     *
+     * <p>This does not modify the parse state (besides {@link Parse#examine(int) recording} the
+     * examined input), nor does it take whitespace into account.
+     */
+    public int match (Parse parse)
+    {
+        assert parse.text != null;
+        parse.examine(parse.pos + trie.depth() + 1);
+        return trie.longest(parse.text, parse.pos);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public boolean doparse (Parse parse)
+    {
+        int i = match(parse);
+        if (i < 0) return false;
+        parse.pos += strings[i].length();
+        return whitespace == null || whitespace.parse(parse);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void accept (ParserVisitor visitor) {
+        visitor.visit(this);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public Iterable<Parser> children() {
+        return Collections.emptyList();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toStringFull()
+    {
+        StringBuilder b = new StringBuilder();
+        b.append("keywords(");
+        for (int i = 0; i < strings.length; ++i) {
+            if (i > 0) b.append(" ");
+            b.append("[").append(escape_quoted_section(strings[i])).append("]");
+        }
+        if (whitespace != null)
+            b.append(", ").append(whitespace);
+        b.append(")");
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,70 @@
+package norswap.autumn.parsers;
+
+import norswap.autumn.DSL;
+import norswap.autumn.Parse;
+import norswap.autumn.util.TokenArray;
+
+/**
+ * Matches a single token whose kind is one of a set of kinds, within a {@link TokenArray} input
+ * ({@link Parse#tokens}).
+ *
+ * <p>This is the counterpart of {@link ObjectPredicate} for packed token arrays: the kinds are
+ * compared as ints (typically enum ordinals) against a bitset, without boxing the tokens or calling
+ * a predicate. This also works over plain arrays of kinds ({@link
+ * norswap.autumn.Autumn#parse(norswap.autumn.Parser, int[], norswap.autumn.ParseOptions)}).
+ *
+ * <p>Build with {@link DSL#kind(String, int...)} or {@link DSL#kind(Enum[])}.
+ */
+public final class KindMatch extends AbstractPrimitive
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Bitset of the accepted kinds: bit {@code k % 64} of {@code accepted[k / 64]} is set iff this
+     * parser matches tokens of kind {@code k}.
+     */
+    private final long[] accepted;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new parser matching a single token of one of the given kinds, which must be
+     * non-negative. {@code name} is used as display name for this parser.
+     */
+    public KindMatch (String name, int... kinds)
+    {
+        super(name, false);
+        int max = -1;
+        for (int kind: kinds) {
+            if (kind < 0) throw new IllegalArgumentException("negative token kind: " + kind);
+            max = Math.max(max, kind);
+        }
+        accepted = new long[(max >> 6) + 1];
+        for (int kind: kinds)
+            accepted[kind >> 6] |= 1L << kind;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override protected boolean doparse (Parse parse)
+    {
+        assert parse.tokens != null;
+        if (matches(parse.kind_at(parse.pos))) {
+            ++ parse.pos;
+            return true;
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether this parser matches tokens of the given kind.
+     */
+    public boolean matches (int kind) {
+        int word = kind >> 6;
+        return kind >= 0 && word < accepted.length && (accepted[word] & (1L << kind)) != 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -137,6 +137,11 @@ public final class LeftRecursive extends Parser
         // if no seeds are found, will indicate right-recursion
         if (left_associative) state.recursions = 1;
 
+        int pin_log0 = parse.pinned_log;
+        int pin_pos0 = parse.pinned_pos;
+        parse.pinned_log = Math.min(pin_log0, log0);
+        parse.pinned_pos = Math.min(pin_pos0, pos0);
+
         // iteratively grow the seed
         while (child.parse(parse) && parse.pos > invoc.end_pos)
         {
@@ -146,6 +151,9 @@ public final class LeftRecursive extends Parser
             parse.log.rollback(log0);
         }
 
+        parse.pinned_log = pin_log0;
+        parse.pinned_pos = pin_pos0;
+
         if (left_associative) state.recursions = 0;
         parse.pos = pos0;
         parse.log.rollback(log0);
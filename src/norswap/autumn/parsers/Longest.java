@@ -46,6 +46,11 @@ public final class Longest extends Parser
         int max_pos = pos0;
         List<SideEffect> delta = null;
 
+        int pin_log0 = parse.pinned_log;
+        int pin_pos0 = parse.pinned_pos;
+        parse.pinned_log = Math.min(pin_log0, log0);
+        parse.pinned_pos = Math.min(pin_pos0, pos0);
+
         for (Parser child: children)
         {
             boolean success = child.parse(parse);
@@ -60,6 +65,9 @@ public final class Longest extends Parser
             }
         }
 
+        parse.pinned_log = pin_log0;
+        parse.pinned_pos = pin_pos0;
+
         if (delta == null)
             return false;
 
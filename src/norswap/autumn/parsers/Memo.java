@@ -14,7 +14,8 @@ import java.util.function.Function;
  * Wraps a child parser, matching the same thing it does but memoizing its result.
  *
  * <p>The memoization strategy depends on the implementation of {@link Memoizer} supplied to the
- * constructor. Built-in memoizers implementation are {@link MemoTable} and {@link MemoCache}.
+ * constructor. Built-in memoizers implementation are {@link MemoTable}, {@link PackedMemoTable}
+ * and {@link MemoCache}.
  * Users can also define their own.
  *
  * <p>The results of the child parser will be memoized based on the input position and an optional
@@ -65,26 +66,21 @@ public final class Memo extends Parser
     {
         Object ctx = context_extractor != null ? context_extractor.apply(parse) : null;
         Memoizer memo = memoizer.data(parse);
-        MemoEntry entry = memo.get(child, parse.pos, ctx);
 
-        if (entry != null)
-        {
-            if (!entry.succeeded())
-                return false;
-
-            parse.pos = entry.end_position;
-            parse.log.apply(entry.delta);
-            return true;
+        switch (memo.replay(parse, child, ctx, null)) {
+            case SUCCESS: return true;
+            case FAILURE: return false;
+            default: break; // not memoized yet
         }
 
         int pos0 = parse.pos;
         int log0 = parse.log.size();
-
-        entry = new MemoEntry(
-            child.parse(parse), child, pos0, parse.pos, parse.log.delta(log0), ctx);
-
-        memo.memoize(entry);
-        return entry.succeeded();
+        int pin0 = parse.pinned_log;
+        parse.pinned_log = Math.min(pin0, log0);
+        boolean success = child.parse(parse);
+        parse.pinned_log = pin0;
+        memo.memoize(parse, success, child, pos0, log0, ctx);
+        return success;
     }
 
     // ---------------------------------------------------------------------------------------------
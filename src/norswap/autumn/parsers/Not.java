@@ -3,7 +3,7 @@ package norswap.autumn.parsers;
 import norswap.autumn.DSL;
 import norswap.autumn.Parse;
 import norswap.autumn.Parser;
-import norswap.autumn.ParserCallStack;
+import norswap.autumn.ParserCallFrame;
 import norswap.autumn.ParserVisitor;
 import java.util.Collections;
 
@@ -31,7 +31,7 @@ public final class Not extends Parser
     {
         int err0 = parse.error;
         String errmsg0 = parse.error_message();
-        ParserCallStack stk0 = parse.error_call_stack;
+        ParserCallFrame stk0 = parse.error_call_stack;
         // if the child matches, #parse will undo its side effects
         boolean success = !child.parse(parse);
         // negated parsers should not count towards the furthest error
@@ -0,0 +1,323 @@
+package norswap.autumn.parsers;
+
+import norswap.autumn.Parse;
+import norswap.autumn.Parser;
+import norswap.autumn.ParserVisitor;
+import norswap.autumn.StackAction;
+import norswap.autumn.visitors.VisitorFirstChars;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Matches an expression made of operands combined by prefix, infix and suffix operators with
+ * arbitrary precedences, using precedence climbing (also known as Pratt parsing).
+ *
+ * <p>Each operator has a binding power (a non-negative integer): operators with higher binding
+ * power bind tighter. Infix operators can be left- or right-associative. Prefix and suffix
+ * operators apply to everything that binds tighter than them (e.g. with a prefix {@code -} with
+ * power 15 and a suffix {@code .x} with power 16, {@code -a.x} parses as {@code -(a.x)}).
+ *
+ * <p>This replaces a stack of {@link LeftExpression} and {@link RightExpression} parsers (one per
+ * precedence level) by a single parser. With the stacked approach, parsing an operand requires
+ * traversing every precedence level (and attempting every operator at each level). Here, the
+ * operand is parsed once, and operators are only attempted when they could apply.
+ *
+ * <p>The parser first tries each prefix operator in the order in which they are given. If one
+ * matches and an expression with the operator's binding power can be parsed after it, the
+ * prefix's step is applied. Otherwise, {@link #operand} is parsed. Afterwards, the parser tries
+ * infix and suffix operators repeatedly: operators with higher binding power are tried first, with
+ * ties broken by trying infixes first, then in the order in which operators are given (like {@link
+ * Choice}). Only operators whose binding power is at least the binding power of the enclosing
+ * operator are considered. Infix and suffix operators that cannot match the next input character
+ * are skipped, using {@link CharDispatch} tables built the first time the parser is invoked.
+ *
+ * <p>For each operator, the step {@link StackAction} acts as though the match started at the
+ * position where the operator's left operand (for infixes and suffixes) or the operator itself
+ * (for prefixes) started.
+ */
+public final class PrecedenceExpression extends Parser
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Operand, which is matched when no prefix operator applies. */
+    public final Parser operand;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Prefix operators. */
+    public final Parser[] prefixes;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Binding powers of the corresponding prefix operators in {@link #prefixes}. */
+    public final int[] prefix_powers;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Stack actions associated with the corresponding prefix operators in {@link #prefixes}. */
+    public final StackAction[] prefix_steps;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Infix operators. */
+    public final Parser[] infixes;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Binding powers of the corresponding infix operators in {@link #infixes}. */
+    public final int[] infix_powers;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether the corresponding infix operators in {@link #infixes} are right-associative. */
+    public final boolean[] infix_right;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Stack actions associated with the corresponding infix operators in {@link #infixes}. */
+    public final StackAction[] infix_steps;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Suffix operators. */
+    public final Parser[] suffixes;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Binding powers of the corresponding suffix operators in {@link #suffixes}. */
+    public final int[] suffix_powers;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Stack actions associated with the corresponding suffix operators in {@link #suffixes}. */
+    public final StackAction[] suffix_steps;
+
+    // ---------------------------------------------------------------------------------------------
+
+    // Infix and suffix operators, merged and sorted by decreasing binding power.
+
+    private final Parser[] trailers;
+    private final StackAction[] trailer_steps;
+    private final int[] trailer_powers;
+
+    /** Minimum binding power of the right operand for infixes, -1 for suffixes. */
+    private final int[] trailer_right_powers;
+
+    /**
+     * Dispatch tables used to skip the trailers that cannot match the next input character, or
+     * null if they haven't been built yet. The table at index {@code n} covers the first {@code n}
+     * trailers, and is only built if this is the set of trailers attempted for some binding power.
+     * See {@link CharDispatch#prepare(Parser)}.
+     */
+    CharDispatch[] trailer_dispatch;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public PrecedenceExpression (
+        Parser operand,
+        Parser[] prefixes, int[] prefix_powers, StackAction[] prefix_steps,
+        Parser[] infixes, int[] infix_powers, boolean[] infix_right, StackAction[] infix_steps,
+        Parser[] suffixes, int[] suffix_powers, StackAction[] suffix_steps)
+    {
+        assert operand != null;
+        assert prefixes.length == prefix_powers.length;
+        assert prefixes.length == prefix_steps.length;
+        assert infixes.length == infix_powers.length;
+        assert infixes.length == infix_right.length;
+        assert infixes.length == infix_steps.length;
+        assert suffixes.length == suffix_powers.length;
+        assert suffixes.length == suffix_steps.length;
+
+        this.operand = operand;
+        this.prefixes = prefixes;
+        this.prefix_powers = prefix_powers;
+        this.prefix_steps = prefix_steps;
+        this.infixes = infixes;
+        this.infix_powers = infix_powers;
+        this.infix_right = infix_right;
+        this.infix_steps = infix_steps;
+        this.suffixes = suffixes;
+        this.suffix_powers = suffix_powers;
+        this.suffix_steps = suffix_steps;
+
+        int size = infixes.length + suffixes.length;
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; ++i) order[i] = i;
+
+        // stable sort: ties keep infixes first, then declaration order
+        Arrays.sort(order, (a, b) -> Integer.compare(trailer_power(b), trailer_power(a)));
+
+        trailers = new Parser[size];
+        trailer_steps = new StackAction[size];
+        trailer_powers = new int[size];
+        trailer_right_powers = new int[size];
+
+        for (int i = 0; i < size; ++i) {
+            int j = order[i];
+            if (j < infixes.length) {
+                trailers[i] = infixes[j];
+                trailer_steps[i] = infix_steps[j];
+                trailer_powers[i] = infix_powers[j];
+                trailer_right_powers[i] = infix_right[j] ? infix_powers[j] : infix_powers[j] + 1;
+            } else {
+                j -= infixes.length;
+                trailers[i] = suffixes[j];
+                trailer_steps[i] = suffix_steps[j];
+                trailer_powers[i] = suffix_powers[j];
+                trailer_right_powers[i] = -1;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int trailer_power (int i) {
+        return i < infixes.length ? infix_powers[i] : suffix_powers[i - infixes.length];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Builds the {@link #trailer_dispatch} tables, using the given visitor to determine the first
+     * characters of the trailers.
+     */
+    CharDispatch[] build_dispatch (VisitorFirstChars visitor)
+    {
+        CharDispatch[] tables = new CharDispatch[trailers.length + 1];
+        for (int n = 0; n <= trailers.length; ++n)
+            if (n == trailers.length || n == 0 || trailer_powers[n] < trailer_powers[n - 1])
+                tables[n] = CharDispatch.build(visitor, Arrays.copyOf(trailers, n));
+        return tables;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public boolean doparse (Parse parse)
+    {
+        if (trailer_dispatch == null)
+            CharDispatch.prepare(this);
+
+        return parse_expression(parse, 0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses an expression whose operators all have a binding power of at least {@code power}.
+     */
+    private boolean parse_expression (Parse parse, int power)
+    {
+        int pos0   = parse.pos;
+        int stack0 = parse.stack.size();
+        int log0   = parse.log.size();
+        boolean matched = false;
+
+        for (int i = 0; i < prefixes.length; ++i)
+            if (prefixes[i].parse(parse))
+                if (parse_expression(parse, prefix_powers[i])) {
+                    prefix_steps[i].apply(parse, parse.stack.pop_from(stack0), pos0, stack0);
+                    matched = true;
+                    break;
+                }
+                else {
+                    parse.pos = pos0;
+                    parse.log.rollback(log0);
+                }
+
+        if (!matched && !operand.parse(parse))
+            return false;
+
+        // number of trailers that may apply
+        int count = 0;
+        while (count < trailers.length && trailer_powers[count] >= power)
+            ++count;
+
+        CharDispatch dispatch = trailer_dispatch[count];
+
+        outer: while (true)
+        {
+            int[] program = dispatch.program(parse);
+
+            if (program == null) {
+                for (int i = 0; i < count; ++i)
+                    if (parse_trailer(parse, i, pos0, stack0))
+                        continue outer;
+                return true;
+            }
+
+            for (int i: program)
+                if (i == CharDispatch.SKIPPED)
+                    CharDispatch.skipped(parse);
+                else if (parse_trailer(parse, i, pos0, stack0))
+                    continue outer;
+
+            return true;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Attempts to parse the trailer with index {@code i} and its right operand, if any, applying
+     * the trailer's step on success and rolling back the parse state on failure.
+     */
+    private boolean parse_trailer (Parse parse, int i, int pos0, int stack0)
+    {
+        int pos1 = parse.pos;
+        int log1 = parse.log.size();
+
+        if (trailers[i].parse(parse))
+            if (trailer_right_powers[i] < 0 || parse_expression(parse, trailer_right_powers[i])) {
+                trailer_steps[i].apply(parse, parse.stack.pop_from(stack0), pos0, stack0);
+                return true;
+            }
+            else {
+                parse.pos = pos1;
+                parse.log.rollback(log1);
+            }
+
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void accept (ParserVisitor visitor) {
+        visitor.visit(this);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Order: operand, prefix operators, infix operators, suffix operators
+     */
+    @Override public List<Parser> children()
+    {
+        return Collections.unmodifiableList(Stream.of(
+                Stream.of(operand),
+                Arrays.stream(prefixes),
+                Arrays.stream(infixes),
+                Arrays.stream(suffixes))
+            .flatMap(Function.identity())
+            .collect(Collectors.toList()));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toStringFull ()
+    {
+        return "PrecedenceExpression(" +
+            "operand=" + operand +
+            ", prefixes=" + Arrays.toString(prefixes) +
+            ", infixes=" + Arrays.toString(infixes) +
+            ", suffixes=" + Arrays.toString(suffixes) +
+            ')';
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
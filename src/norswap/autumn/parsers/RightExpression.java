@@ -117,6 +117,11 @@ public final class RightExpression extends Parser
         int right_cached_pos = -1;
         List<SideEffect> right_cached_delta = null;
 
+        int pin_log0 = parse.pinned_log;
+        int pin_pos0 = parse.pinned_pos;
+        parse.pinned_log = Math.min(pin_log0, log0);
+        parse.pinned_pos = Math.min(pin_pos0, parse.pos);
+
         outer: while (true)
         {
             if (left != null && left.parse(parse)) {
@@ -153,6 +158,9 @@ public final class RightExpression extends Parser
             break;
         }
 
+        parse.pinned_log = pin_log0;
+        parse.pinned_pos = pin_pos0;
+
         // Always pop the last entry (the last operand is not a left-hand-side).
         stack.pop(2);
 
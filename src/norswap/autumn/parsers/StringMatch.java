@@ -9,7 +9,7 @@ import java.util.Collections;
 import static norswap.autumn.util.ParserStringsUtil.escape_quoted_section;
 
 /**
- * Matches a literal string, within {@code Parse#string}.
+ * Matches a literal string, within {@code Parse#text}.
  *
  * <p>Build with {@link DSL#str(String)}
  */
@@ -42,7 +42,7 @@ public final class TokenChoice extends Parser
     // ---------------------------------------------------------------------------------------------
 
     @Override protected boolean doparse (Parse parse) {
-        return tokens.parse_token_choice(parse, targets);
+        return tokens.parse_token(parse, targets);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -24,6 +24,9 @@ public final class TokenParser extends Parser
      */
     public final Parser target;
 
+    /** {@code [target]} */
+    private final Parser[] targets;
+
     // ---------------------------------------------------------------------------------------------
 
     /**
@@ -36,6 +39,7 @@ public final class TokenParser extends Parser
     {
         this.tokens = tokens;
         this.target = target;
+        this.targets = new Parser[] { target };
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -53,7 +57,7 @@ public final class TokenParser extends Parser
     // ---------------------------------------------------------------------------------------------
 
     @Override protected boolean doparse (Parse parse) {
-        return tokens.parse_token(parse, target);
+        return tokens.parse_token(parse, targets);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -6,6 +6,8 @@ import norswap.autumn.Parser;
 import norswap.autumn.SideEffect;
 import norswap.autumn.memo.MemoEntry;
 import norswap.autumn.memo.Memoizer;
+import norswap.autumn.util.StringTrie;
+import norswap.autumn.visitors.VisitorFirstChars;
 import norswap.utils.NArrays;
 import java.util.Arrays;
 import java.util.Collections;
@@ -34,6 +36,13 @@ import java.util.function.Supplier;
  * <p>You can also use {@link #token_choice(Parser...)} to obtain an optimized choice between token
  * parsers that have been previously defined.
  *
+ * <p>When determining the token at a given position, base parsers that cannot match the next input
+ * character are skipped, using a {@link CharDispatch} table. In addition, base parsers that are
+ * {@link StringMatch} parsers (typically keywords and operators) are looked up in a {@link
+ * StringTrie}, in a single pass over the input: only those whose string occurs at the current
+ * position are invoked. This does not change the result, which is still the longest match among
+ * all base parsers (the first one in case of ties).
+ *
  * <p>This class maintains a {@link Memoizer} (as a parse state: {@link #memo_state}) to map input
  * positions to result (including the matching parser, if any, the end position of the match and its
  * side effects). Token parsers call back into the {@link Tokens} instance in order to find if the
@@ -61,6 +70,40 @@ public final class Tokens
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Tables used to skip the base parsers that cannot match at the current position, or null if
+     * they haven't been built yet (or must be rebuilt after adding a parser).
+     */
+    private Lookup lookup;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Lookup
+    {
+        /** Skips the base parsers that cannot match the next input character. */
+        final CharDispatch dispatch;
+
+        /** Maps the strings of {@link StringMatch} base parsers to their index. */
+        final StringTrie literals;
+
+        /** Whether the base parser with the given index is in {@link #literals}. */
+        final boolean[] in_trie;
+
+        Lookup (Parser[] parsers)
+        {
+            dispatch = CharDispatch.build(new VisitorFirstChars(), parsers);
+            literals = new StringTrie();
+            in_trie = new boolean[parsers.length];
+
+            for (int i = 0; i < parsers.length; ++i)
+                // if two base parsers match the same string, only the first is in the trie
+                if (parsers[i] instanceof StringMatch)
+                    in_trie[i] = literals.put(((StringMatch) parsers[i]).string, i);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     public Tokens (Supplier<Memoizer> memo) {
         this.memo_state = new ParseState<>(Tokens.class, memo);
     }
@@ -88,6 +131,7 @@ public final class Tokens
         }
 
         parsers[size++] = parser;
+        lookup = null;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -133,44 +177,23 @@ public final class Tokens
     // ---------------------------------------------------------------------------------------------
 
 
-    /**
-     * Tries to parse the token corresponding to the given target parser, returning true iff
-     * successful.
-     *
-     * <p>In all cases, fills the cache with the tokenization result for the current position.
-     */
-    boolean parse_token (Parse parse, Parser target)
-    {
-        Memoizer memo = memo_state.data(parse);
-        MemoEntry e = memo.get(null, parse.pos, null);
-
-        if (e == null) // token for position not in table yet
-            e = fill_cache(memo, parse);
-
-        if (!e.succeeded() || e.parser != target) // no token or wrong token
-            return false;
-
-        // correct token!
-        parse.pos = e.end_position;
-        parse.log.apply(e.delta);
-        return true;
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
     /**
      * Tries to parse one of the token corresponding to the given target parsers, returning true iff
      * successful.
      *
      * <p>In all cases, fills the cache with the tokenization result for the current position.
      */
-    boolean parse_token_choice (Parse parse, Parser[] targets)
+    boolean parse_token (Parse parse, Parser[] targets)
     {
         Memoizer memo = memo_state.data(parse);
-        MemoEntry e = memo.get(null, parse.pos, null);
 
-        if (e == null) // token for position not in table yet
-            e = fill_cache(memo, parse);
+        switch (memo.replay(parse, null, null, targets)) {
+            case SUCCESS: return true;
+            case FAILURE: return false; // no token or wrong token
+            default: break; // token for position not in table yet
+        }
+
+        MemoEntry e = fill_cache(memo, parse);
 
         if (!e.succeeded()) // no token
             return false;
@@ -201,8 +224,35 @@ public final class Tokens
         int max_pos = pos0;
         List<SideEffect> delta = null;
 
-        for (int i = 0; i < size; ++i)
+        int pin_log0 = parse.pinned_log;
+        int pin_pos0 = parse.pinned_pos;
+        parse.pinned_log = Math.min(pin_log0, log0);
+        parse.pinned_pos = Math.min(pin_pos0, pos0);
+
+        Lookup lookup = this.lookup;
+        if (lookup == null)
+            this.lookup = lookup = new Lookup(Arrays.copyOf(parsers, size));
+
+        // Base parsers exclude errors, so the program contains no SKIPPED markers.
+        int[] program = lookup.dispatch.program(parse);
+        int count = program == null ? size : program.length;
+
+        // Indices of the StringMatch base parsers whose string occurs at the current position.
+        int[] literals = null;
+        int literals_count = 0;
+        if (CharDispatch.applicable(parse) && lookup.literals.size() > 0) {
+            literals = new int[lookup.literals.depth() + 1];
+            literals_count = lookup.literals.matches(parse.text, pos0, literals);
+            parse.examine(pos0 + literals.length);
+        }
+
+        for (int j = 0; j < count; ++j)
         {
+            int i = program == null ? j : program[j];
+
+            if (literals != null && lookup.in_trie[i] && !contains(literals, literals_count, i))
+                continue;
+
             boolean success = parsers[i].parse(parse);
 
             if (success) {
@@ -217,13 +267,26 @@ public final class Tokens
             }
         }
 
+        parse.pinned_log = pin_log0;
+        parse.pinned_pos = pin_pos0;
+
         boolean success = delta != null;
         MemoEntry entry = new MemoEntry(
-            success, success ? parsers[longest] : null, pos0, max_pos, delta, null);
+            success, success ? parsers[longest] : null, pos0, max_pos, parse.examined, delta, null);
 
         memo.memoize(entry);
         return entry;
     }
 
     // ---------------------------------------------------------------------------------------------
+
+    private static boolean contains (int[] array, int size, int value)
+    {
+        for (int i = 0; i < size; ++i)
+            if (array[i] == value)
+                return true;
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
 }
@@ -0,0 +1,292 @@
+package norswap.autumn.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A {@link CharSequence} view over encoded bytes — typically a memory-mapped file (see {@link
+ * #map(Path, Charset)}) — that decodes characters on demand instead of copying the whole input to
+ * a {@link String} on the heap.
+ *
+ * <p>Two encodings are supported: ISO-8859-1 (Latin-1, which also covers US-ASCII), where each
+ * byte is a character, and UTF-8.
+ *
+ * <p>For UTF-8, the constructor scans the bytes once to count the characters, and records the byte
+ * offset of every {@link #BLOCK}-th character. Blocks made only of ASCII characters (as is most of
+ * the input in most languages) are then accessed in constant time, and other blocks by decoding
+ * from the start of the block. Characters outside the Basic Multilingual Plane are represented by
+ * surrogate pairs, as in {@link String}. Malformed bytes are decoded to U+FFFD, one per byte.
+ *
+ * <p>Instances are immutable, and so can be shared between threads. The underlying buffer must
+ * not be modified.
+ */
+public final class ByteCharSequence implements CharSequence
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of characters between two recorded byte offsets, for UTF-8. */
+    public static final int BLOCK = 16;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final ByteBuffer bytes;
+
+    /** Start of the view within {@link #bytes}. */
+    private final int offset;
+
+    /** End of the view within {@link #bytes}. */
+    private final int end;
+
+    /** Number of characters. */
+    private final int length;
+
+    /**
+     * For UTF-8, the byte offset (relative to {@link #offset}) of the code point containing the
+     * first character of each block, or null for Latin-1 or if all characters are ASCII.
+     */
+    private final int[] blocks;
+
+    /** For UTF-8, whether each block is made only of ASCII characters. */
+    private final BitSet ascii;
+
+    /** For UTF-8, whether the first character of each block is the low half of a surrogate pair. */
+    private final BitSet split;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ByteCharSequence (
+        ByteBuffer bytes, int offset, int length, int[] blocks, BitSet ascii, BitSet split)
+    {
+        // independent position and limit
+        this.bytes = bytes.duplicate();
+        this.offset = offset;
+        this.end = bytes.limit();
+        this.length = length;
+        this.blocks = blocks;
+        this.ascii = ascii;
+        this.split = split;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a view of the remaining bytes of {@code bytes} (between its position and its limit),
+     * decoded as ISO-8859-1.
+     */
+    public static ByteCharSequence latin1 (ByteBuffer bytes) {
+        return new ByteCharSequence(bytes, bytes.position(), bytes.remaining(), null, null, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a view of the remaining bytes of {@code bytes} (between its position and its limit),
+     * decoded as UTF-8.
+     */
+    public static ByteCharSequence utf8 (ByteBuffer bytes)
+    {
+        int start = bytes.position();
+        int end = bytes.limit();
+        int[] blocks = new int[16];
+        BitSet ascii = new BitSet();
+        BitSet split = new BitSet();
+        boolean all_ascii = true;
+        boolean block_ascii = true;
+        long chars = 0;
+
+        for (int i = start; i < end; )
+        {
+            int n = sequence_length(bytes, i, end);
+            int width = n == 4 ? 2 : 1; // in chars
+            boolean is_ascii = n == 1 && bytes.get(i) >= 0;
+            all_ascii &= is_ascii;
+
+            for (int k = 0; k < width; ++k, ++chars)
+            {
+                if (chars % BLOCK == 0)
+                {
+                    int b = (int) (chars / BLOCK);
+                    if (b > 0 && block_ascii) ascii.set(b - 1);
+                    if (b == blocks.length)
+                        blocks = Arrays.copyOf(blocks, b * 2);
+                    blocks[b] = i - start;
+                    if (k == 1) split.set(b);
+                    block_ascii = true;
+                }
+                block_ascii &= is_ascii;
+            }
+
+            i += n;
+        }
+
+        if (chars > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("input too large: " + chars + " characters");
+
+        if (all_ascii)
+            return new ByteCharSequence(bytes, start, (int) chars, null, null, null);
+
+        int nblocks = (int) ((chars + BLOCK - 1) / BLOCK);
+        if (nblocks > 0 && block_ascii) ascii.set(nblocks - 1);
+
+        return new ByteCharSequence(bytes, start, (int) chars,
+            Arrays.copyOf(blocks, nblocks), ascii, split);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Memory-maps the file at {@code path} and returns a view of its content decoded with {@code
+     * charset}, which must be UTF-8, ISO-8859-1 or US-ASCII.
+     *
+     * <p>The file must not be larger than 2GB, and must not be modified while the view is in use.
+     */
+    public static ByteCharSequence map (Path path, Charset charset) throws IOException
+    {
+        boolean utf8 = charset.equals(StandardCharsets.UTF_8);
+
+        if (!utf8
+                && !charset.equals(StandardCharsets.ISO_8859_1)
+                && !charset.equals(StandardCharsets.US_ASCII))
+            throw new IllegalArgumentException("unsupported charset: " + charset);
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("file too large: " + path);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        return utf8 ? utf8(buffer) : latin1(buffer);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the length in bytes of the UTF-8 sequence starting at {@code i}, or 1 if the sequence
+     * is malformed.
+     */
+    private static int sequence_length (ByteBuffer bytes, int i, int end)
+    {
+        int b = bytes.get(i) & 0xFF;
+        int n = b < 0x80 ? 1
+              : b < 0xC2 ? 0
+              : b < 0xE0 ? 2
+              : b < 0xF0 ? 3
+              : b < 0xF5 ? 4
+              : 0;
+
+        if (n <= 1 || i + n > end) return 1;
+
+        for (int k = 1; k < n; ++k)
+            if ((bytes.get(i + k) & 0xC0) != 0x80)
+                return 1;
+
+        int c = bytes.get(i + 1) & 0xFF;
+        if (b == 0xE0 && c < 0xA0      // overlong
+         || b == 0xED && c >= 0xA0     // surrogate
+         || b == 0xF0 && c < 0x90      // overlong
+         || b == 0xF4 && c >= 0x90)    // > U+10FFFF
+            return 1;
+
+        return n;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Decodes the code point of the well-formed sequence of length {@code n} at {@code i}.
+     */
+    private static int code_point (ByteBuffer bytes, int i, int n)
+    {
+        int b = bytes.get(i) & 0xFF;
+        switch (n) {
+            case 1:
+                return b;
+            case 2:
+                return (b & 0x1F) << 6 | bytes.get(i + 1) & 0x3F;
+            case 3:
+                return (b & 0x0F) << 12 | (bytes.get(i + 1) & 0x3F) << 6 | bytes.get(i + 2) & 0x3F;
+            default:
+                return (b & 0x07) << 18 | (bytes.get(i + 1) & 0x3F) << 12
+                    | (bytes.get(i + 2) & 0x3F) << 6 | bytes.get(i + 3) & 0x3F;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public int length() {
+        return length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public char charAt (int index)
+    {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+
+        if (blocks == null)
+            return (char) (bytes.get(offset + index) & 0xFF);
+
+        int b = index / BLOCK;
+        int i = offset + blocks[b];
+
+        if (ascii.get(b))
+            return (char) bytes.get(i + index % BLOCK);
+
+        int skip = index % BLOCK + (split.get(b) ? 1 : 0);
+
+        // skip characters before index
+        while (true)
+        {
+            int n = sequence_length(bytes, i, end);
+            int width = n == 4 ? 2 : 1;
+            if (skip < width) {
+                if (n == 1 && bytes.get(i) < 0) return REPLACEMENT;
+                int cp = code_point(bytes, i, n);
+                return width == 1
+                    ? (char) cp
+                    : skip == 0
+                        ? Character.highSurrogate(cp)
+                        : Character.lowSurrogate(cp);
+            }
+            skip -= width;
+            i += n;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public CharSequence subSequence (int start, int end)
+    {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException(
+                "start: " + start + ", end: " + end + ", length: " + length);
+
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; ++i)
+            chars[i - start] = charAt(i);
+        return new String(chars);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString() {
+        return subSequence(0, length).toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
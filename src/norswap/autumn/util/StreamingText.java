@@ -0,0 +1,225 @@
+package norswap.autumn.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A {@link CharSequence} that reads its characters from a {@link Reader} on demand, keeping only a
+ * window of the input in memory. Passing it to {@link norswap.autumn.Autumn#parse} enables
+ * <em>streaming mode</em>, which makes it possible to parse inputs that are larger than the
+ * memory, or that arrive over a pipe.
+ *
+ * <p>In streaming mode, {@link norswap.autumn.parsers.Cut} parsers become hard commitments: the
+ * characters before the cut are discarded from the buffer (whenever room is needed), and the
+ * entries of {@link norswap.autumn.Parse#log} logged before the cut are committed (see {@link
+ * norswap.autumn.Log#commit(int)}). Backtracking before a cut is not supported: it throws an
+ * {@link IllegalStateException} if it needs to undo committed side effects or to read discarded
+ * characters. Without cuts, the whole input is kept in memory. Cuts within memoized parsers or
+ * parsers that try several alternatives (e.g. {@link norswap.autumn.parsers.Longest}) are
+ * supported, but only take effect at the first cut after these parsers complete.
+ *
+ * <p>To keep memory bounded, a typical streaming grammar repeats a top-level item followed by a
+ * cut, and emits the values produced by each item instead of accumulating them on the value
+ * stack:
+ *
+ * <pre>{@code
+ * root = seq(item.emit(sink), cut).at_least(0);
+ * }</pre>
+ *
+ * <p>Memoization tables must also be bounded, e.g. by using {@link
+ * norswap.autumn.memo.WindowedMemoTable} (including for the {@link norswap.autumn.DSL#tokens}, via
+ * the {@link norswap.autumn.DSL} constructor).
+ *
+ * <p>The length of the sequence is unknown until the end of the input is reached: until then,
+ * {@link #length()} returns {@link Integer#MAX_VALUE}. {@link #charAt(int)} returns 0 at the end of
+ * the input (like {@link norswap.autumn.Parse#char_at(int)}), after which the length is known.
+ *
+ * <p>Instances must not be shared between parses.
+ */
+public final class StreamingText implements CharSequence
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final Reader reader;
+
+    /** Holds the characters in {@code [base, base + filled)}. */
+    private char[] buffer;
+
+    /** Input position of the first character in {@link #buffer}. */
+    private int base = 0;
+
+    /** Number of characters in {@link #buffer}. */
+    private int filled = 0;
+
+    /** Characters before this position may be discarded. */
+    private int released = 0;
+
+    /** Whether the end of the input has been reached. */
+    private boolean eof = false;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a streaming text reading from {@code reader}, with the given initial buffer
+     * capacity (in characters). The buffer grows as needed if not enough characters are released.
+     */
+    public StreamingText (Reader reader, int capacity)
+    {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.reader = reader;
+        this.buffer = new char[capacity];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a streaming text reading from {@code reader}, with a 64k characters initial buffer.
+     */
+    public StreamingText (Reader reader) {
+        this(reader, 1 << 16);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a streaming text reading from {@code channel}, decoded with {@code charset}.
+     */
+    public StreamingText (ReadableByteChannel channel, Charset charset) {
+        this(Channels.newReader(channel, charset.newDecoder(), -1));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Signals that the characters before {@code position} will not be accessed anymore, and
+     * may be discarded.
+     */
+    public void release (int position) {
+        released = Math.max(released, position);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reads more characters, returning false if the end of the input was reached.
+     */
+    private boolean fill()
+    {
+        if (filled == buffer.length)
+        {
+            int discard = Math.min(released - base, filled);
+            if (discard > buffer.length / 4) {
+                System.arraycopy(buffer, discard, buffer, 0, filled - discard);
+                base += discard;
+                filled -= discard;
+            }
+            else {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+
+        try {
+            int n = reader.read(buffer, filled, buffer.length - filled);
+            if (n < 0) {
+                eof = true;
+                return false;
+            }
+            filled += n;
+            return true;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Ensures that all characters before {@code end} are in the buffer, or that the end of the
+     * input has been reached.
+     */
+    private void ensure (int end)
+    {
+        while (end > base + filled && !eof)
+            fill();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void check_not_discarded (int index)
+    {
+        if (index < base)
+            throw new IllegalStateException("Position " + index + " was discarded from the "
+                + "streaming input (backtracking before a cut?).");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns {@link Integer#MAX_VALUE} until the end of the input has been reached, and the length
+     * of the input afterwards.
+     */
+    @Override public int length() {
+        return eof ? base + filled : Integer.MAX_VALUE;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the character at the given index, or 0 if the index is the end of the input.
+     */
+    @Override public char charAt (int index)
+    {
+        check_not_discarded(index);
+        ensure(index + 1);
+
+        if (index < base + filled)
+            return buffer[index - base];
+        if (index == base + filled)
+            return 0;
+
+        throw new IndexOutOfBoundsException("index: " + index + ", length: " + (base + filled));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public CharSequence subSequence (int start, int end)
+    {
+        check_not_discarded(start);
+        ensure(end);
+
+        if (start > end || end > base + filled)
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end);
+
+        return new String(buffer, start - base, end - start);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the characters currently held in the buffer.
+     */
+    public String buffered() {
+        return new String(buffer, 0, filled);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a description of the characters currently held in the buffer and of their position
+     * in the input, since the whole input is not available. Use {@link #subSequence(int, int)} or
+     * {@link #buffered()} to retrieve the characters themselves.
+     */
+    @Override public String toString() {
+        return "StreamingText[" + base + ", " + (base + filled) + (eof ? ", eof" : "") + "]: "
+            + buffered();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
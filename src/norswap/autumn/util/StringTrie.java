@@ -0,0 +1,165 @@
+package norswap.autumn.util;
+
+import java.util.Arrays;
+
+/**
+ * A trie mapping strings to non-negative integer values, used to match a set of literal strings
+ * against the input in a single pass.
+ *
+ * <p>{@link #longest(CharSequence, int)} returns the value of the longest key that occurs in a
+ * text at a given position, while {@link #matches(CharSequence, int, int[])} returns the values of
+ * all such keys. In both cases, the text is only scanned once, and at most up to the length of
+ * the longest key ({@link #depth()}).
+ *
+ * <p>The trie does not support removals.
+ */
+public final class StringTrie
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Node
+    {
+        /** Sorted characters labelling the edges to the children. */
+        char[] chars = new char[0];
+
+        /** Children, parallel to {@link #chars}. */
+        Node[] children = new Node[0];
+
+        /** Value of the key ending at this node, or -1. */
+        int value = -1;
+
+        Node child (char c) {
+            int i = Arrays.binarySearch(chars, c);
+            return i >= 0 ? children[i] : null;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Node root = new Node();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int size = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int depth = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Maps {@code key} to {@code value} (which must be non-negative). If the key is already
+     * present, the trie is left unchanged and false is returned.
+     */
+    public boolean put (String key, int value)
+    {
+        if (value < 0)
+            throw new IllegalArgumentException("negative value: " + value);
+
+        Node node = root;
+        for (int i = 0; i < key.length(); ++i)
+        {
+            char c = key.charAt(i);
+            int j = Arrays.binarySearch(node.chars, c);
+            if (j < 0) {
+                j = -j - 1;
+                Node child = new Node();
+                int n = node.chars.length;
+                char[] chars = Arrays.copyOf(node.chars, n + 1);
+                Node[] children = Arrays.copyOf(node.children, n + 1);
+                System.arraycopy(chars, j, chars, j + 1, n - j);
+                System.arraycopy(children, j, children, j + 1, n - j);
+                chars[j] = c;
+                children[j] = child;
+                node.chars = chars;
+                node.children = children;
+            }
+            node = node.children[j];
+        }
+
+        if (node.value >= 0)
+            return false;
+
+        node.value = value;
+        depth = Math.max(depth, key.length());
+        ++size;
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the value mapped to {@code key}, or -1 if absent.
+     */
+    public int get (String key)
+    {
+        Node node = root;
+        for (int i = 0; node != null && i < key.length(); ++i)
+            node = node.child(key.charAt(i));
+        return node == null ? -1 : node.value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of keys in the trie.
+     */
+    public int size() {
+        return size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Length of the longest key in the trie.
+     */
+    public int depth() {
+        return depth;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the value of the longest key that occurs in {@code text} at position {@code pos}, or
+     * -1 if there are none.
+     */
+    public int longest (CharSequence text, int pos)
+    {
+        Node node = root;
+        int result = root.value;
+        int end = text.length();
+
+        while (pos < end && (node = node.child(text.charAt(pos++))) != null)
+            if (node.value >= 0)
+                result = node.value;
+
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the values of all the keys that occur in {@code text} at position {@code pos} into
+     * {@code out}, by increasing key length, and returns their number.
+     *
+     * <p>{@code out} must be able to hold {@code depth() + 1} values.
+     */
+    public int matches (CharSequence text, int pos, int[] out)
+    {
+        Node node = root;
+        int count = 0;
+        int end = text.length();
+
+        if (root.value >= 0)
+            out[count++] = root.value;
+
+        while (pos < end && (node = node.child(text.charAt(pos++))) != null)
+            if (node.value >= 0)
+                out[count++] = node.value;
+
+        return count;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
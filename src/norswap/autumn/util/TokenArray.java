@@ -0,0 +1,163 @@
+package norswap.autumn.util;
+
+import norswap.autumn.Parse;
+import norswap.autumn.parsers.KindMatch;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A packed array of tokens produced by a lexer, to be parsed as a list input ({@link Parse#list})
+ * by parsers that match token kinds ({@link KindMatch}).
+ *
+ * <p>Each token is represented by three ints: its kind (typically the ordinal of an enum
+ * constant), and its start and end (exclusive) offsets in {@link #text}. No per-token object is
+ * allocated, and parsers read the kinds through {@link Parse#kind_at(int)} without boxing.
+ *
+ * <p>Since this is a {@link java.util.List} of kinds, other list parsers work as well, but they see
+ * the kinds as boxed {@link Integer}s. While parsing a token array, {@link Parse#substring(int,
+ * int)} returns the part of {@link #text} spanned by a range of tokens, so that string-based
+ * actions (e.g. {@link norswap.autumn.DSL#with_string}) work unchanged.
+ *
+ * <p>Build by calling {@link #add(int, int, int)} for each token, in order. The array must not be
+ * modified once parsing starts.
+ *
+ * <p>A token array can also wrap a plain array of kinds, without text or offsets ({@link
+ * #of(int[])}). This is what {@link norswap.autumn.Autumn#parse(norswap.autumn.Parser, int[],
+ * norswap.autumn.ParseOptions)} does. Such an array cannot be appended to, and has no text to
+ * return from {@link #string(int, int)}.
+ */
+public final class TokenArray extends AbstractList<Integer> implements RandomAccess
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** The text the tokens were lexed from, or null if the array was created with {@link #of}. */
+    public final CharSequence text;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int[] kinds;
+    private int[] starts;
+    private int[] ends;
+    private int size;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an empty token array over the given text, with room for {@code capacity} tokens.
+     */
+    public TokenArray (CharSequence text, int capacity)
+    {
+        this.text = text;
+        capacity = Math.max(capacity, 8);
+        kinds  = new int[capacity];
+        starts = new int[capacity];
+        ends   = new int[capacity];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private TokenArray (int[] kinds)
+    {
+        this.text = null;
+        this.kinds = kinds;
+        this.size = kinds.length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a token array holding the given token kinds, without text or offsets. The array is
+     * not copied, and must not be modified while it is being parsed.
+     */
+    public static TokenArray of (int[] kinds)
+    {
+        return new TokenArray(kinds);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Appends a token with the given kind, spanning {@code [start, end[} in {@link #text}.
+     */
+    public void add (int kind, int start, int end)
+    {
+        if (starts == null)
+            throw new IllegalStateException("Cannot append to a token array without offsets.");
+
+        if (size == kinds.length) {
+            kinds  = Arrays.copyOf(kinds,  size * 2);
+            starts = Arrays.copyOf(starts, size * 2);
+            ends   = Arrays.copyOf(ends,   size * 2);
+        }
+
+        kinds[size]  = kind;
+        starts[size] = start;
+        ends[size]   = end;
+        ++ size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the kind of the token at the given index. */
+    public int kind (int index) {
+        return kinds[index];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the array backing the token kinds, whose first {@link #size()} items are the kinds of
+     * the tokens. This is the array itself, not a copy.
+     */
+    public int[] kinds() {
+        return kinds;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the start offset in {@link #text} of the token at the given index. */
+    public int start (int index) {
+        return starts[index];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the end offset (exclusive) in {@link #text} of the token at the given index. */
+    public int end (int index) {
+        return ends[index];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the part of {@link #text} spanned by the tokens between {@code start} (inclusive)
+     * and {@code end} (exclusive), or the empty string if {@code start == end}.
+     */
+    public String string (int start, int end)
+    {
+        if (text == null)
+            throw new IllegalStateException("Token array without text.");
+
+        return start == end
+            ? ""
+            : text.subSequence(starts[start], ends[end - 1]).toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public Integer get (int index)
+    {
+        if (index >= size)
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        return kinds[index];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public int size() {
+        return size;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
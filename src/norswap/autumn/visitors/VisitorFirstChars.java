@@ -0,0 +1,360 @@
+package norswap.autumn.visitors;
+
+import norswap.autumn.Parser;
+import norswap.autumn.ParserVisitor;
+import norswap.autumn.ParserWalker;
+import norswap.autumn.parsers.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * A visitor for built-in parsers that determines the set of characters with which the input must
+ * start for a parser to succeed (the "first characters" of the parser).
+ *
+ * <p>To determine the first characters of a parser, call {@link #first_chars(Parser)}. The result
+ * only covers the ASCII range ({@link #SIZE} characters): the analysis says nothing about other
+ * characters. The character 0 stands for the end of the input, as in {@link
+ * norswap.autumn.Parse#char_at(int)}.
+ *
+ * <p>The analysis computes a necessary condition for success: a parser always fails when the next
+ * character is an ASCII character outside of its set. Parsers that can succeed regardless of the
+ * next character (e.g. {@link Optional}, or parsers whose behaviour is unknown) have no first
+ * characters, in which case {@link #first_chars(Parser)} returns null.
+ *
+ * <p>Note that the first characters of a {@link Sequence} are those of its first child, regardless
+ * of whether the child is nullable: the child has to succeed at the same position as the sequence.
+ * The same reasoning applies to other parsers that always invoke a child at their own input
+ * position. This also means the analysis does not require nullability information.
+ *
+ * <p>Since first characters depend on those of the sub-parsers, and that the parser graph may
+ * contain cycles, the first characters of all the parsers reachable from a parser are computed
+ * together, by iterating until a fixed point is reached. Results are memoized, so an instance
+ * should be reused as much as possible.
+ *
+ * <p>To support custom parsers, provide an appropriate overload using {@link ParserVisitor#extend}.
+ * Also see {@link ParserVisitor}'s Javadoc. Within the overload, query the first characters of
+ * sub-parsers using {@link #current_first_chars(Parser)}, and use the {@code add} methods to
+ * record the first characters of the visited parser. Without an overload, custom parsers are
+ * assumed to be able to succeed on any character.
+ *
+ * <p>The first characters of a {@link CharPredicate} are obtained by calling its predicate on
+ * every ASCII character. This visitor is used to build {@link CharDispatch} tables, and {@link
+ * CharDispatch#prepare(Parser)} runs it the first time a {@link Choice} or {@link
+ * PrecedenceExpression} is invoked: predicates with side effects (e.g. counting their calls) will
+ * observe these 128 extra calls per {@link CharPredicate} reachable from that parser.
+ */
+public final class VisitorFirstChars extends ParserWalker implements ParserVisitor
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static HashOverloads overloads = new HashOverloads(VisitorFirstChars.class);
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public Overloads overloads() {
+        return overloads;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of characters covered by the analysis: the ASCII range.
+     */
+    public static final int SIZE = 128;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Bit signifying that a set contains all characters. */
+    private static final int ANY = SIZE;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maps parsers to their first characters (in which {@link #ANY} may be set). */
+    private final HashMap<Parser, BitSet> sets = new HashMap<>();
+
+    /** Parsers reached by the walk, in post-order. */
+    private final ArrayList<Parser> order = new ArrayList<>();
+
+    /** The set being computed for the visited parser. */
+    private BitSet current;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override protected void work (Parser parser, State state)
+    {
+        if (state == State.AFTER)
+            order.add(parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the set of (ASCII) characters with which the input must start for {@code parser} to
+     * succeed, or null if the parser may succeed regardless of the next character. The returned
+     * set must not be modified.
+     */
+    public BitSet first_chars (Parser parser)
+    {
+        if (!visited(parser))
+            analyze(parser);
+
+        BitSet set = sets.get(parser);
+        return set.get(ANY) ? null : set;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void analyze (Parser root)
+    {
+        int start = order.size();
+        walk(root);
+
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+            for (int i = start; i < order.size(); ++i)
+            {
+                Parser parser = order.get(i);
+                current = new BitSet(SIZE + 1);
+                parser.accept(this);
+
+                if (!current.equals(sets.get(parser))) {
+                    sets.put(parser, current);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the first characters of {@code parser} computed so far (which may be incomplete
+     * while iterating to a fixed point), including the {@link #ANY} bit.
+     *
+     * <p>To be used by visitor overloads.
+     */
+    public BitSet current_first_chars (Parser parser)
+    {
+        if (!visited(parser)) {
+            // not reachable through children(): assume the worst
+            BitSet any = new BitSet(SIZE + 1);
+            any.set(ANY);
+            return any;
+        }
+        BitSet set = sets.get(parser);
+        return set != null ? set : new BitSet(0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records that the visited parser can succeed regardless of the next character.
+     */
+    public void add_any() {
+        current.set(ANY);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records that the visited parser can succeed when the next character is {@code c}.
+     */
+    public void add (char c) {
+        if (c < SIZE) current.set(c);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records that the visited parser can succeed when the next character is one of the first
+     * characters of {@code parser}.
+     */
+    public void add_firsts (Parser parser) {
+        current.or(current_first_chars(parser));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records that the visited parser can succeed when the next character is one of the first
+     * characters of one of the given parsers.
+     */
+    public void add_firsts (Iterable<Parser> parsers) {
+        for (Parser parser: parsers)
+            add_firsts(parser);
+    }
+
+    // =============================================================================================
+
+    @Override public void default_action (Parser parser) {
+        // pessimistic assumption
+        add_any();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (CharPredicate parser) {
+        for (char c = 0; c < SIZE; ++c)
+            if (parser.predicate.test(c))
+                current.set(c);
+    }
+
+    @Override public void visit (StringMatch parser) {
+        if (parser.string.isEmpty())
+            add_any();
+        else
+            add(parser.string.charAt(0));
+    }
+
+    @Override public void visit (KeywordSet parser) {
+        for (int i = 0; i < parser.size(); ++i)
+            if (parser.string(i).isEmpty())
+                add_any();
+            else
+                add(parser.string(i).charAt(0));
+    }
+
+    @Override public void visit (Fail parser) {
+        // empty
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (Empty parser) {
+        add_any();
+    }
+
+    @Override public void visit (Optional parser) {
+        add_any();
+    }
+
+    @Override public void visit (Not parser) {
+        add_any();
+    }
+
+    @Override public void visit (ContextPredicate parser) {
+        add_any();
+    }
+
+    @Override public void visit (ObjectPredicate parser) {
+        add_any();
+    }
+
+    @Override public void visit (AbstractPrimitive parser) {
+        add_any();
+    }
+
+    @Override public void visit (AbstractWrapper parser) {
+        add_any();
+    }
+
+    @Override public void visit (AbstractChoice parser) {
+        add_any();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (Repeat parser) {
+        if (parser.min == 0)
+            add_any();
+        else
+            add_firsts(parser.child);
+    }
+
+    @Override public void visit (Collect parser) {
+        if (parser.action_on_fail)
+            add_any();
+        else
+            add_firsts(parser.child);
+    }
+
+    @Override public void visit (Around parser) {
+        if (parser.min == 0)
+            add_any();
+        else
+            add_firsts(parser.around);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (GuardedRecursion parser) {
+        add_firsts(parser.child);
+    }
+
+    @Override public void visit (LeftRecursive parser) {
+        add_firsts(parser.child);
+    }
+
+    @Override public void visit (Lookahead parser) {
+        add_firsts(parser.child);
+    }
+
+    @Override public void visit (Memo parser) {
+        add_firsts(parser.child);
+    }
+
+    @Override public void visit (LazyParser parser) {
+        add_firsts(parser.child());
+    }
+
+    @Override public void visit (TokenParser parser) {
+        add_firsts(parser.target);
+    }
+
+    @Override public void visit (AbstractForwarding parser) {
+        add_firsts(parser.forwardee);
+    }
+
+    @Override public void visit (LeftExpression parser) {
+        add_firsts(parser.left);
+    }
+
+    @Override public void visit (LeftFold parser) {
+        add_firsts(parser.left);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (Sequence parser)
+    {
+        Iterator<Parser> it = parser.children().iterator();
+        if (it.hasNext())
+            add_firsts(it.next());
+        else
+            add_any();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (Choice parser) {
+        add_firsts(parser.children());
+    }
+
+    @Override public void visit (Longest parser) {
+        add_firsts(parser.children());
+    }
+
+    @Override public void visit (TokenChoice parser) {
+        add_firsts(parser.children());
+    }
+
+    @Override public void visit (RightExpression parser) {
+        add_firsts(parser.children());
+    }
+
+    @Override public void visit (RightFold parser) {
+        add_firsts(parser.children());
+    }
+
+    @Override public void visit (PrecedenceExpression parser) {
+        add_firsts(parser.operand);
+        add_firsts(Arrays.asList(parser.prefixes));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
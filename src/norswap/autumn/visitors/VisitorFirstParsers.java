@@ -140,6 +140,10 @@ public final class VisitorFirstParsers implements ParserVisitor
         // empty
     }
 
+    @Override public void visit (KeywordSet parser) {
+        // empty
+    }
+
     @Override public void visit (AbstractPrimitive parser) {
         // empty
     }
@@ -263,6 +267,23 @@ public final class VisitorFirstParsers implements ParserVisitor
 
     // ---------------------------------------------------------------------------------------------
 
+    @Override public void visit (PrecedenceExpression parser)
+    {
+        firsts.addAll(list(parser.prefixes));
+        firsts.add(parser.operand);
+
+        if (!nullable(parser.operand))
+            return;
+
+        firsts.addAll(list(parser.infixes));
+        firsts.addAll(list(parser.suffixes));
+
+        // NOTE: We do not check for a nullable prefix, nor for nullable operand + one nullable
+        // infix, as that is a nullable repetition violation, and will be caught as such.
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Override public void visit (LeftFold parser) {
         firsts_add_sequence(list(parser.left, parser.operator, parser.right));
     }
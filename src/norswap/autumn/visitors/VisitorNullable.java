@@ -111,7 +111,7 @@ public final class VisitorNullable extends ParserWalker implements ParserVisitor
     public void add_if_one_nullable (Parser parser, Iterable<Parser> others)
     {
         for (Parser other: others)
-            if (nullable(parser)) {
+            if (nullable(other)) {
                 nullables.add(parser);
                 return;
             }
@@ -126,7 +126,7 @@ public final class VisitorNullable extends ParserWalker implements ParserVisitor
     public void add_if_all_nullable (Parser parser, Iterable<Parser> others)
     {
         for (Parser other: others)
-            if (!nullable(parser))
+            if (!nullable(other))
                 return;
 
         nullables.add(parser);
@@ -241,6 +241,13 @@ public final class VisitorNullable extends ParserWalker implements ParserVisitor
         add_if(parser, parser.string.equals(""));
     }
 
+    @Override public void visit (KeywordSet parser) {
+        boolean empty = false;
+        for (int i = 0; i < parser.size(); ++i)
+            empty |= parser.string(i).equals("");
+        add_if(parser, empty);
+    }
+
     // ---------------------------------------------------------------------------------------------
 
     @Override public void visit (AbstractPrimitive parser) {
@@ -305,6 +312,12 @@ public final class VisitorNullable extends ParserWalker implements ParserVisitor
 
     // ---------------------------------------------------------------------------------------------
 
+    @Override public void visit (PrecedenceExpression parser) {
+        add_if_nullable(parser, parser.operand);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Override public void visit (LeftFold parser) {
         add_if(parser,
             !parser.operator_required && nullable(parser.left)
@@ -114,6 +114,7 @@ public final class VisitorNullableRepetition implements ParserVisitor
     @Override public void visit (Optional parser)          { result = false; }
     @Override public void visit (Sequence parser)          { result = false; }
     @Override public void visit (StringMatch parser)       { result = false; }
+    @Override public void visit (KeywordSet parser)        { result = false; }
     @Override public void visit (TokenChoice parser)       { result = false; }
     @Override public void visit (TokenParser parser)       { result = false; }
 
@@ -178,6 +179,26 @@ public final class VisitorNullableRepetition implements ParserVisitor
 
     // ---------------------------------------------------------------------------------------------
 
+    @Override public void visit (PrecedenceExpression parser)
+    {
+        for (Parser suffix: parser.suffixes)
+            if (nullable(suffix)) {
+                result = true;
+                return;
+            }
+
+        if (nullable(parser.operand))
+            for (Parser infix: parser.infixes)
+                if (nullable(infix)) {
+                    result = true;
+                    return;
+                }
+
+        result = false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Override public void visit (LeftFold parser)
     {
         result = nullable(parser.operator) && nullable(parser.right);
@@ -1,19 +1,68 @@
+import norswap.autumn.Autumn;
 import norswap.autumn.DSL;
+import norswap.autumn.Edit;
+import norswap.autumn.FrozenGrammar;
+import norswap.autumn.MalformedGrammarError;
+import norswap.autumn.ParseListener;
+import norswap.autumn.ParseMetrics;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseOutcome;
 import norswap.autumn.ParseResult;
 import norswap.autumn.ParseState;
+import norswap.autumn.ParseWorkspace;
+import norswap.autumn.Parser;
+import norswap.autumn.ParserMetrics;
+import norswap.autumn.SideEffect;
+import norswap.autumn.StackSampler;
 import norswap.autumn.TestFixture;
+import norswap.autumn.compiler.ParserCompiler;
+import norswap.autumn.jfr.JfrParseListener;
 import norswap.autumn.memo.MemoEntry;
+import norswap.autumn.memo.MemoPlan;
+import norswap.autumn.memo.MemoPlanner;
+import norswap.autumn.memo.MemoStats;
+import norswap.autumn.memo.MemoStatsAggregator;
 import norswap.autumn.memo.MemoTable;
+import norswap.autumn.memo.Memoizer;
+import norswap.autumn.memo.PackedMemoTable;
+import norswap.autumn.memo.WindowedMemoTable;
 import norswap.autumn.parsers.*;
+import norswap.autumn.util.ByteCharSequence;
+import norswap.autumn.util.StreamingText;
+import norswap.autumn.util.StringTrie;
+import norswap.autumn.util.TokenArray;
 import norswap.utils.Slot;
 import org.testng.annotations.Test;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import static norswap.utils.Util.cast;
 import static org.testng.AssertJUnit.assertEquals;
 
 public final class TestParsers extends DSL
@@ -527,6 +576,103 @@ public final class TestParsers extends DSL
 
     // ---------------------------------------------------------------------------------------------
 
+    @Test public void packed_memo_table_implem()
+    {
+        HashMap<Integer, MemoEntry> map = new HashMap<>();
+        PackedMemoTable table = new PackedMemoTable(false);
+        int N = 1000_000;
+        int RANGE = 10_000;
+        int SPAN = 100;
+        Random random = new Random();
+        List<SideEffect> delta = Collections.singletonList(() -> () -> {});
+
+        for (int i = 0; i < N; ++i)
+        {
+            int pos = random.nextInt(RANGE);
+            MemoEntry e = table.get(null, pos, null);
+            MemoEntry expected = map.get(pos);
+
+            if (expected == null) {
+                assertEquals(e, null);
+                MemoEntry entry = new MemoEntry(
+                    random.nextBoolean(),
+                    null,
+                    pos,
+                    pos + random.nextInt(SPAN),
+                    delta,
+                    null);
+                table.memoize(entry);
+                map.put(pos, entry);
+            }
+            else {
+                assertEquals(e.start_position, expected.start_position);
+                assertEquals(e.end_position, expected.end_position);
+                assertEquals(e.delta, expected.delta);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void memo_packed_table()
+    {
+        Supplier<Integer> cntval = () -> result.<Slot<Integer>>parse_state("counter").x;
+        ParseState<Slot<Integer>> ctr = new ParseState<>("counter", () -> new Slot<>(1));
+
+        rule amemo = a.collect().action((p,xs) -> p.log.apply(() -> {
+            ctr.data(p).x *= 2;
+            return () -> ctr.data(p).x /= 2;
+        })).memo(new ParseState<>(new Object(), () -> new PackedMemoTable(false)));
+
+        rule = choice(seq(amemo, amemo, amemo), seq(a, amemo));
+
+        success("aa");
+        assert_equals(cntval.get(), 2);
+        success("aaa");
+        assert_equals(cntval.get(), 8);
+
+        // memoized empty matches at the start of the input are successes
+
+        rule empty_memo = str("").memo();
+        rule = seq(empty_memo, choice(seq(empty_memo, b), seq(empty_memo, a)));
+        success("a", "a");
+
+        empty_memo = str("").memo(new ParseState<>(new Object(), () -> new PackedMemoTable(true)));
+        rule = seq(empty_memo, choice(seq(empty_memo, b), seq(empty_memo, a)));
+        success("a", "a");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void memo_windowed_table()
+    {
+        Object key = new Object();
+        rule amemo = a.memo(new ParseState<>(key, () -> new WindowedMemoTable(true)));
+        rule item = choice(seq(amemo, amemo, b), seq(amemo, a));
+        String input = String.join("", Collections.nCopies(500, "aab"));
+
+        // without cut: everything is retained
+
+        rule = item.at_least(0).collect().action((p,xs) -> {});
+        success(input);
+        assert_equals(result.<WindowedMemoTable>parse_state(key).size(), 1001); // 1 failure at end
+
+        // with cut: only the entries after the last cut are retained
+
+        rule = seq(item, cut).at_least(0).collect().action((p,xs) -> {});
+        success(input);
+        int size = result.<WindowedMemoTable>parse_state(key).size();
+        fixture.assert_true(size <= 8, 0, () -> "too many retained entries: " + size);
+
+        // backtracking before the cut is still correct
+
+        rule = choice(seq(seq(item, cut).at_least(0), b), seq(item, cut).at_least(0))
+            .collect().action((p,xs) -> {});
+        success(input);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Test public void tokens()
     {
         // Note: this pollutes the DSL state with these tokens, but it's okay since this
@@ -1125,4 +1271,1074 @@ public final class TestParsers extends DSL
     }
 
     // ---------------------------------------------------------------------------------------------
+
+    @Test public void test_precedence_expression()
+    {
+        rule = precedence_expression()
+            .operand(a)
+            .infix(1, str("+"), xs -> "(" + xs[0] + "+" + xs[1] + ")")
+            .infix(2, str("*"), xs -> "(" + xs[0] + "*" + xs[1] + ")")
+            .prefix(3, str("-"), xs -> "(-" + xs[0] + ")")
+            .infix_right(4, str("^"), xs -> "(" + xs[0] + "^" + xs[1] + ")")
+            .suffix(5, str("!"), xs -> "(" + xs[0] + "!)")
+            .get();
+
+        success("a");
+        success("a+a*a", "(a+(a*a))");
+        success("a*a+a", "((a*a)+a)");
+        success("a+a+a", "((a+a)+a)");
+        success("a^a^a", "(a^(a^a))");
+        success("-a*a", "((-a)*a)");
+        success("a*-a", "(a*(-a))");
+        success("-a^a", "(-(a^a))");
+        success("--a", "(-(-a))");
+        success("-a!", "(-(a!))");
+        success("a+a!!", "(a+((a!)!))");
+        success("-a^a*a+a!", "(((-(a^a))*a)+(a!))");
+
+        failure("aa");
+        failure("+a");
+        failure("a+");
+        failure("a-");
+
+        // trailers that cannot match the next character are skipped, with identical outcomes
+        int[] calls = { 0 };
+        rule q = cpred(c -> { ++ calls[0]; return c == '?'; });
+        rule = precedence_expression()
+            .operand(a)
+            .infix(1, str("+"), xs -> "(" + xs[0] + "+" + xs[1] + ")")
+            .infix(2, seq(q, str(":")), xs -> "(" + xs[0] + "?:" + xs[1] + ")")
+            .suffix(3, str("!"), xs -> "(" + xs[0] + "!)")
+            .get();
+
+        ParseOptions dispatch = ParseOptions.get();
+        ParseOptions no_dispatch = ParseOptions.record_call_stack(true).get();
+
+        for (String input: new String[] {
+                "a+a", "a?:a!", "a!+a", "a+", "a?", "a?:", "a!?a", "a+b", "b" }) {
+            ParseResult expected = Autumn.parse(rule, input, no_dispatch);
+            ParseResult actual = Autumn.parse(rule, input, dispatch);
+            assert_equals(actual.success, expected.success);
+            assert_equals(actual.match_size, expected.match_size);
+            assert_equals(actual.error_position, expected.error_position);
+            assert_equals(actual.error_message, expected.error_message);
+        }
+
+        int calls0 = calls[0];
+        Autumn.parse(rule, "a+a!+a", dispatch);
+        assert_equals(calls[0], calls0);
+        Autumn.parse(rule, "a+a!+a", no_dispatch);
+        assert_equals(calls[0], calls0 + 5);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void parse_all()
+    {
+        ParseState<Slot<Integer>> ctr = new ParseState<>("counter", () -> new Slot<>(0));
+
+        rule counted = a.collect().action((p,xs) -> p.log.apply(() -> {
+            ++ ctr.data(p).x;
+            return () -> -- ctr.data(p).x;
+        }));
+
+        rule = seq(lazy(() -> counted.memo()).at_least(1), choice(seq(b, b), b));
+
+        List<String> inputs = new ArrayList<>();
+        for (int i = 1; i <= 200; ++i)
+            inputs.add(String.join("", Collections.nCopies(i, "a")) + (i % 3 == 0 ? "c" : "b"));
+
+        ParseMetrics metrics = new ParseMetrics();
+        ParseOptions options = ParseOptions.metrics(() -> metrics).get();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            List<ParseOutcome> outcomes = Autumn.parse_all(rule, inputs.stream(), options, executor)
+                .collect(Collectors.toList());
+
+            assert_equals(outcomes.size(), inputs.size());
+
+            for (ParseOutcome outcome: outcomes)
+            {
+                String input = (String) outcome.input;
+                assert_equals(outcome.thrown, null);
+                assert_equals(outcome.full_match(), input.endsWith("b"));
+
+                if (outcome.full_match())
+                    assert_equals(outcome.result.<Slot<Integer>>parse_state("counter").x,
+                        input.length() - 1);
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        ParserMetrics root = metrics.get(rule.get());
+        assert_equals(root.invocations, inputs.size());
+
+        // inputs are consumed lazily, invalid inputs and rejected tasks are reported
+        ExecutorService executor2 = Executors.newFixedThreadPool(2);
+        try {
+            long matched = Autumn.parse_all(rule, Stream.generate(() -> "ab"),
+                    ParseOptions.get(), executor2)
+                .limit(10)
+                .filter(ParseOutcome::full_match)
+                .count();
+            assert_equals(matched, 10L);
+
+            ParseOutcome invalid = Autumn.parse_all(rule, Stream.of(42),
+                    ParseOptions.get(), executor2)
+                .findFirst().get();
+            assert_equals(invalid.thrown instanceof IllegalArgumentException, true);
+        }
+        finally {
+            executor2.shutdown();
+        }
+
+        List<ParseOutcome> rejected = Autumn.parse_all(rule, Stream.of("ab", "aab"),
+                ParseOptions.get(), executor2)
+            .collect(Collectors.toList());
+        assert_equals(rejected.size(), 2);
+        for (ParseOutcome outcome: rejected)
+            assert_equals(outcome.thrown instanceof RejectedExecutionException, true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void compiler()
+    {
+        rule num = digit.at_least(1).push(with_string((p,xs,str) -> Integer.parseInt(str)));
+        rule sp = set(" \t").at_least(0);
+        sp.get().set_rule("sp");
+        rule sign = choice(str("+"), str("-"));
+        sign.get().exclude_errors = true;
+        rule expr = recursive(self -> seq(
+            choice(num, seq(str("(\n\"é\u2603"), sp, self, str(")"))),
+            seq(sign.opt(), sp, self).opt(),
+            str("?").repeat(2).opt(),
+            rule(new StringMatch("!", sp.get())).at_least(1).opt(),
+            str(";").at_least(2).opt(),
+            choice(empty, fail))
+            .push(xs -> Arrays.toString(xs)));
+        rule = seq(expr, choice(str("."), seq(fail, str(".."))));
+
+        String[] inputs = {
+            "1.", "12 +  3.", "(\n\"é\u2603 1 - 2).", "(\n\"é\u2603 1 - 2", "1??.", "1?.",
+            "1! !.", "1 +", "1 ;;.", "1;.", "x", "", "(\n\"é\u2603 (\n\"é\u2603 4))."
+        };
+
+        ParseOptions options = ParseOptions.get();
+        ParseResult[] expected = new ParseResult[inputs.length];
+        for (int i = 0; i < inputs.length; ++i)
+            expected[i] = Autumn.parse(rule, inputs[i], options);
+
+        fixture.assert_true(ParserCompiler.compile(rule.get()), 0,
+            () -> "no Java compiler available");
+        fixture.assert_true(rule.get().compiled() != null, 0, () -> "root not compiled");
+
+        for (int i = 0; i < inputs.length; ++i)
+        {
+            ParseResult actual = Autumn.parse(rule, inputs[i], options);
+            assert_equals(actual.success, expected[i].success);
+            assert_equals(actual.match_size, expected[i].match_size);
+            assert_equals(actual.error_position, expected[i].error_position);
+            assert_equals(actual.error_message, expected[i].error_message);
+            assert_equals(actual.value_stack.toString(), expected[i].value_stack.toString());
+        }
+
+        // the compiled code is bypassed when recording the call stack
+        ParseResult recorded =
+            Autumn.parse(rule, "1 +", ParseOptions.record_call_stack(true).get());
+        assert_equals(recorded.error_call_stack != null, true);
+
+        ParserCompiler.decompile(rule.get());
+        assert_equals(rule.get().compiled(), null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void char_dispatch()
+    {
+        int[] calls = { 0 };
+        rule x = cpred(c -> { ++ calls[0]; return c == 'x'; });
+        rule excluded = str("e");
+        excluded.get().exclude_errors = true;
+
+        rule = seq(choice(
+                seq(str("ab"), str("!")),
+                seq(x, x),
+                excluded,
+                seq(digit.at_least(1), str(";")),
+                seq(str("é"), str("!")),
+                str("z").opt()),
+            str("."));
+
+        ParseOptions dispatch = ParseOptions.get();
+        ParseOptions no_dispatch = ParseOptions.record_call_stack(true).get();
+
+        for (String input: new String[] {
+                "ab!.", "xx.", "12;.", "e.", "é!.", ".", "a.", "ab.", "x.", "q", "", "12", "é" }) {
+            ParseResult expected = Autumn.parse(rule, input, no_dispatch);
+            ParseResult actual = Autumn.parse(rule, input, dispatch);
+            assert_equals(actual.success, expected.success);
+            assert_equals(actual.match_size, expected.match_size);
+            assert_equals(actual.error_position, expected.error_position);
+            assert_equals(actual.error_message, expected.error_message);
+        }
+
+        // the furthest error comes from skipped alternatives only
+        rule = seq(str("q"), choice(str("a"), any), excluded);
+        ParseResult skipped = Autumn.parse(rule, "qc", dispatch);
+        assert_equals(skipped.error_position, 1);
+        assert_equals(skipped.error_position, Autumn.parse(rule, "qc", no_dispatch).error_position);
+
+        // the alternative starting with x is never tried on other characters
+        rule = seq(choice(seq(x, x), digit.at_least(1)), str(";."));
+        Autumn.parse(rule, "12;.", dispatch); // builds the dispatch table
+        int calls0 = calls[0];
+        Autumn.parse(rule, "12;.", dispatch);
+        assert_equals(calls[0], calls0);
+        Autumn.parse(rule, "12;.", no_dispatch);
+        assert_equals(calls[0], calls0 + 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void keyword_trie()
+    {
+        StringTrie trie = new StringTrie();
+        trie.put(">", 0);
+        trie.put(">>", 1);
+        trie.put(">>=", 2);
+        assert_equals(trie.put(">>", 3), false);
+        assert_equals(trie.longest("a >>> b", 2), 1);
+        assert_equals(trie.longest("a >>= b", 2), 2);
+        assert_equals(trie.longest("a >>= b", 0), -1);
+        int[] out = new int[trie.depth() + 1];
+        assert_equals(trie.matches("a >>=", 2, out), 3);
+        assert_equals(Arrays.toString(Arrays.copyOf(out, 3)), "[0, 1, 2]");
+
+        rule = str_set("<", "<<", "<<=", "<=").collect().push_string_match();
+        success("<<", "<<");
+        success("<<=", "<<=");
+        success("<=", "<=");
+        failure("=");
+
+        // token sets: keywords and identifiers, operators sharing prefixes, and a string matched
+        // by two base parsers (only the first is in the trie)
+
+        DSL g = new DSL();
+        g.ws = g.str(" ").at_least(0);
+        rule in_a = g.str("in").token().as_val("in_a");
+        rule in_b = g.word("in").token().as_val("in_b");
+        rule[] tokens = {
+            g.word("if").token().as_val("if"),
+            g.word("int").token().as_val("int"),
+            g.word("interface").token().as_val("interface"),
+            in_a,
+            in_b,
+            g.seq(g.alpha, g.alphanum.at_least(0)).word().token().as_val("id"),
+            g.word(">").token().as_val(">"),
+            g.word(">>").token().as_val(">>"),
+            g.word(">>=").token().as_val(">>="),
+            g.word("=").token().as_val("="),
+        };
+
+        rule = g.choice((Object[]) tokens).at_least(0);
+
+        ParseOptions trie_lookup = ParseOptions.get();
+        ParseOptions no_lookup = ParseOptions.record_call_stack(true).get();
+
+        String input = "if int interface iffy >>= >> > = in ins =in";
+        ParseResult result = Autumn.parse(rule, input, trie_lookup);
+        assert_equals(result.full_match, true);
+        assert_equals(result.value_stack.toString(),
+            "[if, int, interface, id, >>=, >>, >, =, in_b, id, =, in_a]");
+
+        for (String in: new String[] { input, "interfaces >>>", "in", "i", ">", "" }) {
+            ParseResult expected = Autumn.parse(rule, in, no_lookup);
+            ParseResult actual = Autumn.parse(rule, in, trie_lookup);
+            assert_equals(actual.match_size, expected.match_size);
+            assert_equals(actual.value_stack.toString(), expected.value_stack.toString());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void log_journal()
+    {
+        Object map_key = new Object();
+        Object slot_key = new Object();
+        ParseState<HashMap<String, String>> map_state = new ParseState<>(map_key, () -> {
+            HashMap<String, String> map = new HashMap<>();
+            map.put("n", null);
+            return map;
+        });
+        ParseState<Slot<Integer>> slot_state = new ParseState<>(slot_key, () -> new Slot<>(0));
+
+        rule effects = a.collect().action((p, xs) -> {
+            p.log.put(map_state.data(p), "k", "a");
+            p.log.put(map_state.data(p), "n", "a");
+            p.log.set(slot_state.data(p), slot_state.data(p).x + 1);
+            p.stack.push("x");
+            p.stack.push("y");
+            p.stack.pop(2);
+            p.stack.push("z");
+        });
+
+        // rollback (and replay through Longest)
+        rule = longest(seq(effects, str("!")), seq(effects, str("?")), str("a"));
+
+        for (String input: new String[] { "a!", "a?", "a" })
+        {
+            ParseResult r = Autumn.parse(rule, input, ParseOptions.get());
+            HashMap<String, String> map = cast(r.parse_states.get(map_key));
+            Slot<Integer> slot = cast(r.parse_states.get(slot_key));
+            boolean applied = !input.equals("a");
+
+            assert_equals(r.full_match, true);
+            assert_equals(map.get("k"), applied ? "a" : null);
+            assert_equals(map.containsKey("k"), applied);
+            assert_equals(map.get("n"), applied ? "a" : null);
+            assert_equals(map.containsKey("n"), true);
+            assert_equals(slot.x, applied ? 1 : 0);
+            assert_equals(r.value_stack.toString(), applied ? "[z]" : "[]");
+        }
+
+        // replay from a packed memo table
+        rule memo = effects.memo(new ParseState<>(new Object(), () -> new PackedMemoTable(false)));
+        rule = choice(seq(memo, str("!")), seq(memo, str("?")));
+        ParseResult r = Autumn.parse(rule, "a?", ParseOptions.get());
+        assert_equals(r.full_match, true);
+        assert_equals(((Slot<?>) r.parse_states.get(slot_key)).x, 1);
+        assert_equals(r.value_stack.toString(), "[z]");
+
+        // deltas can be replayed as generic side effects
+        List<SideEffect.Applied> applied = new ArrayList<>();
+        rule = effects.collect().action((p, xs) -> {
+            int log0 = p.log.size();
+            p.log.set(slot_state.data(p), 41);
+            List<SideEffect> delta = p.log.delta(log0);
+            p.log.rollback(log0);
+            for (SideEffect effect: delta)
+                p.log.apply(effect);
+            applied.addAll(p.log.delta_applied(log0));
+        });
+        r = Autumn.parse(rule, "a", ParseOptions.get());
+        assert_equals(((Slot<?>) r.parse_states.get(slot_key)).x, 41);
+        applied.get(0).undo.run();
+        assert_equals(((Slot<?>) r.parse_states.get(slot_key)).x, 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void char_sequence_input() throws IOException
+    {
+        // decoding: ASCII, 2-, 3- and 4-byte sequences, at various offsets relative to blocks
+        StringBuilder b = new StringBuilder();
+        String[] pieces = { "abc", "é", "€", "\uD83D\uDE00", "x\ny", "ü€\uD83D\uDE00" };
+        for (int i = 0; i < 200; ++i)
+            b.append(pieces[i % pieces.length]).append(i % 7 == 0 ? "0123456789abcdef" : "");
+        String expected = b.toString();
+        ByteBuffer bytes = ByteBuffer.wrap(expected.getBytes(StandardCharsets.UTF_8));
+        ByteCharSequence text = ByteCharSequence.utf8(bytes);
+
+        assert_equals(text.length(), expected.length());
+        for (int i = 0; i < expected.length(); ++i) {
+            int j = i;
+            fixture.assert_true(text.charAt(i) == expected.charAt(i), 0,
+                () -> "mismatch at index " + j);
+        }
+        assert_equals(text.toString(), expected);
+        assert_equals(text.subSequence(3, 10).toString(), expected.substring(3, 10));
+
+        // malformed bytes, Latin-1 and pure ASCII
+        byte[] malformed = { 'a', (byte) 0xFF, 'b', (byte) 0xE2, (byte) 0x82 };
+        assert_equals(ByteCharSequence.utf8(ByteBuffer.wrap(malformed)).toString(),
+            "a\uFFFDb\uFFFD\uFFFD");
+        byte[] latin1 = { 'a', (byte) 0xE9 };
+        assert_equals(ByteCharSequence.latin1(ByteBuffer.wrap(latin1)).toString(), "a\u00E9");
+        assert_equals(ByteCharSequence.utf8(ByteBuffer.wrap("abc".getBytes())).toString(), "abc");
+
+        // parsing char sequences and files
+        rule = seq(str("€").at_least(1), str("\uD83D\uDE00"), alpha.at_least(1))
+            .collect().push_string_match();
+        String input = "€€\uD83D\uDE00abc";
+
+        ParseResult r = Autumn.parse(rule, new StringBuilder(input), ParseOptions.get());
+        assert_equals(r.full_match, true);
+        assert_equals(r.value_stack.peek(), input);
+
+        Path file = Files.createTempFile("autumn", ".txt");
+        try {
+            Files.write(file, input.getBytes(StandardCharsets.UTF_8));
+            r = Autumn.parse(rule, file, StandardCharsets.UTF_8, ParseOptions.get());
+            assert_equals(r.full_match, true);
+            assert_equals(r.value_stack.peek(), input);
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void streaming_input()
+    {
+        int n = 100_000;
+
+        // generates "0;1;2;...;n-1;" lazily
+        Reader reader = new Reader() {
+            int next = 0;
+            String pending = "";
+            @Override public int read (char[] buf, int off, int len) {
+                if (pending.isEmpty()) {
+                    if (next == n) return -1;
+                    pending = next++ + ";";
+                }
+                int k = Math.min(len, pending.length());
+                pending.getChars(0, k, buf, off);
+                pending = pending.substring(k);
+                return k;
+            }
+            @Override public void close() {}
+        };
+
+        int[] count = { 0 };
+        long[] sum = { 0 };
+        rule number = digit.at_least(1).collect().push_string_match();
+        rule item = number.emit(xs -> {
+            ++count[0];
+            sum[0] += Long.parseLong((String) xs[0]);
+        });
+        rule root = seq(item, str(";"), cut).at_least(0);
+
+        StreamingText text = new StreamingText(reader, 256);
+        ParseResult r = Autumn.parse(root, text, ParseOptions.get());
+        assert_equals(r.full_match, true);
+        assert_equals(count[0], n);
+        assert_equals(sum[0], (long) n * (n - 1) / 2);
+        assert_equals(r.value_stack.size(), 0);
+        int buffered = text.buffered().length();
+        fixture.assert_true(buffered <= 256, 0, () -> "buffer grew to " + buffered);
+
+        // partial match
+        r = Autumn.parse(root, new StreamingText(new StringReader("1;2;x"), 2), ParseOptions.get());
+        assert_equals(r.success, true);
+        assert_equals(r.full_match, false);
+        assert_equals(r.match_size, 4);
+
+        // cuts within memoized parsers
+        rule memoized = seq(number, str(";"), cut).memo().at_least(0);
+        r = Autumn.parse(memoized, new StreamingText(new StringReader("1;2;3;"), 2),
+            ParseOptions.get());
+        assert_equals(r.full_match, true);
+        assert_equals(r.value_stack.size(), 3);
+
+        // cuts within parsers that backtrack after a successful alternative
+        rule longer = longest(seq(number, str(";"), cut), seq(number, str(";;"), cut)).at_least(0);
+        r = Autumn.parse(longer, new StreamingText(new StringReader("1;;2;"), 2),
+            ParseOptions.get());
+        assert_equals(r.full_match, true);
+        assert_equals(r.value_stack.size(), 2);
+
+        // toString describes the buffered window
+        StreamingText small = new StreamingText(new StringReader("ab"), 4);
+        assert_equals(small.charAt(2), (char) 0);
+        assert_equals(small.toString(), "StreamingText[0, 2, eof]: ab");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void incremental_reparse()
+    {
+        int[] runs = { 0 };
+        rule stmt = seq(context(p -> ++runs[0] > 0), alpha.at_least(1), str(";"))
+            .collect().push_string_match()
+            .memo();
+        rule root = stmt.at_least(0);
+
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 100; ++i) b.append("ab;");
+        String text = b.toString();
+
+        ParseResult r = Autumn.parse(root, text, ParseOptions.get());
+        assert_equals(r.full_match, true);
+        assert_equals(runs[0], 101);
+
+        // edits, checked against a parse from scratch
+        Edit[] edits = {
+            Edit.insert(150, "xyz"),        // new statement
+            new Edit(151, 152, "cd"),       // modifies a statement
+            Edit.delete(0, 6),              // deletes two statements
+            Edit.insert(294, "ef;"),        // at the end
+            Edit.insert(10, "!"),           // creates an error
+        };
+
+        for (Edit edit: edits)
+        {
+            text = edit.apply(text);
+            runs[0] = 0;
+            r = Autumn.reparse(r, edit);
+            int reparse_runs = runs[0];
+            ParseResult expected = Autumn.parse(root, text, ParseOptions.get());
+            int full_runs = runs[0] - reparse_runs;
+
+            assert_equals(r.full_match, expected.full_match);
+            assert_equals(r.match_size, expected.match_size);
+            assert_equals(new ArrayList<>(r.value_stack), new ArrayList<>(expected.value_stack));
+            fixture.assert_true(reparse_runs <= 3, 0, () -> edit + ": " + reparse_runs
+                + " statements reparsed (full: " + full_runs + ")");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void examined_extent()
+    {
+        Object key = new Object();
+        ParseState<Memoizer> state = new ParseState<>(key, () -> new MemoTable(false));
+        rule ab = seq(str("ab"), str("c").not()).memo(state);
+        rule letters = alpha.at_least(0).memo(state);
+        rule root = seq(ab, letters, str(";").opt());
+
+        ParseResult r = Autumn.parse(root, "abdef", ParseOptions.get());
+        assert_equals(r.full_match, true);
+        MemoTable table = r.parse_state(key);
+
+        // the negative lookahead examined one character past the match
+        MemoEntry e = table.get(null, 0, null);
+        assert_equals(e.end_position, 2);
+        assert_equals(e.extent, 3);
+
+        // the repetition examined the end of input
+        e = table.get(null, 2, null);
+        assert_equals(e.end_position, 5);
+        assert_equals(e.extent, 6);
+
+        // failures record their extent as well, and so do packed tables
+        state = new ParseState<>(key, () -> new PackedMemoTable(false));
+        rule abc = str("abc").memo(state);
+        r = Autumn.parse(choice(abc, str("abd")), "abd", ParseOptions.get());
+        assert_equals(r.full_match, true);
+        e = r.<PackedMemoTable>parse_state(key).get(null, 0, null);
+        assert_equals(e.succeeded(), false);
+        assert_equals(e.extent, 3);
+
+        // list inputs
+        rule objects = opred(o -> o instanceof Integer).at_least(0).memo(state);
+        r = Autumn.parse(objects, Arrays.asList(1, 2, "x"), ParseOptions.get());
+        assert_equals(r.match_size, 2);
+        e = r.<PackedMemoTable>parse_state(key).get(null, 0, null);
+        assert_equals(e.extent, 3);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void memo_plan()
+    {
+        int[] checks = { 0 };
+        rule digit = cpred(c -> { ++checks[0]; return '0' <= c && c <= '9'; });
+        rule num = digit.at_least(1).push(with_string((p,xs,str) -> str));
+        rule item = seq(num, str(","));
+        rule root = choice(seq(item.at_least(0), str("!")), seq(item.at_least(0), str("?")));
+        num.get().set_rule("num");
+        item.get().set_rule("item");
+
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 40; ++i) b.append(i).append(",");
+        String text = b.append("?").toString();
+
+        ParseResult expected = Autumn.parse(root, text, ParseOptions.get());
+        assert_equals(expected.full_match, true);
+        int checks0 = checks[0];
+
+        // the second alternative re-parses all items, far from the most recent position
+        MemoPlan plan = new MemoPlanner().profile(root.get(), Arrays.asList(text, "1,2,!"));
+        assert_equals(plan.rules.get("item"), 0);
+        assert_equals(MemoPlan.parse(plan.toString()).rules, plan.rules);
+
+        plan.apply(root.get());
+        assert_equals(item.get().memo() != null, true);
+        checks[0] = 0;
+        ParseResult r = Autumn.parse(root, text, ParseOptions.get());
+        assert_equals(r.full_match, true);
+        assert_equals(new ArrayList<>(r.value_stack), new ArrayList<>(expected.value_stack));
+        int checks1 = checks[0];
+        fixture.assert_true(checks1 * 2 <= checks0 + 2, 0,
+            () -> "memoized: " + checks1 + " checks, not memoized: " + checks0);
+
+        // caches are chosen for local backtracking
+        rule a = str("a");
+        rule ab = choice(seq(a, str("b")), seq(a, str("c")), a);
+        a.get().set_rule("a");
+        MemoPlanner planner = new MemoPlanner();
+        planner.min_time_share = 0;
+        plan = planner.profile(ab.at_least(0).get(), Arrays.asList("aaacab"));
+        assert_equals(plan.rules.get("a"), 1);
+        assert_equals(MemoPlan.parse("x: cache(4)\n\ny: table").toString(),
+            "x: cache(4)\ny: table\n");
+
+        // the savings of recursive rules include the time of the nested invocations: here, the
+        // re-invocation of the slow nested expression takes about half of the parse time, even
+        // though it accounts for about 1% of the invocations of the rule
+        rule open = cpred(c -> {
+            if (c == '(') {
+                long t0 = System.nanoTime();
+                while (System.nanoTime() - t0 < 50_000);
+            }
+            return c == '(';
+        });
+        rule nested = recursive(self -> choice(str("x"), seq(open, self, str(")"))));
+        rule nested_root = seq(
+            choice(seq(nested, str("!")), seq(nested, str("?"))),
+            seq(str(","), nested).at_least(0));
+        nested.get().set_rule("nested");
+
+        String input = String.join("", Collections.nCopies(20, "(")) + "x"
+            + String.join("", Collections.nCopies(20, ")")) + "?"
+            + String.join("", Collections.nCopies(2000, ",x"));
+
+        planner.min_reinvocation_ratio = 0;
+        planner.min_time_share = 0.05;
+        plan = planner.profile(nested_root.get(), Arrays.asList(input));
+        assert_equals(plan.rules.containsKey("nested"), true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void stack_sampling()
+    {
+        rule num = digit.at_least(1);
+        rule item = seq(num, str(","));
+        rule root = item.at_least(0);
+        num.get().set_rule("num");
+        item.get().set_rule("item");
+        root.get().set_rule("root");
+
+        // one sample per rule invocation (including the last, failed, item)
+        StackSampler sampler = StackSampler.every(1);
+        ParseOptions options = ParseOptions.sampler(sampler).get();
+        assert_equals(Autumn.parse(root, "12,3,", options).full_match, true);
+
+        Map<String, Long> samples = sampler.samples();
+        assert_equals(samples.get("root"), 1L);
+        assert_equals(samples.get("root;item"), 3L);
+        assert_equals(samples.get("root;item;num"), 3L);
+        assert_equals(sampler.folded(), "root 1\nroot;item 3\nroot;item;num 3\n");
+
+        // samples accumulate across parses
+        Autumn.parse(root, "4,", options);
+        assert_equals(sampler.samples().get("root;item;num"), 5L);
+
+        // ignored when tracing
+        sampler.reset();
+        Autumn.parse(root, "4,", ParseOptions.sampler(sampler).trace(true).get());
+        assert_equals(sampler.samples().isEmpty(), true);
+
+        // sampling every n invocations
+        sampler = StackSampler.every(3);
+        Autumn.parse(root, "12,3,", ParseOptions.sampler(sampler).get());
+        long total = sampler.samples().values().stream().mapToLong(x -> x).sum();
+        assert_equals(total, 2L);
+
+        try (StackSampler timed = StackSampler.timed(Duration.ofMillis(1))) {
+            StringBuilder b = new StringBuilder();
+            for (int i = 0; i < 10000; ++i) b.append(i).append(",");
+            Autumn.parse(root, b.toString(), ParseOptions.sampler(timed).get());
+            timed.samples().keySet().forEach(stack ->
+                fixture.assert_true(stack.startsWith("root"), 0, () -> "stack: " + stack));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void sharded_metrics() throws Exception
+    {
+        rule item = seq(digit.at_least(1), str(","));
+        rule root = item.at_least(0);
+
+        // a single instance shared by concurrent parses, without merging
+        ParseMetrics metrics = new ParseMetrics();
+        ParseOptions options = ParseOptions.metrics(() -> metrics).get();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<ParseResult>> results = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < 100; ++i)
+                results.add(executor.submit(() -> Autumn.parse(root, "1,23,", options)));
+            for (Future<ParseResult> result: results)
+                assert_equals(result.get().full_match, true);
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        assert_equals(metrics.get(root.get()).invocations, 100);
+        assert_equals(metrics.get(item.get()).invocations, 300);
+
+        ParseMetrics merged = new ParseMetrics();
+        merged.merge(metrics);
+        merged.merge(metrics);
+        assert_equals(merged.get(item.get()).invocations, 600);
+
+        // instances index the parsers they record independently
+        ParseMetrics first = new ParseMetrics();
+        ParseMetrics second = new ParseMetrics();
+        for (int i = 0; i < 3; ++i) {
+            Autumn.parse(root, "1,", ParseOptions.metrics(() -> first).get());
+            Autumn.parse(item, "1,", ParseOptions.metrics(() -> second).get());
+        }
+        assert_equals(first.get(item.get()).invocations, 6);
+        assert_equals(second.get(item.get()).invocations, 3);
+        assert_equals(second.get(root.get()), null);
+        assert_equals(second.metrics().size(), first.metrics().size() - 1);
+        second.merge(first);
+        assert_equals(second.get(item.get()).invocations, 9);
+        assert_equals(second.get(root.get()).invocations, 3);
+        assert_equals(second.metrics.get(item.get()).invocations, 9);
+
+        // concurrent parses with their own instances (the default for tracing) do not interfere
+        ExecutorService executor2 = Executors.newFixedThreadPool(4);
+        List<Future<ParseResult>> traced = new ArrayList<>();
+        try {
+            for (int i = 0; i < 100; ++i)
+                traced.add(executor2.submit(() ->
+                    Autumn.parse(root, "1,23,4,", ParseOptions.trace(true).get())));
+            for (Future<ParseResult> result: traced)
+                assert_equals(result.get().parse_metrics.get(item.get()).invocations, 4);
+        }
+        finally {
+            executor2.shutdown();
+        }
+
+        // re-invocations are counted per parse
+        rule x = str("x");
+        rule pairs = choice(seq(x, str("a")), seq(x, str("b"))).at_least(0);
+        ParseMetrics reinvoked = new ParseMetrics();
+        ParseOptions tracing = ParseOptions.metrics(() -> reinvoked).get();
+        String input = String.join("", Collections.nCopies(2000, "xb"));
+        assert_equals(Autumn.parse(pairs, input, tracing).full_match, true);
+        assert_equals(Autumn.parse(pairs, input, tracing).full_match, true);
+        ParserMetrics x_metrics = reinvoked.get(x.get());
+        assert_equals(x_metrics.invocations, 8004);
+        assert_equals(x_metrics.reinvocations, 4002);
+        assert_equals(x_metrics.recent_reinvocations[0], 4002);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void parse_listener() throws IOException
+    {
+        rule root = seq(str("a"), str("b").opt());
+        List<String> events = new ArrayList<>();
+
+        ParseListener listener = new ParseListener() {
+            @Override public void parse_completed (ParseResult result, int length, long duration) {
+                events.add(result.full_match + " " + length + " " + result.error_position);
+                assert_equals(duration >= 0, true);
+            }
+            @Override public void stack_overflow (Parser parser, int position, long duration) {
+                events.add("overflow");
+            }
+        };
+
+        ParseOptions options = ParseOptions.listener(ParseListener.all(listener, listener)).get();
+        Autumn.parse(root, "ab", options);
+        Autumn.parse(root, "ac", options);
+        assert_equals(events, Arrays.asList("true 2 -1", "true 2 -1", "false 2 1", "false 2 1"));
+
+        // left recursion
+        events.clear();
+        rule[] recursive = new rule[1];
+        recursive[0] = seq(lazy(() -> recursive[0]), str("a"));
+        try {
+            Autumn.parse(recursive[0], "a",
+                ParseOptions.well_formedness_check(false).listener(listener).get());
+            fixture.assert_true(false, 0, () -> "stack overflow expected");
+        }
+        catch (Error e) {
+            assert_equals(e.getCause() instanceof StackOverflowError, true);
+        }
+        assert_equals(events, Collections.singletonList("overflow"));
+
+        // JFR events
+        Path file = Files.createTempFile("autumn", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("norswap.autumn.Parse");
+            recording.enable("norswap.autumn.Rule");
+            recording.start();
+            root.get().set_rule("root");
+            Autumn.parse(root, "ab",
+                ParseOptions.listener(new JfrParseListener(5)).trace(true).get());
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> recorded = RecordingFile.readAllEvents(file);
+            RecordedEvent parse = recorded.stream()
+                .filter(e -> e.getEventType().getName().equals("norswap.autumn.Parse"))
+                .findFirst().get();
+            assert_equals(parse.getString("parser"), "root");
+            assert_equals(parse.getInt("input_length"), 2);
+            assert_equals(parse.getBoolean("full_match"), true);
+            assert_equals(recorded.stream()
+                .filter(e -> e.getEventType().getName().equals("norswap.autumn.Rule"))
+                .map(e -> e.getString("parser"))
+                .collect(Collectors.toList()),
+                Collections.singletonList("root"));
+            assert_equals(parse.getLong("memo_gets"), 0L);
+        }
+        finally {
+            Files.delete(file);
+        }
+
+        // JFR memo statistics
+        rule memoized = str("a").memo();
+        rule memo_root = choice(seq(memoized, str("b")), seq(memoized, str("c")));
+        file = Files.createTempFile("autumn", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("norswap.autumn.Parse");
+            recording.start();
+            Autumn.parse(memo_root, "ac",
+                ParseOptions.listener(new JfrParseListener()).memo_stats(true).get());
+            recording.stop();
+            recording.dump(file);
+
+            RecordedEvent parse = RecordingFile.readAllEvents(file).stream()
+                .filter(e -> e.getEventType().getName().equals("norswap.autumn.Parse"))
+                .findFirst().get();
+            assert_equals(parse.getLong("memo_gets"), 2L);
+            assert_equals(parse.getLong("memo_hits"), 1L);
+            assert_equals(parse.getLong("memo_evictions"), 0L);
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void memo_stats()
+    {
+        rule a = str("a").memo();
+        rule root = choice(seq(a, str("b")), seq(a, str("c")));
+
+        MemoStatsAggregator aggregator = new MemoStatsAggregator();
+        ParseOptions options = ParseOptions.memo_stats(true).listener(aggregator).get();
+
+        ParseResult result = Autumn.parse(root, "ac", options);
+        MemoStats stats = result.memo_stats(a.get());
+        assert_equals(stats.gets, 2L);
+        assert_equals(stats.hits, 1L);
+        assert_equals(stats.misses, 1L);
+        assert_equals(stats.inserts, 1L);
+        assert_equals(stats.probes, 2L);
+        assert_equals(result.memo_stats().size(), 1);
+
+        // not collected by default
+        assert_equals(Autumn.parse(root, "ac", ParseOptions.get()).memo_stats(a.get()), null);
+
+        // aggregated across parses
+        Autumn.parse(root, "ab", options);
+        assert_equals(aggregator.total().gets, 3L);
+        assert_equals(aggregator.total().hits, 1L);
+
+        // evictions
+        rule b = str("b").memo(1);
+        rule bs = b.at_least(0);
+        stats = Autumn.parse(bs, "bb", ParseOptions.memo_stats(true).get()).memo_stats(b.get());
+        assert_equals(stats.inserts, 3L);
+        assert_equals(stats.evictions, 2L);
+        assert_equals(stats.misses, 3L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void kind_input()
+    {
+        // kinds: 0 = number, 1 = plus, 100 = end
+        rule num = kind("num", 0);
+        rule sum = seq(num, seq(kind("plus", 1), num).at_least(0), kind("end", 100));
+
+        ParseResult r = Autumn.parse(sum, new int[] { 0, 1, 0, 1, 0, 100 }, ParseOptions.get());
+        assert_equals(r.full_match, true);
+        r = Autumn.parse(sum, new int[] { 0, 1, 1, 0, 100 }, ParseOptions.get());
+        assert_equals(r.success, false);
+        assert_equals(r.error_position, 2);
+
+        // end of input and kinds absent from the set
+        r = Autumn.parse(seq(num, num), new int[] { 0 }, ParseOptions.get());
+        assert_equals(r.success, false);
+        r = Autumn.parse(kind("none"), new int[] { 0 }, ParseOptions.get());
+        assert_equals(r.success, false);
+
+        // token arrays with offsets
+        TokenArray tokens = new TokenArray("1 + 2", 0);
+        tokens.add(0, 0, 1);
+        tokens.add(1, 2, 3);
+        tokens.add(0, 4, 5);
+        rule text = seq(num, kind("plus", 1), num).push(with_string((p,xs,str) -> str));
+        r = Autumn.parse(text, tokens, ParseOptions.get());
+        assert_equals(r.full_match, true);
+        assert_equals(r.top_value(), "1 + 2");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @SuppressWarnings("StringOperationCanBeSimplified")
+    @Test public void parse_state_slots()
+    {
+        // equal keys share a slot, other keys get their own
+        ParseState<Slot<Integer>> ctr = new ParseState<>("slots", () -> new Slot<>(0));
+        ParseState<Slot<Integer>> ctr2 = new ParseState<>(new String("slots"), () -> new Slot<>(0));
+        ParseState<Slot<Integer>> other = new ParseState<>(new Object(), () -> new Slot<>(0));
+        assert_equals(ctr2.slot, ctr.slot);
+        assert_equals(other.slot != ctr.slot, true);
+
+        // interleaved parses each use their own data
+        List<Integer> counts = new ArrayList<>();
+        rule count = a.collect().action((p,xs) -> ++ ctr.data(p).x);
+        rule nested = a.collect().action((p,xs) -> {
+            ParseResult r = Autumn.parse(count.at_least(0), "aaa", ParseOptions.get());
+            counts.add(r.<Slot<Integer>>parse_state("slots").x);
+            ++ ctr2.data(p).x;
+        });
+        ParseResult r = Autumn.parse(seq(count, nested, count), "aaa", ParseOptions.get());
+        assert_equals(r.full_match, true);
+        assert_equals(counts, Collections.singletonList(3));
+        assert_equals(r.<Slot<Integer>>parse_state("slots").x, 3);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void call_stack_snapshots()
+    {
+        rule bstr = str("b");
+        rule inner = seq(a, bstr);
+        rule outer = seq(a, inner);
+        ParseOptions options = ParseOptions.record_call_stack(true).get();
+
+        ParseResult r = Autumn.parse(outer, "aab", options);
+        assert_equals(r.full_match, true);
+        assert_equals(r.error_call_stack, null);
+
+        // snapshot taken at the furthest error, bottom frame first
+        r = Autumn.parse(outer, "aaa", options);
+        assert_equals(r.error_position, 2);
+        assert_equals(r.error_call_stack.size(), 3);
+        assert_equals(r.error_call_stack.get(0).parser, outer.get());
+        assert_equals(r.error_call_stack.get(1).parser, inner.get());
+        assert_equals(r.error_call_stack.get(1).position, 1);
+        assert_equals(r.error_call_stack.get(2).parser, bstr.get());
+        assert_equals(r.error_call_stack.get(2).position, 2);
+        assert_equals(r.error_call_stack.get(2).parent, r.error_call_stack.get(1));
+
+        // negated parsers don't contribute to the snapshot
+        rule cstr = str("c");
+        r = Autumn.parse(seq(a, inner.not(), cstr), "aac", options);
+        assert_equals(r.error_position, 1);
+        assert_equals(r.error_call_stack.size(), 2);
+        assert_equals(r.error_call_stack.get(1).parser, cstr.get());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void parse_workspace()
+    {
+        ParseState<Slot<Integer>> ctr = new ParseState<>("workspace", () -> new Slot<>(0));
+        rule counted = a.collect().peek_only().action((p,xs) -> ++ ctr.data(p).x);
+        ParseWorkspace workspace = Autumn.workspace(counted.at_least(1), ParseOptions.get());
+        assert_equals(workspace.options.well_formedness_check, false);
+
+        ParseResult r1 = workspace.parse("aa");
+        ParseResult r2 = workspace.parse("aaa");
+        ParseResult r3 = workspace.parse("ab");
+
+        // results don't share the recycled structures
+        assert_equals(r1.full_match, true);
+        assert_equals(r1.value_stack.toString(), "[a, a]");
+        assert_equals(r1.<Slot<Integer>>parse_state("workspace").x, 2);
+        assert_equals(r2.value_stack.toString(), "[a, a, a]");
+        assert_equals(r2.<Slot<Integer>>parse_state("workspace").x, 3);
+        assert_equals(r3.full_match, false);
+        assert_equals(r3.error_position, 1);
+
+        // structures grown by a large input are shrunk before being reused
+        String large = String.join("", Collections.nCopies(10_000, "a"));
+        assert_equals(workspace.parse(large).value_stack.size(), 10_000);
+        assert_equals(workspace.parse("aa").value_stack.toString(), "[a, a]");
+
+        // each thread has its own structures
+        List<ParseResult> results = IntStream.range(0, 100).parallel()
+            .mapToObj(i -> workspace.parse(i % 2 == 0 ? "a" : "aa"))
+            .collect(Collectors.toList());
+        for (int i = 0; i < results.size(); ++i)
+            assert_equals(results.get(i).value_stack.size(), i % 2 + 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void frozen_grammar()
+    {
+        rule opt_a = a.opt();
+        rule root = seq(opt_a, b);
+        FrozenGrammar frozen = FrozenGrammar.freeze(root);
+        assert_equals(FrozenGrammar.freeze(root) == frozen, true);
+        assert_equals(frozen.parsers.contains(a.get()), true);
+        assert_equals(frozen.nullable(opt_a.get()), true);
+        assert_equals(frozen.nullable(root.get()), false);
+        assert_equals(frozen.firsts(root.get()),
+            new HashSet<>(Arrays.asList(opt_a.get(), b.get())));
+        assert_equals(frozen.parse("ab", ParseOptions.get()).full_match, true);
+        assert_equals(Autumn.parse(root, "b", ParseOptions.get()).full_match, true);
+
+        // malformed grammars can't be frozen
+        try {
+            FrozenGrammar.freeze(opt_a.at_least(0));
+            fixture.assert_true(false, 0, () -> "malformed grammar expected");
+        }
+        catch (MalformedGrammarError e) {
+            assert_equals(e.checker.nullable_repetitions.isEmpty(), false);
+        }
+
+        // nullable choices and sequences
+        rule opt_b = b.opt();
+        rule x = str("x");
+        rule y = str("y");
+        rule nullable_choice = choice(x, opt_a);
+        rule nullable_seq = seq(opt_a, opt_b);
+        rule after_choice = seq(nullable_choice, b);
+        rule after_seq = seq(nullable_seq, y);
+        frozen = FrozenGrammar.freeze(choice(after_choice, after_seq));
+        assert_equals(frozen.nullable(nullable_choice.get()), true);
+        assert_equals(frozen.nullable(nullable_seq.get()), true);
+        assert_equals(frozen.nullable(after_choice.get()), false);
+        assert_equals(frozen.nullable(after_seq.get()), false);
+        assert_equals(frozen.firsts(nullable_seq.get()),
+            new HashSet<>(Arrays.asList(opt_a.get(), opt_b.get())));
+        assert_equals(frozen.firsts(after_choice.get()),
+            new HashSet<>(Arrays.asList(nullable_choice.get(), b.get())));
+        assert_equals(frozen.firsts(after_seq.get()),
+            new HashSet<>(Arrays.asList(nullable_seq.get(), y.get())));
+
+        try {
+            FrozenGrammar.freeze(nullable_seq.at_least(0));
+            fixture.assert_true(false, 0, () -> "malformed grammar expected");
+        }
+        catch (MalformedGrammarError e) {
+            assert_equals(e.checker.nullable_repetitions.isEmpty(), false);
+        }
+
+        // dispatch tables are built when freezing, not when parsing
+        int[] calls = { 0 };
+        rule q = cpred(c -> { ++ calls[0]; return c == '?'; });
+        rule dispatched = choice(q, a);
+        FrozenGrammar.freeze(dispatched);
+        int calls0 = calls[0];
+        fixture.assert_true(calls0 > 0, 0, () -> "no first characters analysis");
+        assert_equals(Autumn.parse(dispatched, "a", ParseOptions.get()).full_match, true);
+        assert_equals(calls[0], calls0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
 }
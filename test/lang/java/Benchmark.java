@@ -1,6 +1,6 @@
 package lang.java;
 
-import norswap.autumn.Autumn;
+import norswap.autumn.FrozenGrammar;
 import norswap.autumn.ParseOptions;
 import norswap.autumn.ParseResult;
 import norswap.autumn.Parser;
@@ -48,10 +48,9 @@ public final class Benchmark
         long size = 0;
 
         // Perform well-formed check only once!
-        Autumn.parse(grammar.root, "class Test {}", ParseOptions.get());
+        FrozenGrammar frozen = FrozenGrammar.freeze(grammar, grammar.root);
 
         ParseOptions options = ParseOptions
-            .well_formedness_check(false)
             .record_call_stack(DO_RECORD)
             .metrics(() -> parse_metrics)
             .trace(DO_TRACE)
@@ -64,7 +63,7 @@ public final class Benchmark
             String input = IO.slurp(""+ path);
             size += path.toFile().length();
             long t0 = System.nanoTime();
-            ParseResult result = Autumn.parse(grammar.root, input, options);
+            ParseResult result = frozen.parse(input, options);
 
             time += System.nanoTime() - t0;
 
@@ -97,7 +96,7 @@ public final class Benchmark
 
     public void pretty_print_trace()
     {
-        parse_metrics.metrics.entrySet().stream()
+        parse_metrics.metrics().entrySet().stream()
             .sorted(Comparator.comparingLong(
                 (Map.Entry<Parser, ParserMetrics> it) -> it.getValue().self_time).reversed())
             .forEach(it -> {
@@ -1,16 +1,24 @@
 package lang.java;
 
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
 import norswap.autumn.TestFixture;
 import norswap.lang.java.Grammar;
+import norswap.lang.java.Lexer;
+import norswap.lang.java.Token;
+import norswap.lang.java.TokenGrammar;
 import norswap.lang.java.LexUtils.LexProblem;
 import norswap.lang.java.ast.*;
 import norswap.utils.NArrays;
 import norswap.utils.Pair;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import static norswap.lang.java.ast.BasicType.*;
 import static norswap.utils.Vanilla.list;
@@ -611,4 +619,65 @@ public final class TestGrammar extends TestFixture
     }
 
     // ---------------------------------------------------------------------------------------------
-}
\ No newline at end of file
+
+    @Test public void token_grammar()
+    {
+        TokenGrammar tgrammar = new TokenGrammar();
+
+        String[] inputs = {
+            "package a.b; import java.util.*; class C {}",
+            "class C { List<List<String>> x = a >> 2 >>> b; void f() { x >>= 1; } }",
+            "class C { char c = '\\n'; String s = \"x\" + 4_2L + .42e42 + true + null; }",
+            "@interface A { int value() default 1 /* comment */ ; } // comment",
+            "enum E { X(1), Y; E(int x) { this.x = x; } }",
+            // lexer regressions: octal escapes, unicode escapes within literals, empty comments
+            "class C { char a = '\\101'; char z = '\\0'; String s = \"\\u0041\\7\"; }",
+            "/**/ class C {}",
+        };
+
+        for (String input: inputs) {
+            ParseResult expected = Autumn.parse(grammar.root, input, ParseOptions.get());
+            ParseResult actual = Autumn.parse(
+                tgrammar.root, new Lexer(input).lex_packed(), ParseOptions.get());
+            assert_equals(actual.full_match, true);
+            assert_equals(new ArrayList<>(actual.value_stack),
+                new ArrayList<>(expected.value_stack));
+        }
+
+        // the shift operators are only matched for adjacent > tokens
+        ParseResult r = Autumn.parse(
+            tgrammar.expr, new Lexer("a > > 2").lex_packed(), ParseOptions.get());
+        assert_equals(r.full_match, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void lex_parallel()
+    {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 200; ++i)
+            b.append("class C").append(i).append(" {\n")
+             .append("    /**\n     * javadoc \" ' \n     */\n")
+             .append("    int x = 1_0 + 0x_1; /* block\n\"'/* */ String s = \"//\";\n")
+             .append("}\n");
+        String text = b.toString();
+
+        Lexer serial = new Lexer(text);
+        Token[] expected = serial.lex();
+
+        for (int chunk_size: new int[] { 1, 10, 100, 1000 }) {
+            Lexer parallel = new Lexer(text);
+            Token[] actual = parallel.lex_parallel(ForkJoinPool.commonPool(), chunk_size);
+            assert_equals(actual.length, expected.length);
+            for (int i = 0; i < actual.length; ++i) {
+                assert_equals(actual[i].kind,  expected[i].kind);
+                assert_equals(actual[i].start, expected[i].start);
+                assert_equals(actual[i].end,   expected[i].end);
+                assert_equals(actual[i].comments.size(), expected[i].comments.size());
+            }
+            assert_equals(parallel.warnings.size(), serial.warnings.size());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}